@@ -0,0 +1,49 @@
+package org.unrealarchive.submitter;
+
+import java.util.Base64;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding a collection's image from the data URI it's submitted as.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g", "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn" })
+@State(Scope.Benchmark)
+public class CollectionImageBenchmark {
+
+	/**
+	 * Size of the image, before encoding.
+	 */
+	@Param({ "1048576", "8388608" })
+	public int bytes;
+
+	private String dataUri;
+
+	@Setup
+	public void setup() {
+		final byte[] image = new byte[bytes];
+		new SplittableRandom(42).nextBytes(image);
+		dataUri = "data:image/png;base64," + Base64.getEncoder().encodeToString(image);
+	}
+
+	@Benchmark
+	public CollectionRepository.Image decode() {
+		return CollectionRepository.decodeImage(dataUri);
+	}
+}
@@ -0,0 +1,61 @@
+package org.unrealarchive.submitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.unrealarchive.submitter.submit.Submissions;
+
+/**
+ * Serialising a job's full log, as the job handler does for a client
+ * catching up on a job.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g", "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn" })
+@State(Scope.Benchmark)
+public class JobLogJsonBenchmark {
+
+	private static final long START = 1_767_225_600_000L;
+	// one in this many entries records an error, which is serialised with its stack trace
+	private static final int ERROR_EVERY = 50;
+
+	@Param({ "100", "10000" })
+	public int entries;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+	private Submissions.Job job;
+
+	@Setup
+	public void setup() {
+		final List<Submissions.LogEntry> log = new ArrayList<>(entries);
+		for (int i = 0; i < entries; i++) {
+			log.add(i % ERROR_EVERY == ERROR_EVERY - 1
+						? new Submissions.LogEntry(START + i, "Error scanning file " + i, new RuntimeException("Scan failed"),
+												   Submissions.LogType.ERROR)
+						: new Submissions.LogEntry(START + i, "Scanned " + i + " of " + entries, null, Submissions.LogType.INFO));
+		}
+		job = new Submissions.Job("job", log, Submissions.JobState.SCANNING, null);
+	}
+
+	@Benchmark
+	public String catchup() throws JsonProcessingException {
+		return mapper.writeValueAsString(job.log.since(0));
+	}
+}
@@ -0,0 +1,77 @@
+package org.unrealarchive.submitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.unrealarchive.submitter.submit.CollectionSubmission;
+import org.unrealarchive.submitter.submit.CollectionSubmissions;
+import org.unrealarchive.submitter.submit.Submissions;
+
+/**
+ * Rendering the {@code /status} page with many jobs in the history.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g", "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn" })
+@State(Scope.Benchmark)
+public class StatusPageBenchmark {
+
+	private static final long START = 1_767_225_600_000L;
+
+	@Param({ "1000", "5000" })
+	public int jobs;
+
+	private List<Submissions.Job> contentJobs;
+	private List<CollectionSubmissions.Job> collectionJobs;
+
+	@Setup
+	public void setup() {
+		// a fixed seed, so every run renders the same history
+		final SplittableRandom random = new SplittableRandom(42);
+		final Submissions.JobState[] states = Submissions.JobState.values();
+
+		contentJobs = new ArrayList<>(jobs);
+		for (int i = 0; i < jobs; i++) {
+			final long created = START + random.nextLong(TimeUnit.DAYS.toMillis(7));
+			contentJobs.add(new Submissions.Job(String.format("content%06d", i), List.of(
+				new Submissions.LogEntry(created, "Job created with ID " + i, null, Submissions.LogType.INFO),
+				new Submissions.LogEntry(created + random.nextLong(60_000), "Found a MAP in file DM-Example" + i + ".zip", null,
+										 Submissions.LogType.INFO)
+			), states[random.nextInt(states.length)], null));
+		}
+
+		final CollectionSubmission submission = new CollectionSubmission(
+			"Collection", "A collection", "Author", Map.of(), null, "2026-01-01", List.of()
+		);
+		collectionJobs = new ArrayList<>(jobs / 10);
+		for (int i = 0; i < jobs / 10; i++) {
+			final long created = START + random.nextLong(TimeUnit.DAYS.toMillis(7));
+			collectionJobs.add(new CollectionSubmissions.Job(String.format("collection%06d", i), submission,
+															 CollectionSubmissions.JobState.COMPLETED, List.of(
+				new Submissions.LogEntry(created, "Submission completed", null, Submissions.LogType.INFO)
+			)));
+		}
+	}
+
+	@Benchmark
+	public String render() {
+		return WebApp.statusPage(contentJobs, collectionJobs);
+	}
+}
@@ -0,0 +1,79 @@
+package org.unrealarchive.submitter.clam;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.unrealarchive.common.ArchiveUtil;
+import org.unrealarchive.submitter.submit.Submissions;
+
+/**
+ * The overhead of invoking a scanner for each submission, rather than
+ * the scanning itself: a process spawned per scan, as clamscan is, compared
+ * to a request over a pooled socket, as to clamd.
+ * <p>
+ * Neither actually scans anything. The process is {@code true}, and the
+ * socket is served by an in-process {@link FakeClamD}, which only looks
+ * through the content it's streamed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g", "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn" })
+@State(Scope.Benchmark)
+public class ClamScanBenchmark {
+
+	@Param({ "65536", "8388608" })
+	public int bytes;
+
+	private Path dir;
+	private Path file;
+	private FakeClamD clamd;
+	private ClamScan process;
+	private ClamDSocketScan socket;
+
+	@Setup
+	public void setup() throws IOException {
+		dir = Files.createTempDirectory("ua-clam-bench");
+		final byte[] content = new byte[bytes];
+		new SplittableRandom(42).nextBytes(content);
+		file = Files.write(dir.resolve("file.zip"), content);
+
+		clamd = new FakeClamD(dir.resolve("clamd.sock"));
+		process = new ClamScan("true");
+		socket = new ClamDSocketScan(clamd.socketPath);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		socket.close();
+		clamd.close();
+		ArchiveUtil.cleanPath(dir);
+	}
+
+	@Benchmark
+	public ClamScan.ClamResult processSpawn() {
+		return process.scan(new Submissions.Job(null), file);
+	}
+
+	@Benchmark
+	public ClamScan.ClamResult socketScan() {
+		return socket.scan(new Submissions.Job(null), file);
+	}
+}
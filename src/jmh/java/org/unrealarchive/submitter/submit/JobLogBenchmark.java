@@ -0,0 +1,79 @@
+package org.unrealarchive.submitter.submit;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Appending to a job's log while clients poll it, as when a job is being
+ * processed with several browsers following it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g", "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn" })
+@State(Scope.Group)
+public class JobLogBenchmark {
+
+	// logs are replaced once they reach this size, so they stay a realistic size for the whole run
+	private static final int MAX_ENTRIES = 10_000;
+	// how far behind the end of the log polling clients are
+	private static final int POLL_BEHIND = 8;
+
+	private volatile Submissions.Job job;
+
+	@Setup(Level.Iteration)
+	public void setup() {
+		job = new Submissions.Job(null);
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(2)
+	public Submissions.Job log() {
+		Submissions.Job current = job;
+		if (current.log.size() >= MAX_ENTRIES) {
+			current = new Submissions.Job(null);
+			job = current;
+		}
+		return current.log("Scanned 1 of 2 files");
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(4)
+	public CompletableFuture<List<Submissions.LogEntry>> poll() {
+		final JobLog log = job.log;
+		return log.poll(Math.max(0, log.size() - POLL_BEHIND));
+	}
+
+	@Benchmark
+	@Group("contended")
+	@GroupThreads(2)
+	public CompletableFuture<List<Submissions.LogEntry>> pollFromStart() {
+		// a client which doesn't send back where it's up to
+		return job.log.poll(0);
+	}
+
+	@Benchmark
+	@Group("uncontended")
+	@GroupThreads(1)
+	public Submissions.Job logAlone() {
+		return log();
+	}
+}
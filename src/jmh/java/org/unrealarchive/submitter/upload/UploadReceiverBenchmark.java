@@ -0,0 +1,85 @@
+package org.unrealarchive.submitter.upload;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.unrealarchive.common.ArchiveUtil;
+
+/**
+ * Receiving a multipart upload, writing its files to disk and hashing them,
+ * from a request body held in memory, so only the receiver's own costs and
+ * the local disk are measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g", "-Dorg.slf4j.simpleLogger.defaultLogLevel=warn" })
+@State(Scope.Benchmark)
+public class UploadReceiverBenchmark {
+
+	private static final String BOUNDARY = "benchmark-boundary";
+
+	/**
+	 * Size of each uploaded file.
+	 */
+	@Param({ "1048576", "67108864" })
+	public int bytes;
+
+	@Param({ "1", "4" })
+	public int files;
+
+	private Path uploadPath;
+	private UploadReceiver receiver;
+	private byte[] body;
+
+	@Setup
+	public void setup() throws IOException {
+		uploadPath = Files.createTempDirectory("ua-upload-bench");
+		receiver = new UploadReceiver(uploadPath, "files", null);
+
+		final byte[] content = new byte[bytes];
+		new SplittableRandom(42).nextBytes(content);
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < files; i++) {
+			out.writeBytes(String.format("--%s\r\nContent-Disposition: form-data; name=\"files\"; filename=\"file%d.zip\"\r\n"
+										 + "Content-Type: application/zip\r\n\r\n", BOUNDARY, i).getBytes(StandardCharsets.UTF_8));
+			out.writeBytes(content);
+			out.writeBytes("\r\n".getBytes(StandardCharsets.UTF_8));
+		}
+		out.writeBytes(String.format("--%s--\r\n", BOUNDARY).getBytes(StandardCharsets.UTF_8));
+		body = out.toByteArray();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		ArchiveUtil.cleanPath(uploadPath);
+	}
+
+	@Benchmark
+	public UploadReceiver.Upload receive() throws IOException, InterruptedException {
+		final UploadReceiver.Upload upload = receiver.receive(new ByteArrayInputStream(body), BOUNDARY);
+		upload.delete();
+		return upload;
+	}
+}
@@ -8,6 +8,7 @@ import java.time.LocalDate;
 import java.util.Base64;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -23,6 +24,7 @@ import org.unrealarchive.content.ContentCollection;
 import org.unrealarchive.content.RepositoryManager;
 import org.unrealarchive.indexing.CollectionsManager;
 import org.unrealarchive.storage.DataStore;
+import org.unrealarchive.submitter.events.CollectionSubmitEvent;
 import org.unrealarchive.submitter.submit.CollectionSubmissions;
 
 public class CollectionRepository implements Closeable {
@@ -36,13 +38,15 @@ public class CollectionRepository implements Closeable {
 	private static final Pattern DATA_URI_PATTERN = Pattern.compile("data:image/(?<type>[a-zA-Z]+);base64,(?<data>.+)");
 
 	private final GitManager gitManager;
+	private final Path collectionsDir;
 	private final RepositoryManager repositoryManager;
 	private final CollectionsManager collectionsManager;
 
 	public CollectionRepository(GitManager gitManager) {
 		this.gitManager = gitManager;
-		CLI cli = new CLI(EMPTY_STRING_ARRAY, Map.of("content-path", gitManager.gitRepo().getRepository().getWorkTree().getAbsolutePath()),
-						  Set.of());
+		final Path workTree = gitManager.gitRepo().getRepository().getWorkTree().toPath();
+		this.collectionsDir = workTree.resolve("collections");
+		CLI cli = new CLI(EMPTY_STRING_ARRAY, Map.of("content-path", workTree.toAbsolutePath().toString()), Set.of());
 		this.repositoryManager = new RepositoryManager(cli);
 		this.collectionsManager = new CollectionsManager(repositoryManager, repositoryManager.collections(),
 														 store(DataStore.StoreContent.CONTENT));
@@ -71,11 +75,12 @@ public class CollectionRepository implements Closeable {
 	public void submit(CollectionSubmissions.Job job) throws GitAPIException, IOException {
 		final String branchName = String.format("collection_%s_%s", Util.slug(job.submission.title()), job.id);
 
-		try {
-			// check out a new branch
-			job.log(CollectionSubmissions.JobState.SUBMITTING, String.format("Checkout content data branch %s", branchName));
-			gitManager.checkout(branchName, true);
+		final CollectionSubmitEvent event = new CollectionSubmitEvent(job.id, branchName);
+		event.begin();
 
+		// start a new branch, and go back to master branch once done
+		job.log(CollectionSubmissions.JobState.SUBMITTING, String.format("Checkout content data branch %s", branchName));
+		try (GitManager.Change change = gitManager.change(branchName, "collections")) {
 			// 1. Map DTO to Entity
 			ContentCollection collection = new ContentCollection();
 			collection.title = job.submission.title();
@@ -92,7 +97,10 @@ public class CollectionRepository implements Closeable {
 											 })
 											 .collect(Collectors.toList());
 
-			processImage(job, collection);
+			event.items = collection.items.size();
+			// everything written for the collection goes into its own directory
+			change.add(collection.contentPath(collectionsDir));
+			event.bytes = processImage(job, collection);
 
 			// 2. Initial checkin
 			job.log(CollectionSubmissions.JobState.CHECKING_IN, "Initial collection checkin");
@@ -111,22 +119,25 @@ public class CollectionRepository implements Closeable {
 
 			// 5. Git add, commit, push
 			job.log(CollectionSubmissions.JobState.SUBMITTING, "Submitting changes and opening pull request");
-			gitManager.addAndPush(job.id, job::log, "collections", String.format("Add collection %s", collection.title));
-
-			// 6. PR
-			createPullRequest(job, branchName, collection);
-
-			job.log(CollectionSubmissions.JobState.COMPLETED, "Submission completed");
+			change.commitAndPush(job.id, job::log, String.format("Add collection %s", collection.title));
+
+			// 6. PR, which is opened once the repository is no longer needed
+			createPullRequest(job, branchName, collection).whenComplete((url, error) -> {
+				if (error == null) {
+					job.log(CollectionSubmissions.JobState.COMPLETED, "Submission completed");
+				} else {
+					job.log(CollectionSubmissions.JobState.SUBMIT_FAILED, String.format("Submission failed: %s", error.getMessage()), error);
+				}
+			});
 		} catch (Exception e) {
 			job.log(CollectionSubmissions.JobState.SUBMIT_FAILED, String.format("Submission failed: %s", e.getMessage()), e);
 			logger.error("Collection submission failed", e);
-		} finally {
-			// go back to master branch
-			gitManager.checkout(GitManager.GIT_DEFAULT_BRANCH, false);
 		}
+
+		event.finish(job.state.name());
 	}
 
-	private void createPullRequest(CollectionSubmissions.Job job, String branchName, ContentCollection collection) throws IOException {
+	private CompletableFuture<String> createPullRequest(CollectionSubmissions.Job job, String branchName, ContentCollection collection) {
 		long start = job.log.getFirst().time;
 
 		String body = String.format("Add collection: %n - %s by %s%n%n---%nJob log:%n```%n%s%n```%n%n---%nSubmission log: %s/#%s",
@@ -139,40 +150,59 @@ public class CollectionRepository implements Closeable {
 									SUBMISSION_URL, job.id
 		);
 
-		gitManager.createPullRequest(job::log, branchName, String.format("Collection: %s", collection.title), body, "submitter", "collection");
+		return gitManager.createPullRequest(job::log, branchName, String.format("Collection: %s", collection.title), body, "submitter",
+											"collection");
 	}
 
-	private void processImage(CollectionSubmissions.Job job, ContentCollection collection) throws IOException {
-		String image = job.submission.image();
-		if (image == null || image.isBlank() || !image.startsWith("data:image/")) return;
+	/**
+	 * @return the size of the image added to the collection, or 0 if there
+	 * 	was none
+	 */
+	private long processImage(CollectionSubmissions.Job job, ContentCollection collection) throws IOException {
+		final Image image = decodeImage(job.submission.image());
+		if (image == null) return 0;
 
-		Matcher matcher = DATA_URI_PATTERN.matcher(image);
-		if (matcher.find()) {
-			String type = matcher.group("type");
-			String data = matcher.group("data");
-
-			String extension;
-			switch (type.toLowerCase()) {
-				case "jpeg" -> extension = "jpg";
-				case "png" -> extension = "png";
-				case "webp" -> extension = "webp";
-				case "gif" -> extension = "gif";
-				default -> {
-					logger.warn("Unsupported image type: {}", type);
-					return;
-				}
-			}
+		Path tempFile = Files.createTempFile("ua-image", "." + image.extension());
+		try {
+			Files.write(tempFile, image.data());
+			collectionsManager.putFile(collection, tempFile);
+			collection.titleImage = tempFile.getFileName().toString();
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+		return image.data().length;
+	}
 
-			byte[] bytes = Base64.getDecoder().decode(data.trim());
-			Path tempFile = Files.createTempFile("ua-image", "." + extension);
-			try {
-				Files.write(tempFile, bytes);
-				collectionsManager.putFile(collection, tempFile);
-				collection.titleImage = tempFile.getFileName().toString();
-			} finally {
-				Files.deleteIfExists(tempFile);
+	/**
+	 * Decode an image provided as a data URI.
+	 *
+	 * @return the image, or null if there was none, or it was not a supported
+	 * 	type
+	 */
+	static Image decodeImage(String image) {
+		if (image == null || image.isBlank() || !image.startsWith("data:image/")) return null;
+
+		Matcher matcher = DATA_URI_PATTERN.matcher(image);
+		if (!matcher.find()) return null;
+
+		String type = matcher.group("type");
+		String data = matcher.group("data");
+
+		String extension;
+		switch (type.toLowerCase()) {
+			case "jpeg" -> extension = "jpg";
+			case "png" -> extension = "png";
+			case "webp" -> extension = "webp";
+			case "gif" -> extension = "gif";
+			default -> {
+				logger.warn("Unsupported image type: {}", type);
+				return null;
 			}
 		}
+
+		return new Image(extension, Base64.getDecoder().decode(data.trim()));
 	}
 
+	record Image(String extension, byte[] data) {}
+
 }
@@ -2,23 +2,42 @@ package org.unrealarchive.submitter;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.unrealarchive.common.ArchiveUtil;
 import org.unrealarchive.common.CLI;
 import org.unrealarchive.common.Util;
 import org.unrealarchive.content.AuthorRepository;
@@ -34,6 +53,8 @@ import org.unrealarchive.indexing.Indexer;
 import org.unrealarchive.indexing.Scanner;
 import org.unrealarchive.indexing.Submission;
 import org.unrealarchive.storage.DataStore;
+import org.unrealarchive.submitter.events.ContentScanEvent;
+import org.unrealarchive.submitter.events.ContentSubmitEvent;
 import org.unrealarchive.submitter.submit.Submissions;
 
 import static org.unrealarchive.submitter.submit.Submissions.LogType.ERROR;
@@ -51,34 +72,85 @@ public class ContentRepository implements Closeable {
 	private final ScheduledFuture<?> schedule;
 
 	private final GitManager gitManager;
+	private final ScheduledExecutorService executor;
+	private final Path contentDir;
+	private final Path snapshotsDir;
+	// snapshots are built one at a time, without holding the repository lock
+	private final Object building = new Object();
+	private final Duration batchWindow;
+	private final int batchMax;
+
+	private volatile Snapshot snapshot;
+	// the snapshot replaced by the current one, which scans may still be using
+	private Snapshot previous;
+
+	// the batch currently being collected, only used while holding the lock
+	private Batch batch;
+
+	/**
+	 * The loaded content, replaced as a whole when the data repository
+	 * changes. Work with content reads this once and holds on to it, so a
+	 * refresh happening meanwhile can't change what it sees part way through.
+	 * <p>
+	 * Each snapshot is loaded from its own copy of the data repository's
+	 * content and authors as of a single commit, in {@code root}, so it can be
+	 * built while the working tree is in use. Content indexed against it is
+	 * written there too, and copied into the working tree to be committed.
+	 * <p>
+	 * Scanners are kept with the content they scan against, and reused by
+	 * later scans until the snapshot is replaced.
+	 */
+	private record Snapshot(Path root, AuthorRepository authors, SimpleAddonRepository repo, ContentManager content,
+							Queue<Scanner> scanners) {
+
+		private Snapshot(Path root, AuthorRepository authors, SimpleAddonRepository repo, ContentManager content) {
+			this(root, authors, repo, content, new ConcurrentLinkedQueue<>());
+		}
 
-	private SimpleAddonRepository contentRepo;
-	private ContentManager content;
+		private Path contentDir() {
+			return root.resolve("content");
+		}
 
-	private volatile boolean contentLock = false;
+		/**
+		 * An idle scanner, or a new one if all are in use. Return it to
+		 * {@link #scanners} once done.
+		 */
+		private Scanner scanner() {
+			final Scanner scanner = scanners.poll();
+			return scanner != null ? scanner : new Scanner(repo, new CLI(EMPTY_STRING_ARRAY, Map.of(), Set.of()));
+		}
+	}
 
 	public ContentRepository(GitManager gitManager, ScheduledExecutorService executor, Path dataDir)
 		throws IOException {
-		this.gitManager = gitManager;
-
-		// create a ContentManager
-		this.contentRepo = initContentRepo(dataDir);
-		this.content = initContentManager(this.contentRepo);
-
-		// on a schedule, pull repo remote
-		this.schedule = executor.scheduleWithFixedDelay(() -> {
-			// skip updating the repo if something is busy with it
-			if (contentLock) return;
+		this(gitManager, executor, dataDir, Duration.ZERO, 1);
+	}
 
-			try {
-				if (gitManager.update()) {
-					this.contentRepo = initContentRepo(dataDir);
-					this.content = initContentManager(this.contentRepo);
-				}
-			} catch (IOException | GitAPIException e) {
-				e.printStackTrace();
-			}
-		}, GIT_POLL_TIME.toMillis(), GIT_POLL_TIME.toMillis(), TimeUnit.MILLISECONDS);
+	/**
+	 * @param batchWindow how long to collect submissions into a single pull
+	 *                    request for, or zero to open a pull request for
+	 *                    each submission
+	 * @param batchMax    the most submissions to collect into a single pull
+	 *                    request, after which it's opened straight away
+	 */
+	public ContentRepository(GitManager gitManager, ScheduledExecutorService executor, Path dataDir, Duration batchWindow, int batchMax)
+		throws IOException {
+		this.gitManager = gitManager;
+		this.executor = executor;
+		this.contentDir = dataDir.resolve("content");
+		this.snapshotsDir = dataDir.resolveSibling(dataDir.getFileName() + "-snapshots");
+		this.batchWindow = batchWindow;
+		this.batchMax = batchMax;
+
+		// anything left from a previous run is out of date
+		if (Files.exists(snapshotsDir)) ArchiveUtil.cleanPath(snapshotsDir);
+		publish(buildSnapshot(gitManager.head()));
+
+		// on a schedule, pull repo remote. if something is busy with it, this happens once it's done instead
+		this.schedule = executor.scheduleWithFixedDelay(
+			() -> gitManager.lockOrDefer(this::refresh),
+			GIT_POLL_TIME.toMillis(), GIT_POLL_TIME.toMillis(), TimeUnit.MILLISECONDS
+		);
 
 		logger.info("Content repo started");
 	}
@@ -90,16 +162,118 @@ public class ContentRepository implements Closeable {
 	@Override
 	public void close() {
 		schedule.cancel(false);
+
+		// don't leave a batch behind
+		gitManager.lock();
+		try {
+			if (batch != null) flushBatch(batch);
+		} finally {
+			gitManager.unlock();
+		}
+
+		synchronized (building) {
+			try {
+				if (Files.exists(snapshotsDir)) ArchiveUtil.cleanPath(snapshotsDir);
+			} catch (IOException e) {
+				logger.warn("Failed to remove content snapshots from {}", snapshotsDir, e);
+			}
+		}
+	}
+
+	/**
+	 * Pull upstream changes. Only this needs the lock; if content changed, the
+	 * next snapshot is built in the background from the new commit, while
+	 * submissions carry on with the current one.
+	 */
+	private void refresh() {
+		try {
+			final List<DiffEntry> changes = gitManager.update();
+			if (!reload(changes)) return;
+
+			final ObjectId commit = gitManager.head();
+			Thread.ofVirtual().name("content-snapshot").start(() -> {
+				try {
+					final Snapshot next = buildSnapshot(commit);
+					gitManager.lockOrDefer(() -> publish(next));
+				} catch (Exception e) {
+					logger.error("Failed to load content repository at {}", commit.name(), e);
+				}
+			});
+		} catch (Exception e) {
+			logger.error("Failed to refresh content repository", e);
+		}
 	}
 
-	private SimpleAddonRepository initContentRepo(Path path) throws IOException {
-		SimpleAddonRepository.FileRepository repo = new SimpleAddonRepository.FileRepository(path.resolve("content"));
+	/**
+	 * Decide whether the given changes need the content to be loaded again,
+	 * so changes elsewhere in the data repository don't cause all content to
+	 * be parsed again.
+	 * <p>
+	 * Any change to content or authors loads both again in full, however
+	 * small. The library's repositories can only be loaded from a directory
+	 * as a whole, with no way to apply individual added, changed or removed
+	 * files to one already loaded.
+	 */
+	private boolean reload(List<DiffEntry> changes) {
+		if (changes.isEmpty()) return false;
+
+		final Set<String> changedDirs = new HashSet<>();
+		for (DiffEntry change : changes) {
+			for (String path : List.of(change.getOldPath(), change.getNewPath())) {
+				if (!path.equals(DiffEntry.DEV_NULL) && path.indexOf('/') > 0) changedDirs.add(path.substring(0, path.indexOf('/')));
+			}
+		}
 
-		// init authors repository
-		AuthorRepository authorRepo = new AuthorRepository.FileRepository(path.resolve("authors"));
-		Authors.setRepository(authorRepo, path.resolve("authors"));
+		logger.info("{} files changed in {}", changes.size(), changedDirs);
 
-		return repo;
+		return changedDirs.contains("authors") || changedDirs.contains("content");
+	}
+
+	/**
+	 * Load the content and authors as of a commit, from a copy of their own.
+	 */
+	private Snapshot buildSnapshot(ObjectId commit) throws IOException {
+		synchronized (building) {
+			final Path root = snapshotsDir.resolve(commit.name());
+			if (Files.exists(root)) ArchiveUtil.cleanPath(root);
+			gitManager.export(commit, root, "authors", "content");
+			Files.createDirectories(root.resolve("authors"));
+			Files.createDirectories(root.resolve("content"));
+
+			final AuthorRepository authors = new AuthorRepository.FileRepository(root.resolve("authors"));
+			final SimpleAddonRepository repo = new SimpleAddonRepository.FileRepository(root.resolve("content"));
+			logger.info("Loaded content repository at {}", commit.name());
+			return new Snapshot(root, authors, repo, initContentManager(repo));
+		}
+	}
+
+	/**
+	 * Make a snapshot the current one. Must be called while holding the lock.
+	 * <p>
+	 * The library only reads authors through its global {@link Authors}, so
+	 * they're installed here too. Indexing, which records authors, also holds
+	 * the lock, so it always sees the authors belonging to its snapshot. A
+	 * scan still running against the previous snapshot may see the newer
+	 * authors, which is harmless since anything it finds is indexed again
+	 * against the current snapshot.
+	 */
+	private void publish(Snapshot next) {
+		Authors.setRepository(next.authors(), next.root().resolve("authors"));
+		final Snapshot replaced = this.snapshot;
+		this.snapshot = next;
+
+		// only the previous snapshot may still be in use by scans, anything older is dropped
+		if (replaced != null) {
+			final Snapshot older = previous;
+			previous = replaced;
+			if (older != null && !older.root().equals(next.root())) {
+				try {
+					ArchiveUtil.cleanPath(older.root());
+				} catch (IOException e) {
+					logger.warn("Failed to remove content snapshot {}", older.root(), e);
+				}
+			}
+		}
 	}
 
 	private ContentManager initContentManager(SimpleAddonRepository repo) throws IOException {
@@ -115,30 +289,80 @@ public class ContentRepository implements Closeable {
 
 	public void lock() {
 		gitManager.lock();
-		contentLock = true;
 	}
 
 	public void unlock() {
-		contentLock = false;
 		gitManager.unlock();
 	}
 
+	/**
+	 * Scan the given files for new content. Each file is scanned on a thread
+	 * of its own, so a submission of several files takes about as long as its
+	 * largest file.
+	 */
 	public Set<Scanner.ScanResult> scan(Submissions.Job job, Path... paths) throws IOException {
 		if (paths == null || paths.length == 0) throw new IllegalArgumentException("No paths to index");
 
-		final Scanner sc = new Scanner(this.contentRepo, new CLI(EMPTY_STRING_ARRAY, Map.of(), Set.of()));
-		final Set<Scanner.ScanResult> scanResults = new HashSet<>();
-		// scan path with content manager
+		final Snapshot snapshot = this.snapshot;
+		final Set<Scanner.ScanResult> scanResults = ConcurrentHashMap.newKeySet();
+
+		job.log(Submissions.JobState.SCANNING, "Begin scanning content");
+		logger.info("[{}] Start scanning paths {}", job.id, Arrays.toString(paths));
+
+		final ContentScanEvent event = new ContentScanEvent(job.id, paths);
+		event.begin();
+
+		try {
+			if (paths.length == 1) {
+				scan(job, snapshot, paths[0], scanResults);
+			} else {
+				try (ExecutorService scans = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("scan-" + job.id + "-", 0).factory())) {
+					final List<Future<Void>> scanned = Arrays.stream(paths)
+															 .map(p -> scans.submit(() -> {
+																 scan(job, snapshot, p, scanResults);
+																 return (Void)null;
+															 }))
+															 .toList();
+					for (Future<Void> f : scanned) {
+						try {
+							f.get();
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new InterruptedIOException("Interrupted while scanning");
+						} catch (ExecutionException e) {
+							if (e.getCause() instanceof IOException io) throw io;
+							throw new IOException("Scanning failed", e.getCause());
+						}
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			event.finish("ERROR");
+			throw e;
+		}
+
+		if (scanResults.isEmpty()) {
+			job.log(Submissions.JobState.SCAN_FAILED, "No new content found", ERROR);
+		} else {
+			job.log(Submissions.JobState.SCANNED, "Scan completed");
+		}
+
+		event.found = scanResults.size();
+		event.finish(job.state.name());
+		return scanResults;
+	}
+
+	private void scan(Submissions.Job job, Snapshot snapshot, Path path, Set<Scanner.ScanResult> scanResults) throws IOException {
+		final Scanner sc = snapshot.scanner();
 		sc.scan(new Scanner.ScannerEvents() {
 			@Override
 			public void starting(int foundFiles, Pattern included, Pattern excluded) {
-				job.log(Submissions.JobState.SCANNING, "Begin scanning content");
-				logger.info("[{}] Start scanning paths {}", job.id, Arrays.toString(paths));
+				// logged once for all paths
 			}
 
 			@Override
 			public void progress(int scanned, int total, Path currentFile) {
-				logger.info("[{}] Scanned {} of {}", job.id, scanned, total);
+				logger.info("[{}] Scanned {} of {} in {}", job.id, scanned, total, Util.fileName(path));
 			}
 
 			@Override
@@ -158,99 +382,246 @@ public class ContentRepository implements Closeable {
 
 			@Override
 			public void completed(int scannedFiles) {
-				logger.info("[{}] Completed scanning {}", job.id, scannedFiles);
+				logger.info("[{}] Completed scanning {}", job.id, Util.fileName(path));
 			}
-		}, paths);
+		}, path);
 
-		if (scanResults.isEmpty()) {
-			job.log(Submissions.JobState.SCAN_FAILED, "No new content found", ERROR);
-		} else {
-			job.log(Submissions.JobState.SCANNED, "Scan completed");
-		}
-
-		return scanResults;
+		// only reused once it's known to have finished cleanly
+		snapshot.scanners().offer(sc);
 	}
 
-	public Set<IndexResult<? extends Addon>> submit(Submissions.Job job, Path... paths) throws GitAPIException {
+	/**
+	 * Index the given files, and commit and push the results on a new branch.
+	 * <p>
+	 * When batching, results are instead committed to a branch shared with
+	 * other submissions, and pushed and opened as a single pull request once
+	 * the batch window has passed or the batch is full.
+	 * <p>
+	 * Must be called while holding the lock.
+	 */
+	public SubmitResult submit(Submissions.Job job, Path... paths) throws IOException, GitAPIException {
 		if (paths == null || paths.length == 0) throw new IllegalArgumentException("No paths to index");
 
-		final String branchName = String.format("%s_%s", Util.slug(paths[0].getFileName().toString()), job.id);
+		final boolean batching = !batchWindow.isZero();
+		final String branchName = !batching
+			? String.format("%s_%s", Util.slug(paths[0].getFileName().toString()), job.id)
+			: batch != null ? batch.branchName : String.format("batch_%s", job.id);
 
-		try {
-			// check out a new branch
-			job.log(String.format("Checkout content data branch %s", branchName));
-			gitManager.checkout(branchName, true);
+		final Set<IndexResult<? extends Addon>> indexResults = new HashSet<>();
+		CompletableFuture<String> pullRequest = CompletableFuture.failedFuture(new IllegalStateException("No content was indexed"));
 
-			final Set<IndexResult<? extends Addon>> indexResults = new HashSet<>();
+		final ContentSubmitEvent event = new ContentSubmitEvent(job.id, branchName, paths);
+		event.begin();
 
-			final Indexer idx = new Indexer(this.contentRepo, this.content, new IndexedCollector(job, paths, indexResults));
+		// start a new branch, and go back to master branch once done
+		job.log(String.format("Checkout content data branch %s", branchName));
+		try (GitManager.Change change = gitManager.change(branchName, "content")) {
+			final Snapshot current = snapshot;
+			final Indexer idx = new Indexer(current.repo(), current.content(), new IndexedCollector(job, paths, indexResults));
 
 			try {
-				idx.index(false, true, 1, job.forcedType, null, paths);
+				try {
+					idx.index(false, true, 1, job.forcedType, null, paths);
+				} finally {
+					// exactly what was written for the content is committed, or put back if indexing failed part way
+					for (IndexResult<? extends Addon> i : indexResults) {
+						final Path target = i.content.contentPath(contentDir);
+						change.add(target);
+						copy(i.content.contentPath(current.contentDir()), target);
+					}
+				}
 
 				if (!indexResults.isEmpty()) {
-					job.log(Submissions.JobState.SUBMITTING, "Submitting content and opening pull request");
 					try {
-						addAndPush(job, indexResults);
-						createPullRequest(job, branchName, indexResults);
-						job.log(Submissions.JobState.SUBMITTED, "Submission completed");
+						if (batching) {
+							job.log(Submissions.JobState.SUBMITTING, "Adding content to the next pull request");
+							change.commit(job.id, job::log, commitMessage(indexResults));
+							pullRequest = addToBatch(branchName, job, indexResults);
+						} else {
+							job.log(Submissions.JobState.SUBMITTING, "Submitting content and opening pull request");
+							change.commitAndPush(job.id, job::log, commitMessage(indexResults));
+							pullRequest = createPullRequest(job, branchName, indexResults).whenComplete((url, error) -> {
+								if (error == null) job.log(Submissions.JobState.SUBMITTED, "Submission completed");
+								else job.log(Submissions.JobState.SUBMIT_FAILED, String.format("Submission failed: %s", error.getMessage()), error);
+							});
+						}
 					} catch (Exception e) {
 						job.log(Submissions.JobState.SUBMIT_FAILED, String.format("Submission failed: %s", e.getMessage()), e);
+						pullRequest = CompletableFuture.failedFuture(e);
 					}
 				}
 			} catch (Exception e) {
 				job.log(Submissions.JobState.INDEX_FAILED, String.format("Content indexing failed: %s", e.getMessage()), e);
 				logger.warn("Content index failed", e);
 			}
+		} catch (IOException | GitAPIException | RuntimeException e) {
+			event.finish("ERROR");
+			throw e;
+		}
 
-			return indexResults;
-		} finally {
-			// go back to master branch
-			gitManager.checkout(GitManager.GIT_DEFAULT_BRANCH, false);
+		event.indexed = indexResults.size();
+		event.finish(job.state.name());
+
+		if (batch != null && batch.items.size() >= batchMax) flushBatch(batch);
+
+		return new SubmitResult(indexResults, pullRequest);
+	}
+
+	/**
+	 * Copy what indexing wrote into the snapshot's copy of the content over to
+	 * the working tree.
+	 */
+	private static void copy(Path from, Path to) throws IOException {
+		if (!Files.exists(from)) return;
+		try (Stream<Path> files = Files.walk(from)) {
+			for (Path file : files.filter(Files::isRegularFile).toList()) {
+				final Path target = to.resolve(from.relativize(file).toString());
+				Files.createDirectories(target.getParent());
+				Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING);
+			}
 		}
 	}
 
-	private void addAndPush(Submissions.Job job, final Set<IndexResult<? extends Addon>> indexResults) throws GitAPIException {
-		gitManager.addAndPush(job.id, job::log, "content", String.format("Add content %s",
-																		 indexResults.stream()
-																					 .map(i -> String.format("[%s %s] %s", Games.byName(
-																												 i.content.game).shortName,
-																											 i.content.contentType,
-																											 i.content.name)
-																					 )
-																					 .collect(Collectors.joining(", "))
-		));
+	private CompletableFuture<String> addToBatch(String branchName, Submissions.Job job, Set<IndexResult<? extends Addon>> indexResults) {
+		if (batch == null) {
+			final Batch opened = new Batch(branchName);
+			opened.flush = executor.schedule(() -> gitManager.lockOrDefer(() -> flushBatch(opened)),
+											 batchWindow.toMillis(), TimeUnit.MILLISECONDS);
+			batch = opened;
+		}
+
+		final CompletableFuture<String> pullRequest = new CompletableFuture<>();
+		batch.items.add(new Batched(job, indexResults, pullRequest));
+		job.log(String.format("Added to a batch of %d submissions, the pull request will be opened within %d seconds",
+							  batch.items.size(), batchWindow.toSeconds()));
+
+		return pullRequest;
 	}
 
-	private void createPullRequest(Submissions.Job job, final String branchName, final Set<IndexResult<? extends Addon>> indexResults)
-		throws IOException {
+	/**
+	 * Push a batch and open its pull request. Must be called while holding
+	 * the lock.
+	 */
+	private void flushBatch(Batch flushing) {
+		// already flushed when it filled up, or on close
+		if (batch != flushing) return;
+		batch = null;
+		flushing.flush.cancel(false);
+
+		final Consumer<String> log = message -> flushing.items.forEach(i -> i.job.log(message));
+		try {
+			gitManager.push(flushing.branchName, log);
+		} catch (Exception e) {
+			batchFailed(flushing, e);
+			return;
+		}
 
-		long start = job.log.getFirst().time;
+		createPullRequest(flushing, log).whenComplete((url, error) -> {
+			if (error != null) {
+				batchFailed(flushing, error);
+				return;
+			}
+			for (Batched item : flushing.items) {
+				item.job.log(Submissions.JobState.SUBMITTED, "Submission completed");
+				item.pullRequest.complete(url);
+			}
+		});
+	}
+
+	private void batchFailed(Batch batch, Throwable error) {
+		logger.warn("Batch submission failed", error);
+		for (Batched item : batch.items) {
+			item.job.log(Submissions.JobState.SUBMIT_FAILED, String.format("Submission failed: %s", error.getMessage()), error);
+			item.pullRequest.completeExceptionally(error);
+		}
+	}
+
+	private static String commitMessage(Set<IndexResult<? extends Addon>> indexResults) {
+		return String.format("Add content %s",
+							 indexResults.stream()
+										 .map(i -> String.format("[%s %s] %s", Games.byName(i.content.game).shortName,
+																 i.content.contentType,
+																 i.content.name)
+										 )
+										 .collect(Collectors.joining(", "))
+		);
+	}
+
+	private CompletableFuture<String> createPullRequest(Submissions.Job job, final String branchName,
+														final Set<IndexResult<? extends Addon>> indexResults) {
 
 		String body = String.format("Add content: %n%s%n%n---%nJob log:%n```%n%s%n```%n%n---%nSubmission log: %s/#%s",
-									indexResults.stream()
-												.map(i ->
-														 String.format(
-															 " - [%s %s] '%s' by '%s' [%s, %s]",
-															 Games.byName(i.content.game).shortName,
-															 i.content.contentType,
-															 i.content.name,
-															 i.content.author,
-															 i.content.hash.substring(0, 8),
-															 i.content.isVariation() ? "Variation" : "Original"
-														 )
-												)
-												.collect(Collectors.joining(String.format("%n - "))),
-									job.log().stream()
-									   .map(l -> String.format("[%s %.2fs] %s", l.type.toString().charAt(0), (l.time - start) / 1000f,
-															   l.message))
-									   .collect(Collectors.joining("\n")),
-									SUBMISSION_URL, job.id
+									contentList(indexResults), jobLog(job), SUBMISSION_URL, job.id
 		);
 
-		gitManager.createPullRequest(job::log, branchName, String.format("Content: %s", branchName), body, "submitter", "content");
+		return gitManager.createPullRequest(job::log, branchName, String.format("Content: %s", branchName), body, "submitter", "content");
+	}
+
+	private CompletableFuture<String> createPullRequest(Batch batch, Consumer<String> log) {
+		final StringBuilder body = new StringBuilder();
+		body.append(String.format("Add content: %n%s%n",
+								  contentList(batch.items.stream()
+														 .flatMap(i -> i.indexed.stream())
+														 .collect(Collectors.toCollection(LinkedHashSet::new)))));
+		for (Batched item : batch.items) {
+			body.append(String.format("%n---%nJob log for %s/#%s:%n```%n%s%n```%n", SUBMISSION_URL, item.job.id, jobLog(item.job)));
+		}
+
+		return gitManager.createPullRequest(log, batch.branchName,
+											String.format("Content: %d submissions in %s", batch.items.size(), batch.branchName),
+											body.toString(), "submitter", "content");
 	}
 
+	private static String contentList(Set<IndexResult<? extends Addon>> indexResults) {
+		return indexResults.stream()
+						   .map(i ->
+									String.format(
+										" - [%s %s] '%s' by '%s' [%s, %s]",
+										Games.byName(i.content.game).shortName,
+										i.content.contentType,
+										i.content.name,
+										i.content.author,
+										i.content.hash.substring(0, 8),
+										i.content.isVariation() ? "Variation" : "Original"
+									)
+						   )
+						   .collect(Collectors.joining(String.format("%n - ")));
+	}
+
+	private static String jobLog(Submissions.Job job) {
+		long start = job.log.getFirst().time;
+
+		return job.log().stream()
+				  .map(l -> String.format("[%s %.2fs] %s", l.type.toString().charAt(0), (l.time - start) / 1000f, l.message))
+				  .collect(Collectors.joining("\n"));
+	}
+
+	/**
+	 * The outcome of a submission.
+	 *
+	 * @param indexed     content which was indexed, empty if nothing could be
+	 * @param pullRequest completes with the URL of the pull request containing
+	 *                    the content, once it has been opened
+	 */
+	public record SubmitResult(Set<IndexResult<? extends Addon>> indexed, CompletableFuture<String> pullRequest) {}
+
+	/**
+	 * Submissions committed to a shared branch, waiting to be pushed and
+	 * opened as a single pull request.
+	 */
+	private static class Batch {
+
+		private final String branchName;
+		private final List<Batched> items = new ArrayList<>();
+		private ScheduledFuture<?> flush;
+
+		private Batch(String branchName) {
+			this.branchName = branchName;
+		}
+	}
+
+	private record Batched(Submissions.Job job, Set<IndexResult<? extends Addon>> indexed, CompletableFuture<String> pullRequest) {}
+
 	private record IndexedCollector(Submissions.Job job, Path[] paths, Set<IndexResult<? extends Addon>> indexResults)
 		implements Indexer.IndexerEvents {
 
@@ -0,0 +1,37 @@
+package org.unrealarchive.submitter;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Determines what kind of threads blocking work runs on.
+ * <p>
+ * In {@link #VIRTUAL} mode, processing stages and dispatched HTTP handlers
+ * run on virtual threads, so waiting on clamd, git or GitHub does not tie up
+ * an OS thread. Concurrency is then limited only by the worker counts of each
+ * stage, and by the locks and connection pools guarding the resources
+ * themselves, rather than by the size of a thread pool.
+ * <p>
+ * Since Java 24, virtual threads are no longer pinned to their carrier while
+ * blocked inside {@code synchronized} blocks, so the synchronisation inside
+ * JGit and our own monitors are safe to block in. Pinning can be observed via
+ * the {@code jdk.VirtualThreadPinned} JFR event.
+ */
+public enum ExecutionMode {
+	PLATFORM,
+	VIRTUAL;
+
+	public static ExecutionMode fromEnv(String value) {
+		if (value == null || value.isBlank()) return PLATFORM;
+		return valueOf(value.strip().toUpperCase());
+	}
+
+	/**
+	 * @param name prefix for the names of threads created by the factory
+	 */
+	public ThreadFactory threads(String name) {
+		return switch (this) {
+			case PLATFORM -> Thread.ofPlatform().name(name + "-", 0).factory();
+			case VIRTUAL -> Thread.ofVirtual().name(name + "-", 0).factory();
+		};
+	}
+}
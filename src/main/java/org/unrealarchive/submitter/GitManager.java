@@ -2,28 +2,68 @@ package org.unrealarchive.submitter;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeCommand;
+import org.eclipse.jgit.api.MergeResult;
+import org.eclipse.jgit.api.ResetCommand;
 import org.eclipse.jgit.api.Status;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.TextProgressMonitor;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
-import org.kohsuke.github.GHPullRequest;
-import org.kohsuke.github.GHRepository;
-import org.kohsuke.github.GitHub;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.kohsuke.github.GitHubAbuseLimitHandler;
 import org.kohsuke.github.GitHubBuilder;
+import org.kohsuke.github.GitHubRateLimitHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.unrealarchive.common.ArchiveUtil;
+import org.unrealarchive.submitter.events.GitEvent;
+import org.unrealarchive.submitter.metrics.Metrics;
 
 public class GitManager implements Closeable {
 
@@ -31,48 +71,145 @@ public class GitManager implements Closeable {
 
 	public static final String GIT_DEFAULT_BRANCH = "master";
 
+	private static final Metrics.Histogram LOCK_WAIT = Metrics.REGISTRY.histogram(
+		"submitter_git_lock_wait_seconds", "Time spent waiting for the data repository lock"
+	);
+	private static final Metrics.Histogram LOCK_HOLD = Metrics.REGISTRY.histogram(
+		"submitter_git_lock_hold_seconds", "Time the data repository lock was held for"
+	);
+	private static final Metrics.Histogram PUSH = Metrics.REGISTRY.histogram(
+		"submitter_stage_seconds", "Time taken to process submissions in each stage", "stage", "push"
+	);
+
 	private final String repoUrl;
 	private final Git gitRepo;
 	private final CredentialsProvider gitCredentials;
 	private final PersonIdent gitAuthor;
-	private final GHRepository repository;
-	private final ReentrantLock lock = new ReentrantLock();
+	private final PullRequestQueue pullRequests;
+	// fair, so anything waiting for the lock, such as a collection submission, gets it before content indexing can take it again
+	private final ReentrantLock lock = new ReentrantLock(true);
+	private final Queue<Runnable> deferred = new ConcurrentLinkedQueue<>();
+	// when the lock was taken, only accessed while holding it
+	private long lockedAt;
 	private final Path cloneDir;
+	private final boolean persistent;
+	private final CommitMode commitMode;
+	private final List<String> sparsePaths;
+
+	/**
+	 * How changes are committed to new branches.
+	 */
+	public enum CommitMode {
+		/**
+		 * Check out a new branch in the working tree, and add and commit
+		 * changed files from there.
+		 */
+		WORKTREE,
+		/**
+		 * Leave the working tree on the default branch, and build commits
+		 * directly in the object database from the files which changed.
+		 */
+		OBJECTS;
+
+		public static CommitMode fromEnv(String value) {
+			if (value == null || value.isBlank()) return WORKTREE;
+			return valueOf(value.strip().toUpperCase());
+		}
+	}
+
+	/**
+	 * A change made to files in the working tree, to be committed to a
+	 * branch. Closing it returns the working tree to the default branch.
+	 */
+	public interface Change extends Closeable {
+
+		/**
+		 * Include a file written for the change, or a directory files were
+		 * written into, in what is committed.
+		 * <p>
+		 * In the {@link CommitMode#OBJECTS} mode, exactly the files added are
+		 * committed, and put back as they were once the change is closed. In
+		 * the {@link CommitMode#WORKTREE} mode, everything changed within the
+		 * change's path is committed regardless.
+		 */
+		void add(Path path);
+
+		/**
+		 * Commit files which have been added or changed to the branch.
+		 */
+		void commit(String jobId, Consumer<String> log, String commitMessage) throws IOException, GitAPIException;
+
+		/**
+		 * Push the branch to the remote.
+		 */
+		void push(Consumer<String> log) throws GitAPIException;
+
+		default void commitAndPush(String jobId, Consumer<String> log, String commitMessage) throws IOException, GitAPIException {
+			commit(jobId, log, commitMessage);
+			push(log);
+		}
+	}
 
 	public GitManager(
 		String gitRepoUrl, String gitAuthUsername, String gitAuthPassword, String gitUserEmail, String githubToken, Path cloneDir)
 		throws IOException, GitAPIException {
+		this(gitRepoUrl, gitAuthUsername, gitAuthPassword, gitUserEmail, githubToken, cloneDir, false, CommitMode.WORKTREE, List.of());
+	}
 
-		this.cloneDir = cloneDir;
-
-		logger.info("Cloning git repository {} into {}", gitRepoUrl, this.cloneDir);
+	/**
+	 * @param persistent if true, an existing clone in {@code cloneDir} is
+	 *                   updated and reused rather than cloned again, and the
+	 *                   clone is kept when closed
+	 * @param commitMode  how changes are committed to new branches
+	 * @param sparsePaths if not empty, only these top-level paths are written
+	 *                    to the working tree. requires the
+	 *                    {@link CommitMode#OBJECTS} commit mode, since the
+	 *                    working tree can't be used to commit from
+	 */
+	public GitManager(
+		String gitRepoUrl, String gitAuthUsername, String gitAuthPassword, String gitUserEmail, String githubToken, Path cloneDir,
+		boolean persistent, CommitMode commitMode, List<String> sparsePaths)
+		throws IOException, GitAPIException {
 
-		this.repoUrl = gitRepoUrl;
-		this.gitCredentials = new UsernamePasswordCredentialsProvider(gitAuthUsername, gitAuthPassword);
-		this.gitAuthor = new PersonIdent(gitAuthUsername, gitUserEmail);
-		this.gitRepo = Git.cloneRepository()
-						  .setCredentialsProvider(gitCredentials)
-						  .setURI(gitRepoUrl)
-						  .setBranch(GIT_DEFAULT_BRANCH)
-						  .setDirectory(this.cloneDir.toFile())
-						  .setDepth(1)
-						  .setCloneAllBranches(false)
-						  .setProgressMonitor(new TextProgressMonitor())
-						  .call();
+		if (!sparsePaths.isEmpty() && commitMode != CommitMode.OBJECTS) {
+			throw new IllegalArgumentException("A sparse checkout requires the objects commit mode");
+		}
 
 		final Pattern repoPattern = Pattern.compile(".*/(.*)/(.*)\\.git");
 		Matcher repoNameMatch = repoPattern.matcher(gitRepoUrl);
 		if (!repoNameMatch.find()) {
 			throw new IllegalArgumentException(String.format("Could not find repo organisation and name in input %s", gitRepoUrl));
 		}
+		final String repoName = String.format("%s/%s", repoNameMatch.group(1), repoNameMatch.group(2));
 
-		// create github client for pull requests
-		GitHub gitHub = new GitHubBuilder().withOAuthToken(githubToken).build();
-		this.repository = gitHub.getRepository(String.format("%s/%s", repoNameMatch.group(1), repoNameMatch.group(2)));
+		this.cloneDir = cloneDir;
+		this.persistent = persistent;
+		this.commitMode = commitMode;
+		this.sparsePaths = List.copyOf(sparsePaths);
+
+		this.repoUrl = gitRepoUrl;
+		this.gitCredentials = new UsernamePasswordCredentialsProvider(gitAuthUsername, gitAuthPassword);
+		this.gitAuthor = new PersonIdent(gitAuthUsername, gitUserEmail);
+		this.gitRepo = openOrClone();
+
+		// github is only connected to once the first pull request is opened.
+		// rate limits are handled by retrying from the pull request queue, not by blocking
+		this.pullRequests = new PullRequestQueue(
+			() -> new GitHubBuilder().withOAuthToken(githubToken)
+									 .withRateLimitHandler(GitHubRateLimitHandler.FAIL)
+									 .withAbuseLimitHandler(GitHubAbuseLimitHandler.FAIL)
+									 .build()
+									 .getRepository(repoName),
+			Thread.ofVirtual().name("pull-requests-", 0).factory()
+		);
 	}
 
 	@Override
 	public void close() {
+		pullRequests.close();
+		gitRepo.close();
+		if (persistent) return;
+
 		try {
 			logger.info("Cleaning data path {}", cloneDir);
 			ArchiveUtil.cleanPath(cloneDir);
@@ -81,12 +218,221 @@ public class GitManager implements Closeable {
 		}
 	}
 
+	private Git openOrClone() throws IOException, GitAPIException {
+		if (persistent && !isEmpty(cloneDir)) {
+			try {
+				return openExisting();
+			} catch (IOException | GitAPIException | RuntimeException e) {
+				logger.warn("Existing clone in {} can not be used, cloning again", cloneDir, e);
+				ArchiveUtil.cleanPath(cloneDir);
+			}
+		}
+
+		logger.info("Cloning git repository {} into {}", repoUrl, cloneDir);
+
+		final Git git = Git.cloneRepository()
+						   .setCredentialsProvider(gitCredentials)
+						   .setURI(repoUrl)
+						   .setBranch(GIT_DEFAULT_BRANCH)
+						   .setDirectory(cloneDir.toFile())
+						   .setDepth(1)
+						   .setCloneAllBranches(false)
+						   .setNoCheckout(sparse())
+						   .setProgressMonitor(new TextProgressMonitor())
+						   .call();
+
+		if (sparse()) {
+			try {
+				// the local branch is normally created by the checkout which was skipped
+				setDefaultBranch(git.getRepository(), remoteDefaultBranch(git.getRepository()));
+				writeSparsePaths(git.getRepository());
+			} catch (IOException | RuntimeException e) {
+				git.close();
+				throw e;
+			}
+		}
+
+		return git;
+	}
+
+	/**
+	 * Open a clone left behind by a previous run, discard anything left over
+	 * from interrupted work, and fast-forward it to the remote's latest
+	 * default branch.
+	 */
+	private Git openExisting() throws IOException, GitAPIException {
+		logger.info("Updating existing clone of {} in {}", repoUrl, cloneDir);
+
+		final Git git = Git.open(cloneDir.toFile());
+		try {
+			final String url = git.getRepository().getConfig().getString("remote", "origin", "url");
+			if (!repoUrl.equals(url)) {
+				throw new IllegalStateException(String.format("Existing clone is of %s rather than %s", url, repoUrl));
+			}
+
+			if (!sparse()) {
+				git.reset().setMode(ResetCommand.ResetType.HARD).call();
+				git.clean().setCleanDirectories(true).setForce(true).call();
+				git.checkout().setName(GIT_DEFAULT_BRANCH).setForced(true).call();
+			}
+
+			final List<String> staleBranches = git.branchList().call().stream()
+												  .map(Ref::getName)
+												  .filter(b -> !b.equals(Constants.R_HEADS + GIT_DEFAULT_BRANCH))
+												  .toList();
+			if (!staleBranches.isEmpty()) {
+				git.branchDelete().setBranchNames(staleBranches.toArray(String[]::new)).setForce(true).call();
+			}
+
+			fetch(git);
+
+			final ObjectId remote = remoteDefaultBranch(git.getRepository());
+
+			if (sparse()) {
+				// there's no complete working tree to merge into, so move the branch and write out the sparse paths again
+				setDefaultBranch(git.getRepository(), remote);
+				writeSparsePaths(git.getRepository());
+			} else {
+				final MergeResult merge = git.merge()
+											 .include(remote)
+											 .setFastForward(MergeCommand.FastForwardMode.FF_ONLY)
+											 .call();
+				if (!merge.getMergeStatus().isSuccessful()) {
+					throw new IllegalStateException(String.format("Could not fast-forward %s: %s", GIT_DEFAULT_BRANCH, merge.getMergeStatus()));
+				}
+			}
+
+			// make sure the current commit and its tree can actually be read
+			try (RevWalk walk = new RevWalk(git.getRepository())) {
+				final RevCommit head = walk.parseCommit(git.getRepository().resolve(Constants.HEAD));
+				try (TreeWalk tree = new TreeWalk(git.getRepository())) {
+					tree.addTree(head.getTree());
+				}
+			}
+
+			logger.info("Existing clone is now at {}", remote.name());
+
+			return git;
+		} catch (IOException | GitAPIException | RuntimeException e) {
+			git.close();
+			throw e;
+		}
+	}
+
+	private boolean sparse() {
+		return !sparsePaths.isEmpty();
+	}
+
+	private boolean inSparsePaths(String path) {
+		return sparsePaths.stream().anyMatch(p -> path.equals(p) || path.startsWith(p + "/"));
+	}
+
+	private static ObjectId remoteDefaultBranch(Repository repo) throws IOException {
+		final Ref remote = repo.findRef(Constants.R_REMOTES + "origin/" + GIT_DEFAULT_BRANCH);
+		if (remote == null) throw new IllegalStateException("Remote has no " + GIT_DEFAULT_BRANCH + " branch");
+		return remote.getObjectId();
+	}
+
+	private static void setDefaultBranch(Repository repo, ObjectId commit) throws IOException {
+		final RefUpdate branch = repo.updateRef(Constants.R_HEADS + GIT_DEFAULT_BRANCH);
+		branch.setNewObjectId(commit);
+		branch.setForceUpdate(true);
+		final RefUpdate.Result result = branch.update();
+		if (result == RefUpdate.Result.LOCK_FAILURE || result == RefUpdate.Result.IO_FAILURE || result == RefUpdate.Result.REJECTED) {
+			throw new IllegalStateException(String.format("Could not update %s: %s", GIT_DEFAULT_BRANCH, result));
+		}
+
+		final RefUpdate head = repo.updateRef(Constants.HEAD);
+		head.disableRefLog();
+		head.link(Constants.R_HEADS + GIT_DEFAULT_BRANCH);
+	}
+
+	/**
+	 * Replace the sparse paths in the working tree with their contents on the
+	 * default branch.
+	 */
+	private void writeSparsePaths(Repository repo) throws IOException {
+		for (String path : sparsePaths) ArchiveUtil.cleanPath(cloneDir.resolve(path));
+
+		try (RevWalk walk = new RevWalk(repo);
+			 TreeWalk tree = new TreeWalk(repo)) {
+			tree.addTree(walk.parseCommit(repo.resolve(Constants.R_HEADS + GIT_DEFAULT_BRANCH)).getTree());
+			tree.setRecursive(true);
+			tree.setFilter(PathFilterGroup.createFromStrings(sparsePaths));
+			int written = 0;
+			while (tree.next()) {
+				if (!tree.getFileMode(0).equals(FileMode.REGULAR_FILE) && !tree.getFileMode(0).equals(FileMode.EXECUTABLE_FILE)) continue;
+				writeBlob(repo, tree.getObjectId(0), tree.getPathString());
+				written++;
+			}
+			logger.info("Wrote {} files in {} to {}", written, sparsePaths, cloneDir);
+		}
+	}
+
+	private void writeBlob(Repository repo, ObjectId blob, String path) throws IOException {
+		writeBlob(repo, blob, cloneDir.resolve(path));
+	}
+
+	private static void writeBlob(Repository repo, ObjectId blob, Path file) throws IOException {
+		Files.createDirectories(file.getParent());
+		try (OutputStream out = Files.newOutputStream(file)) {
+			repo.open(blob, Constants.OBJ_BLOB).copyTo(out);
+		}
+	}
+
+	private static boolean isEmpty(Path dir) throws IOException {
+		if (!Files.isDirectory(dir)) return true;
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.findAny().isEmpty();
+		}
+	}
+
 	public void lock() {
+		final long start = System.nanoTime();
 		lock.lock();
+		if (lock.getHoldCount() == 1) {
+			lockedAt = System.nanoTime();
+			LOCK_WAIT.observe(lockedAt - start);
+		}
 	}
 
 	public void unlock() {
+		if (lock.getHoldCount() == 1) LOCK_HOLD.observeSince(lockedAt);
 		lock.unlock();
+
+		if (!deferred.isEmpty() && !lock.isHeldByCurrentThread()) {
+			Thread.ofVirtual().name("git-deferred").start(this::runDeferred);
+		}
+	}
+
+	/**
+	 * Run a task while holding the lock if it's free. Otherwise, rather than
+	 * waiting, leave the task to be run once the lock is next released.
+	 */
+	public void lockOrDefer(Runnable task) {
+		deferred.add(task);
+		runDeferred();
+	}
+
+	private void runDeferred() {
+		// tasks are queued before trying the lock, so if it's held, the holder will see them when it unlocks
+		while (!deferred.isEmpty() && lock.tryLock()) {
+			final boolean outermost = lock.getHoldCount() == 1;
+			if (outermost) lockedAt = System.nanoTime();
+			try {
+				Runnable task;
+				while ((task = deferred.poll()) != null) {
+					try {
+						task.run();
+					} catch (Exception e) {
+						logger.error("Deferred task failed", e);
+					}
+				}
+			} finally {
+				if (outermost) LOCK_HOLD.observeSince(lockedAt);
+				lock.unlock();
+			}
+		}
 	}
 
 	public Git gitRepo() {
@@ -94,64 +440,386 @@ public class GitManager implements Closeable {
 	}
 
 	public void checkout(String branchName, boolean createBranch) throws GitAPIException {
-		gitRepo.checkout()
-			   .setName(branchName)
-			   .setCreateBranch(createBranch)
-			   .call();
+		final GitEvent event = new GitEvent("checkout", null, branchName);
+		event.begin();
+		try {
+			gitRepo.checkout()
+				   .setName(branchName)
+				   .setCreateBranch(createBranch)
+				   .call();
+		} catch (GitAPIException | RuntimeException e) {
+			event.finish("ERROR");
+			throw e;
+		}
+		event.finish("OK");
 	}
 
-	public boolean update() throws IOException, GitAPIException {
-		// remember current ref
-		final ObjectId old = gitRepo.getRepository().findRef(GIT_DEFAULT_BRANCH).getObjectId();
+	/**
+	 * Begin a change to be committed to a branch. If the branch does not
+	 * exist yet, it is started from the default branch, otherwise the change
+	 * is committed on top of it. Files written for the change must be within
+	 * {@code path}, relative to the root of the working tree.
+	 */
+	public Change change(String branchName, String path) throws IOException, GitAPIException {
+		return switch (commitMode) {
+			case WORKTREE -> new WorktreeChange(branchName, path);
+			case OBJECTS -> new ObjectChange(branchName, path);
+		};
+	}
 
-		// pull latest
-		gitRepo.pull().call();
+	/**
+	 * @return the commit the default branch is currently at
+	 */
+	public ObjectId head() throws IOException {
+		return gitRepo.getRepository().findRef(Constants.R_HEADS + GIT_DEFAULT_BRANCH).getObjectId();
+	}
 
-		// return true if it changed
-		return !old.equals(gitRepo.getRepository().findRef(GIT_DEFAULT_BRANCH).getObjectId());
+	/**
+	 * Write the files within the given top-level paths, as they are in a
+	 * commit, to a directory other than the working tree. This only reads
+	 * the object database, so it doesn't need the lock, and isn't affected by
+	 * anything written to the working tree meanwhile.
+	 */
+	public void export(ObjectId commit, Path target, String... paths) throws IOException {
+		final Repository repo = gitRepo.getRepository();
+		try (RevWalk walk = new RevWalk(repo);
+			 TreeWalk tree = new TreeWalk(repo)) {
+			tree.addTree(walk.parseCommit(commit).getTree());
+			tree.setRecursive(true);
+			tree.setFilter(PathFilterGroup.createFromStrings(paths));
+			while (tree.next()) {
+				if (!tree.getFileMode(0).equals(FileMode.REGULAR_FILE) && !tree.getFileMode(0).equals(FileMode.EXECUTABLE_FILE)) continue;
+				writeBlob(repo, tree.getObjectId(0), target.resolve(tree.getPathString()));
+			}
+		}
 	}
 
-	public void addAndPush(String jobId, Consumer<String> log, String filePattern, String commitMessage) throws GitAPIException {
-		final Status untrackedStatus = gitRepo.status().call();
-		if (!untrackedStatus.getUntracked().isEmpty() || !untrackedStatus.getModified().isEmpty()) {
-			logger.info("[{}] Adding files: {}", jobId, String.join(", ", untrackedStatus.getUntracked()));
-			gitRepo.add().addFilepattern(filePattern).call();
+	/**
+	 * Pull the latest changes to the default branch.
+	 *
+	 * @return the files which changed, or an empty list if nothing changed
+	 */
+	public List<DiffEntry> update() throws IOException, GitAPIException {
+		// remember current ref
+		final ObjectId old = gitRepo.getRepository().findRef(GIT_DEFAULT_BRANCH).getObjectId();
+
+		if (sparse()) {
+			// there's no complete working tree to pull into, so move the branch, and update sparse paths from the changes below
+			fetch(gitRepo);
+			setDefaultBranch(gitRepo.getRepository(), remoteDefaultBranch(gitRepo.getRepository()));
 		} else {
-			throw new IllegalStateException("There are no new files to add");
+			// pull latest
+			gitRepo.pull().call();
 		}
 
-		log.accept("Commit changes to content data");
+		final ObjectId current = gitRepo.getRepository().findRef(GIT_DEFAULT_BRANCH).getObjectId();
+		if (old.equals(current)) return List.of();
+
+		// compare trees only, file contents are not needed
+		final List<DiffEntry> changes;
+		try (RevWalk walk = new RevWalk(gitRepo.getRepository());
+			 TreeWalk diff = new TreeWalk(gitRepo.getRepository())) {
+			diff.addTree(walk.parseCommit(old).getTree());
+			diff.addTree(walk.parseCommit(current).getTree());
+			diff.setRecursive(true);
+			diff.setFilter(TreeFilter.ANY_DIFF);
+			changes = DiffEntry.scan(diff);
+		}
 
-		gitRepo.commit()
-			   .setCommitter(gitAuthor)
-			   .setAuthor(gitAuthor)
-			   .setMessage(commitMessage)
-			   .call();
+		if (sparse()) {
+			for (DiffEntry change : changes) {
+				if (change.getChangeType() == DiffEntry.ChangeType.DELETE && inSparsePaths(change.getOldPath())) {
+					Files.deleteIfExists(cloneDir.resolve(change.getOldPath()));
+				} else if (change.getChangeType() != DiffEntry.ChangeType.DELETE && inSparsePaths(change.getNewPath())) {
+					writeBlob(gitRepo.getRepository(), change.getNewId().toObjectId(), change.getNewPath());
+				}
+			}
+		}
 
+		return changes;
+	}
+
+	private void fetch(Git git) throws GitAPIException {
+		git.fetch()
+		   .setRemote("origin")
+		   .setCredentialsProvider(gitCredentials)
+		   .setProgressMonitor(new TextProgressMonitor())
+		   .call();
+	}
+
+	private void addAndCommit(String jobId, String branchName, Consumer<String> log, String filePattern, String commitMessage)
+		throws GitAPIException {
+		final GitEvent event = new GitEvent("commit", jobId, branchName);
+		event.begin();
+		try {
+			final Status untrackedStatus = gitRepo.status().call();
+			if (!untrackedStatus.getUntracked().isEmpty() || !untrackedStatus.getModified().isEmpty()) {
+				logger.info("[{}] Adding files: {}", jobId, String.join(", ", untrackedStatus.getUntracked()));
+				gitRepo.add().addFilepattern(filePattern).call();
+			} else {
+				throw new IllegalStateException("There are no new files to add");
+			}
+
+			log.accept("Commit changes to content data");
+
+			gitRepo.commit()
+				   .setCommitter(gitAuthor)
+				   .setAuthor(gitAuthor)
+				   .setMessage(commitMessage)
+				   .call();
+		} catch (GitAPIException | RuntimeException e) {
+			event.finish("ERROR");
+			throw e;
+		}
+		event.finish("OK");
+	}
+
+	public void push(String branchName, Consumer<String> log) throws GitAPIException {
+		push(null, branchName, log);
+	}
+
+	private void push(String jobId, String branchName, Consumer<String> log) throws GitAPIException {
 		log.accept("Push content data changes ...");
 
-		gitRepo.push()
-			   .setRemote(repoUrl)
-			   .setCredentialsProvider(gitCredentials)
-			   .call();
+		final GitEvent event = new GitEvent("push", jobId, branchName);
+		event.begin();
+		final long start = System.nanoTime();
+		try {
+			gitRepo.push()
+				   .setRemote(repoUrl)
+				   .setCredentialsProvider(gitCredentials)
+				   .setRefSpecs(new RefSpec(Constants.R_HEADS + branchName + ":" + Constants.R_HEADS + branchName))
+				   .call();
+		} catch (GitAPIException | RuntimeException e) {
+			event.finish("ERROR");
+			throw e;
+		}
+		PUSH.observeSince(start);
+		event.finish("OK");
 
 		log.accept("Content data changes pushed");
 	}
 
-	public void createPullRequest(Consumer<String> log, String branchName, String title, String body, String... labels) throws IOException {
+	/**
+	 * Open a pull request for a pushed branch. This happens in the background,
+	 * so does not need to be done while holding the lock.
+	 *
+	 * @return completes with the web URL of the new pull request once it has
+	 * 	been created
+	 */
+	public CompletableFuture<String> createPullRequest(Consumer<String> log, String branchName, String title, String body, String... labels) {
 		log.accept("Creating Pull Request for content data change");
 
-		GHPullRequest pullRequest = repository.createPullRequest(
-			title, branchName, GIT_DEFAULT_BRANCH, body
-		);
+		return pullRequests.submit(log, branchName, title, body, labels);
+	}
 
-		try {
-			Thread.sleep(5000); // hax... :(
-			pullRequest.setLabels(labels);
-		} catch (Exception ex) {
-			logger.warn("Failed to set labels on pull request", ex);
+	private boolean branchExists(String branchName) throws IOException {
+		return gitRepo.getRepository().findRef(Constants.R_HEADS + branchName) != null;
+	}
+
+	private class WorktreeChange implements Change {
+
+		private final String branchName;
+		private final String path;
+		// the job committed for, so it can be reported when pushing
+		private String jobId;
+
+		private WorktreeChange(String branchName, String path) throws IOException, GitAPIException {
+			this.branchName = branchName;
+			this.path = path;
+			checkout(branchName, !branchExists(branchName));
+		}
+
+		@Override
+		public void add(Path path) {
+			// everything changed within the path is staged from the working tree when committing
 		}
 
-		log.accept(String.format("Created Pull Request at %s", pullRequest.getHtmlUrl()));
+		@Override
+		public void commit(String jobId, Consumer<String> log, String commitMessage) throws GitAPIException {
+			this.jobId = jobId;
+			addAndCommit(jobId, branchName, log, path, commitMessage);
+		}
+
+		@Override
+		public void push(Consumer<String> log) throws GitAPIException {
+			GitManager.this.push(jobId, branchName, log);
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				checkout(GIT_DEFAULT_BRANCH, false);
+			} catch (GitAPIException e) {
+				throw new IOException("Failed to return to " + GIT_DEFAULT_BRANCH, e);
+			}
+		}
+	}
+
+	/**
+	 * Builds a commit on top of the branch's tree from the files written for
+	 * the change, without checking out a branch or reading the index. Only
+	 * those files are hashed, so the cost depends on the size of the change
+	 * rather than the size of the repository.
+	 */
+	private class ObjectChange implements Change {
+
+		private final String branchName;
+		private final Path root;
+		private final Set<Path> added;
+		// the job committed for, so it can be reported when pushing
+		private String jobId;
+
+		private ObjectChange(String branchName, String path) {
+			this.branchName = branchName;
+			this.root = cloneDir.resolve(path).toAbsolutePath().normalize();
+			this.added = new LinkedHashSet<>();
+		}
+
+		@Override
+		public void add(Path path) {
+			final Path file = path.toAbsolutePath().normalize();
+			if (!file.startsWith(root)) throw new IllegalArgumentException(String.format("%s is not within %s", path, root));
+			added.add(file);
+		}
+
+		@Override
+		public void commit(String jobId, Consumer<String> log, String commitMessage) throws IOException, GitAPIException {
+			this.jobId = jobId;
+			final List<Path> changed = changedFiles();
+			if (changed.isEmpty()) throw new IllegalStateException("There are no new files to add");
+
+			logger.info("[{}] Adding files: {}", jobId, changed.stream().map(GitManager.this::repoPath).collect(Collectors.joining(", ")));
+
+			log.accept("Commit changes to content data");
+
+			final GitEvent event = new GitEvent("commit", jobId, branchName);
+			event.begin();
+			final Repository repo = gitRepo.getRepository();
+			try (ObjectInserter inserter = repo.newObjectInserter();
+				 ObjectReader reader = repo.newObjectReader();
+				 RevWalk walk = new RevWalk(reader)) {
+
+				final boolean existing = branchExists(branchName);
+				final RevCommit parent = walk.parseCommit(repo.resolve(Constants.R_HEADS + (existing ? branchName : GIT_DEFAULT_BRANCH)));
+
+				final DirCache index = DirCache.newInCore();
+				final DirCacheBuilder builder = index.builder();
+				builder.addTree(new byte[0], DirCacheEntry.STAGE_0, reader, parent.getTree());
+				builder.finish();
+
+				final DirCacheEditor editor = index.editor();
+				for (Path file : changed) {
+					final long length = Files.size(file);
+					event.bytes += length;
+					final ObjectId blob;
+					try (InputStream in = Files.newInputStream(file)) {
+						blob = inserter.insert(Constants.OBJ_BLOB, length, in);
+					}
+					editor.add(new DirCacheEditor.PathEdit(repoPath(file)) {
+						@Override
+						public void apply(DirCacheEntry entry) {
+							entry.setFileMode(FileMode.REGULAR_FILE);
+							entry.setLength(length);
+							entry.setObjectId(blob);
+						}
+					});
+				}
+				editor.finish();
+
+				final ObjectId tree = index.writeTree(inserter);
+				if (tree.equals(parent.getTree())) throw new IllegalStateException("There are no new files to add");
+
+				final CommitBuilder commit = new CommitBuilder();
+				commit.setTreeId(tree);
+				commit.setParentId(parent);
+				final PersonIdent ident = new PersonIdent(gitAuthor.getName(), gitAuthor.getEmailAddress());
+				commit.setAuthor(ident);
+				commit.setCommitter(ident);
+				commit.setMessage(commitMessage);
+				final ObjectId commitId = inserter.insert(commit);
+				inserter.flush();
+
+				final RefUpdate ref = repo.updateRef(Constants.R_HEADS + branchName);
+				ref.setNewObjectId(commitId);
+				ref.setExpectedOldObjectId(existing ? parent : ObjectId.zeroId());
+				ref.setRefLogMessage("commit: " + commitMessage, false);
+				final RefUpdate.Result result = ref.update(walk);
+				if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FAST_FORWARD) {
+					throw new IllegalStateException(String.format("Could not update branch %s: %s", branchName, result));
+				}
+			} catch (IOException | RuntimeException e) {
+				event.finish("ERROR");
+				throw e;
+			}
+			event.finish("OK");
+		}
+
+		@Override
+		public void push(Consumer<String> log) throws GitAPIException {
+			GitManager.this.push(jobId, branchName, log);
+		}
+
+		/**
+		 * Put changed files back to how they are on the default branch, so the
+		 * working tree is left as it would be after checking out the default
+		 * branch again. Directories left empty by removing new files are
+		 * removed too, as they would be by a checkout.
+		 */
+		@Override
+		public void close() throws IOException {
+			final Repository repo = gitRepo.getRepository();
+			// deepest first, so parents are empty by the time they're reached
+			final Set<Path> emptied = new TreeSet<>(Comparator.<Path>comparingInt(Path::getNameCount).reversed()
+															  .thenComparing(Comparator.naturalOrder()));
+			try (RevWalk walk = new RevWalk(repo)) {
+				final RevTree tree = walk.parseCommit(repo.resolve(Constants.R_HEADS + GIT_DEFAULT_BRANCH)).getTree();
+				for (Path file : changedFiles()) {
+					final String path = repoPath(file);
+					try (TreeWalk existing = TreeWalk.forPath(repo, path, tree)) {
+						if (existing != null) {
+							writeBlob(repo, existing.getObjectId(0), path);
+						} else {
+							Files.deleteIfExists(file);
+							for (Path dir = file.getParent(); dir.startsWith(root) && !dir.equals(root); dir = dir.getParent()) {
+								emptied.add(dir);
+							}
+						}
+					}
+				}
+			}
+
+			for (Path dir : emptied) {
+				try {
+					Files.deleteIfExists(dir);
+				} catch (DirectoryNotEmptyException e) {
+					// still holds other files, keep it
+				}
+			}
+		}
+
+		/**
+		 * @return the files added to the change, and the files within
+		 * 	directories added to it
+		 */
+		private List<Path> changedFiles() throws IOException {
+			final Set<Path> changed = new LinkedHashSet<>();
+			for (Path path : added) {
+				if (Files.isDirectory(path)) {
+					try (Stream<Path> files = Files.walk(path)) {
+						files.filter(Files::isRegularFile).sorted().forEach(changed::add);
+					}
+				} else if (Files.isRegularFile(path)) {
+					changed.add(path);
+				}
+			}
+			return new ArrayList<>(changed);
+		}
+	}
+
+	private String repoPath(Path file) {
+		final StringJoiner path = new StringJoiner("/");
+		for (Path part : cloneDir.toAbsolutePath().normalize().relativize(file.toAbsolutePath().normalize())) path.add(part.toString());
+		return path.toString();
 	}
 }
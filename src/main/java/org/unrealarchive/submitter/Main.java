@@ -5,22 +5,34 @@ import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Collectors;
 
 import org.eclipse.jgit.api.errors.GitAPIException;
 
 import org.unrealarchive.submitter.clam.ClamDScan;
+import org.unrealarchive.submitter.clam.ClamDSocketScan;
 import org.unrealarchive.submitter.clam.ClamScan;
+import org.unrealarchive.submitter.clam.ClamVerdictCache;
 import org.unrealarchive.submitter.submit.CollectionProcessor;
 import org.unrealarchive.submitter.submit.SubmissionProcessor;
+import org.unrealarchive.submitter.upload.UploadAdmission;
 
 public class Main {
 
 	public static void main(String[] args) throws IOException, GitAPIException {
-		final Path contentDir = Files.createTempDirectory("ua-submit-data-");
+		// without a persistent data path, the data repository is cloned afresh into a temporary directory on each start
+		final String dataPath = System.getenv().getOrDefault("DATA_PATH", "");
+		final Path contentDir = dataPath.isBlank()
+			? Files.createTempDirectory("ua-submit-data-")
+			: Files.createDirectories(Paths.get(dataPath));
 
-		final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+		final ExecutionMode executionMode = ExecutionMode.fromEnv(System.getenv("EXECUTION_MODE"));
+
+		final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, executionMode.threads("scheduler"));
 
 		final GitManager gitManager = new GitManager(
 			System.getenv().getOrDefault("GIT_REPO", "https://github.com/unreal-archive/unreal-archive-data.git"),
@@ -28,10 +40,21 @@ public class Main {
 			System.getenv().getOrDefault("GIT_PASSWORD", ""),
 			System.getenv().getOrDefault("GIT_EMAIL", ""),
 			System.getenv().getOrDefault("GH_TOKEN", ""),
-			contentDir
+			contentDir,
+			!dataPath.isBlank(),
+			GitManager.CommitMode.fromEnv(System.getenv("GIT_COMMIT_MODE")),
+			Arrays.stream(System.getenv().getOrDefault("GIT_SPARSE_PATHS", "").split(","))
+				  .map(String::strip)
+				  .filter(p -> !p.isEmpty())
+				  .toList()
 		);
 
+		final Path jobsPath = Files.createDirectories(Paths.get(
+			System.getenv().getOrDefault("JOBS_PATH", "/tmp")
+		));
+
 		ClamScan clamScan;
+		ClamDSocketScan uploadClamScan = null;
 
 		if (!System.getenv().getOrDefault("CLAM_SOCKET", "").isEmpty()) {
 
@@ -50,14 +73,21 @@ public class Main {
 				if (clamd[0] != null) clamd[0].close();
 			}));
 
-			clamScan = new ClamDScan(clamConfig);
+			if (System.getenv().getOrDefault("CLAM_CLIENT", "native").equalsIgnoreCase("clamdscan")) {
+				clamScan = new ClamDScan(clamConfig);
+			} else {
+				final ClamDSocketScan socketScan = new ClamDSocketScan(clamConfig.socketPath);
+				Runtime.getRuntime().addShutdownHook(new Thread(socketScan::close));
+				clamScan = socketScan;
+				uploadClamScan = socketScan;
+			}
 		} else {
 			clamScan = new ClamScan();
 		}
 
-		final Path jobsPath = Files.createDirectories(Paths.get(
-			System.getenv().getOrDefault("JOBS_PATH", "/tmp")
-		));
+		final ClamVerdictCache verdictCache = new ClamVerdictCache(jobsPath.resolve("clam-verdicts.tsv"), 50_000);
+		clamScan.withVerdictCache(verdictCache);
+
 		final Path uploadPath = Files.createDirectories(Paths.get(
 			System.getenv().getOrDefault("UPLOAD_PATH", "/tmp/ua-submit-files")
 		));
@@ -65,31 +95,53 @@ public class Main {
 		final ContentRepository contentRepo = new ContentRepository(
 			gitManager,
 			scheduler,
-			contentDir
+			contentDir,
+			Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault("BATCH_WINDOW", "0"))),
+			Integer.parseInt(System.getenv().getOrDefault("BATCH_MAX", "20"))
 		);
 
-		final SubmissionProcessor subProcessor = new SubmissionProcessor(contentRepo, clamScan, 5, scheduler, jobsPath);
+		final SubmissionProcessor subProcessor = new SubmissionProcessor(
+			contentRepo, clamScan, 5,
+			Integer.parseInt(System.getenv().getOrDefault("VIRUS_WORKERS", "2")),
+			Integer.parseInt(System.getenv().getOrDefault("SCAN_WORKERS", Integer.toString(Runtime.getRuntime().availableProcessors()))),
+			executionMode, scheduler, jobsPath
+		);
 
 		final CollectionRepository collectionRepo = new CollectionRepository(contentRepo.gitManager());
-		final CollectionProcessor collectionProcessor = new CollectionProcessor(collectionRepo, 5, scheduler);
+		final CollectionProcessor collectionProcessor = new CollectionProcessor(collectionRepo, 5, executionMode, scheduler);
 
 		final WebApp webApp = new WebApp(InetSocketAddress.createUnresolved(
 			System.getenv().getOrDefault("BIND_HOST", "localhost"),
 			Integer.parseInt(System.getenv().getOrDefault("BIND_PORT", "8081"))
-		), subProcessor, collectionProcessor, uploadPath, System.getenv().getOrDefault("ALLOWED_ORIGIN", "*"));
+		), subProcessor, collectionProcessor, uploadPath, System.getenv().getOrDefault("ALLOWED_ORIGIN", "*"),
+						 uploadClamScan, executionMode, new UploadAdmission(
+			subProcessor::load, uploadPath,
+			Long.parseLong(System.getenv().getOrDefault("UPLOAD_MIN_FREE_MB", "1024")) * 1024 * 1024,
+			Duration.ofSeconds(Long.parseLong(System.getenv().getOrDefault("UPLOAD_MAX_WAIT", "900"))),
+			Long.parseLong(System.getenv().getOrDefault("UPLOAD_UNKNOWN_SIZE_MB", "256")) * 1024 * 1024
+		), Arrays.stream(System.getenv().getOrDefault("TRUSTED_PROXIES", "").split(","))
+				 .map(String::strip)
+				 .filter(p -> !p.isEmpty())
+				 .collect(Collectors.toSet()));
 
 		// shutdown hook to cleanup repo
 		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
 			webApp.close();
-			subProcessor.close();
 			collectionProcessor.close();
 			try {
 				collectionRepo.close();
 			} catch (IOException e) {
 				// ignore
 			}
+			// flushing a pending batch logs to its jobs, so must happen while the job journal is still open
 			contentRepo.close();
+			subProcessor.close();
 			gitManager.close();
+			try {
+				verdictCache.close();
+			} catch (IOException e) {
+				// ignore
+			}
 			scheduler.shutdownNow();
 		}));
 
@@ -0,0 +1,248 @@
+package org.unrealarchive.submitter;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.HttpException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.unrealarchive.submitter.events.PullRequestEvent;
+import org.unrealarchive.submitter.metrics.Metrics;
+
+/**
+ * Opens pull requests one at a time, on a thread of its own, so nothing
+ * waits on GitHub while holding the repository lock.
+ * <p>
+ * Failed requests are retried with exponential backoff, or once the rate
+ * limit resets if GitHub reports it has been reached. Labels often can't be
+ * set immediately after a pull request has been created, so setting them is
+ * retried separately, and giving up on them doesn't fail the request.
+ * <p>
+ * The repository is only looked up when the first request is made, and
+ * looking it up is retried like any other request.
+ */
+public class PullRequestQueue implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(PullRequestQueue.class);
+
+	private static final int MAX_ATTEMPTS = 6;
+	private static final Duration MAX_RETRY = Duration.ofMinutes(5);
+
+	private static final Metrics.Histogram LATENCY = Metrics.REGISTRY.histogram(
+		"submitter_stage_seconds", "Time taken to process submissions in each stage", "stage", "pull-request"
+	);
+	private static final Metrics.Counter FAILED = Metrics.REGISTRY.counter(
+		"submitter_pull_requests_failed", "Pull requests which could not be opened"
+	);
+
+	private final Connector connector;
+	private final ScheduledThreadPoolExecutor executor;
+	private final Duration firstRetry;
+	private final Duration labelDelay;
+
+	private GHRepository repository;
+
+	public PullRequestQueue(Connector connector, ThreadFactory threads) {
+		this(connector, threads, Duration.ofSeconds(5), Duration.ofSeconds(2));
+	}
+
+	/**
+	 * @param firstRetry delay before the first retry, doubled for each retry
+	 *                   after that
+	 * @param labelDelay delay between creating a pull request and first
+	 *                   trying to label it
+	 */
+	PullRequestQueue(Connector connector, ThreadFactory threads, Duration firstRetry, Duration labelDelay) {
+		this.connector = connector;
+		this.firstRetry = firstRetry;
+		this.labelDelay = labelDelay;
+		this.executor = new ScheduledThreadPoolExecutor(1, threads);
+		// retries waiting to happen are abandoned on shutdown
+		this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+	}
+
+	/**
+	 * @return completes with the web URL of the pull request once it has been
+	 * 	created, or exceptionally if it could not be
+	 */
+	public CompletableFuture<String> submit(Consumer<String> log, String branchName, String title, String body, String... labels) {
+		final Request request = new Request(log, branchName, title, body, labels);
+		executor.execute(request::create);
+		return request.result;
+	}
+
+	@Override
+	public void close() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(30, TimeUnit.SECONDS)) executor.shutdownNow();
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * How long to wait before another attempt at a failed request.
+	 *
+	 * @param attempt the number of attempts made so far
+	 */
+	Duration retryDelay(IOException failure, int attempt) {
+		if (failure instanceof HttpException http && http.getResponseHeaderFields() != null) {
+			final Map<String, List<String>> headers = http.getResponseHeaderFields();
+			try {
+				// secondary rate limits say how long to wait
+				final String retryAfter = header(headers, "Retry-After");
+				if (retryAfter != null) return Duration.ofSeconds(Math.max(1, Long.parseLong(retryAfter.strip())));
+
+				// primary rate limits say when they reset
+				final String reset = header(headers, "X-RateLimit-Reset");
+				if ("0".equals(header(headers, "X-RateLimit-Remaining")) && reset != null) {
+					final Duration untilReset = Duration.between(Instant.now(), Instant.ofEpochSecond(Long.parseLong(reset.strip())));
+					return untilReset.isNegative() ? Duration.ofSeconds(1) : untilReset.plusSeconds(1);
+				}
+			} catch (NumberFormatException e) {
+				logger.warn("Unexpected rate limit header value", e);
+			}
+		}
+
+		final Duration backoff = firstRetry.multipliedBy(1L << Math.min(attempt - 1, 16));
+		return backoff.compareTo(MAX_RETRY) > 0 ? MAX_RETRY : backoff;
+	}
+
+	/**
+	 * Only called from the queue's thread.
+	 */
+	private GHRepository repository() throws IOException {
+		if (repository == null) repository = connector.connect();
+		return repository;
+	}
+
+	private static String header(Map<String, List<String>> headers, String name) {
+		for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+			if (name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) return header.getValue().getFirst();
+		}
+		return null;
+	}
+
+	/**
+	 * A pull request being opened. Only touched from the queue's thread.
+	 */
+	private class Request {
+
+		private final Consumer<String> log;
+		private final String branchName;
+		private final String title;
+		private final String body;
+		private final String[] labels;
+		private final CompletableFuture<String> result = new CompletableFuture<>();
+		private final long submitted = System.nanoTime();
+		private final PullRequestEvent event;
+
+		private GHPullRequest pullRequest;
+		private int attempts;
+
+		private Request(Consumer<String> log, String branchName, String title, String body, String[] labels) {
+			this.log = log;
+			this.branchName = branchName;
+			this.title = title;
+			this.body = body;
+			this.labels = labels;
+			this.event = new PullRequestEvent(branchName);
+			event.begin();
+		}
+
+		private void create() {
+			attempts++;
+			event.attempts++;
+			try {
+				// an earlier attempt may have created it, but failed before we found out
+				if (attempts > 1) pullRequest = existing();
+				if (pullRequest == null) {
+					pullRequest = repository().createPullRequest(title, branchName, GitManager.GIT_DEFAULT_BRANCH, body);
+				}
+			} catch (IOException e) {
+				retry(e, this::create, () -> {
+					log.accept(String.format("Failed to create Pull Request: %s", e.getMessage()));
+					FAILED.inc();
+					event.finish("FAILED");
+					result.completeExceptionally(e);
+				});
+				return;
+			}
+
+			log.accept(String.format("Created Pull Request at %s", pullRequest.getHtmlUrl()));
+
+			attempts = 0;
+			if (labels.length == 0) done();
+			else executor.schedule(this::label, labelDelay.toMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		private void label() {
+			attempts++;
+			try {
+				pullRequest.setLabels(labels);
+			} catch (IOException e) {
+				retry(e, this::label, () -> {
+					logger.warn("Failed to set labels on pull request", e);
+					done();
+				});
+				return;
+			}
+
+			done();
+		}
+
+		private void done() {
+			LATENCY.observeSince(submitted);
+			final String url = pullRequest.getHtmlUrl().toString();
+			event.url = url;
+			event.finish("CREATED");
+			result.complete(url);
+		}
+
+		private GHPullRequest existing() throws IOException {
+			final GHRepository repository = repository();
+			final List<GHPullRequest> open = repository.queryPullRequests()
+													   .head(String.format("%s:%s", repository.getOwnerName(), branchName))
+													   .state(GHIssueState.OPEN)
+													   .list()
+													   .toList();
+			return open.isEmpty() ? null : open.getFirst();
+		}
+
+		private void retry(IOException failure, Runnable step, Runnable giveUp) {
+			if (attempts >= MAX_ATTEMPTS || executor.isShutdown()) {
+				giveUp.run();
+				return;
+			}
+
+			final Duration delay = retryDelay(failure, attempts);
+			logger.warn("GitHub request for {} failed on attempt {} of {}, retrying in {}s: {}",
+						branchName, attempts, MAX_ATTEMPTS, delay.toSeconds(), failure.getMessage());
+			executor.schedule(step, delay.toMillis(), TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * Looks up the repository pull requests are opened against.
+	 */
+	@FunctionalInterface
+	public interface Connector {
+
+		GHRepository connect() throws IOException;
+	}
+}
@@ -2,21 +2,28 @@ package org.unrealarchive.submitter;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Deque;
 import java.util.List;
-import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -24,28 +31,37 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import io.undertow.Handlers;
 import io.undertow.Undertow;
 import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
 import io.undertow.server.RoutingHandler;
-import io.undertow.server.handlers.form.EagerFormParsingHandler;
-import io.undertow.server.handlers.form.FormData;
-import io.undertow.server.handlers.form.FormDataParser;
-import io.undertow.server.handlers.form.FormParserFactory;
-import io.undertow.server.handlers.form.MultiPartParserDefinition;
+import io.undertow.server.handlers.sse.ServerSentEventConnection;
+import io.undertow.util.AttachmentKey;
+import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
+import io.undertow.util.PathTemplateMatch;
+import io.undertow.util.SameThreadExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xnio.Options;
+import org.xnio.XnioExecutor;
+import org.xnio.management.XnioWorkerMXBean;
 
-import org.unrealarchive.common.ArchiveUtil;
 import org.unrealarchive.common.Util;
 import org.unrealarchive.content.addons.SimpleAddonType;
+import org.unrealarchive.submitter.clam.ClamDSocketScan;
+import org.unrealarchive.submitter.clam.ClamScan;
+import org.unrealarchive.submitter.events.HttpRequestEvent;
+import org.unrealarchive.submitter.metrics.Metrics;
 import org.unrealarchive.submitter.submit.CollectionProcessor;
 import org.unrealarchive.submitter.submit.CollectionSubmission;
 import org.unrealarchive.submitter.submit.CollectionSubmissions;
+import org.unrealarchive.submitter.submit.JobLog;
 import org.unrealarchive.submitter.submit.SubmissionProcessor;
 import org.unrealarchive.submitter.submit.Submissions;
-
-import static java.nio.file.attribute.PosixFilePermission.*;
+import org.unrealarchive.submitter.upload.LimitedInputStream;
+import org.unrealarchive.submitter.upload.MultipartStream;
+import org.unrealarchive.submitter.upload.UploadAdmission;
+import org.unrealarchive.submitter.upload.UploadReceiver;
 
 public class WebApp implements Closeable {
 
@@ -58,10 +74,32 @@ public class WebApp implements Closeable {
 
 	private static final String HTTP_UPLOAD = "/upload";
 	private static final String HTTP_JOB = "/job/{jobId}";
+	private static final String HTTP_JOB_EVENTS = "/job/{jobId}/events";
 	private static final String HTTP_COLLECTION = "/submit/collection";
 	private static final String HTTP_COLLECTION_JOB = "/submit/collection/job/{jobId}";
+	private static final String HTTP_COLLECTION_JOB_EVENTS = "/submit/collection/job/{jobId}/events";
 	private static final String HTTP_STATUS = "/status";
-	private static final Path[] PATH_ARRAY = {};
+	private static final String HTTP_METRICS = "/metrics";
+	private static final String FILES_FIELD = "files";
+
+	private static final HttpString LOG_NEXT_HEADER = new HttpString("X-Log-Next");
+	private static final Duration QUEUE_FULL_RETRY = Duration.ofSeconds(30);
+	private static final Duration POLL_TIMEOUT = Duration.ofSeconds(15);
+	private static final long EVENTS_KEEP_ALIVE = Duration.ofSeconds(15).toMillis();
+
+	private static final AttachmentKey<HttpRequestEvent> REQUEST_EVENT = AttachmentKey.create(HttpRequestEvent.class);
+
+	private static final Metrics.Counter UPLOADS = Metrics.REGISTRY.counter("submitter_uploads", "Uploads received");
+	private static final Metrics.Counter UPLOAD_BYTES = Metrics.REGISTRY.counter("submitter_upload_bytes", "Bytes of uploaded files received");
+	private static final Metrics.Counter REJECTED_BUSY = Metrics.REGISTRY.counter(
+		"submitter_uploads_rejected", "Uploads turned away", "status", "429"
+	);
+	private static final Metrics.Counter REJECTED_SPACE = Metrics.REGISTRY.counter(
+		"submitter_uploads_rejected", "Uploads turned away", "status", "503"
+	);
+	private static final Metrics.Histogram UPLOAD_TIME = Metrics.REGISTRY.histogram(
+		"submitter_upload_seconds", "Time taken to receive uploads"
+	);
 
 	private final ObjectMapper MAPPER = new ObjectMapper();
 
@@ -69,23 +107,78 @@ public class WebApp implements Closeable {
 
 	private final Undertow server;
 	private final String allowOrigins;
+	private final ClamDSocketScan uploadClamScan;
+	private final UploadAdmission admission;
+	private final Set<String> trustedProxies;
+	private final ExecutorService dispatcher;
+	private final LongAdder dispatched = new LongAdder();
 
 	public WebApp(InetSocketAddress bindAddress, SubmissionProcessor submissionProcessor, CollectionProcessor collectionProcessor,
 				  Path uploadPath, String allowOrigins)
 		throws IOException {
+		this(bindAddress, submissionProcessor, collectionProcessor, uploadPath, allowOrigins, null, ExecutionMode.PLATFORM);
+	}
+
+	public WebApp(InetSocketAddress bindAddress, SubmissionProcessor submissionProcessor, CollectionProcessor collectionProcessor,
+				  Path uploadPath, String allowOrigins, ClamDSocketScan uploadClamScan, ExecutionMode executionMode)
+		throws IOException {
+		this(bindAddress, submissionProcessor, collectionProcessor, uploadPath, allowOrigins, uploadClamScan, executionMode, null);
+	}
+
+	public WebApp(InetSocketAddress bindAddress, SubmissionProcessor submissionProcessor, CollectionProcessor collectionProcessor,
+				  Path uploadPath, String allowOrigins, ClamDSocketScan uploadClamScan, ExecutionMode executionMode,
+				  UploadAdmission admission)
+		throws IOException {
+		this(bindAddress, submissionProcessor, collectionProcessor, uploadPath, allowOrigins, uploadClamScan, executionMode, admission,
+			 Set.of());
+	}
+
+	/**
+	 * @param uploadClamScan if provided, uploaded files are virus scanned by
+	 *                       this scanner while they are being received
+	 * @param executionMode  in virtual mode, blocking handlers are dispatched
+	 *                       to virtual threads rather than the worker pool
+	 * @param admission      if provided, decides whether uploads are accepted
+	 *                       before their content is received
+	 * @param trustedProxies addresses of reverse proxies whose
+	 *                       {@code X-Forwarded-For} headers are believed
+	 */
+	public WebApp(InetSocketAddress bindAddress, SubmissionProcessor submissionProcessor, CollectionProcessor collectionProcessor,
+				  Path uploadPath, String allowOrigins, ClamDSocketScan uploadClamScan, ExecutionMode executionMode,
+				  UploadAdmission admission, Set<String> trustedProxies)
+		throws IOException {
 		this.uploadPath = Files.createDirectories(uploadPath.resolve("incoming"));
+		// uploads are kept over a restart for the jobs resuming them, anything else left behind is abandoned
+		submissionProcessor.sweepUploads(this.uploadPath);
+		this.uploadClamScan = uploadClamScan;
+		this.admission = admission;
+		this.trustedProxies = Set.copyOf(trustedProxies);
+		this.dispatcher = executionMode == ExecutionMode.VIRTUAL
+			? Executors.newThreadPerTaskExecutor(executionMode.threads("http"))
+			: null;
 
 		this.allowOrigins = allowOrigins;
 		RoutingHandler handler = Handlers.routing()
 										 .add("OPTIONS", HTTP_UPLOAD, corsOptionsHandler("POST, OPTIONS"))
-										 .add("POST", HTTP_UPLOAD, uploadHandler(submissionProcessor, this.uploadPath))
+										 .add("POST", HTTP_UPLOAD, Handlers.httpContinueRead(uploadHandler(submissionProcessor, this.uploadPath)))
 										 .add("OPTIONS", HTTP_JOB, corsOptionsHandler("GET, OPTIONS"))
 										 .add("GET", HTTP_JOB, jobHandler(submissionProcessor))
+										 .add("OPTIONS", HTTP_JOB_EVENTS, corsOptionsHandler("GET, OPTIONS"))
+										 .add("GET", HTTP_JOB_EVENTS, logEventsHandler(id -> {
+											 final Submissions.Job job = submissionProcessor.job(id);
+											 return job == null ? null : job.log;
+										 }))
 										 .add("OPTIONS", HTTP_COLLECTION, corsOptionsHandler("POST, OPTIONS"))
 										 .add("POST", HTTP_COLLECTION, collectionHandler(collectionProcessor))
 										 .add("OPTIONS", HTTP_COLLECTION_JOB, corsOptionsHandler("GET, OPTIONS"))
 										 .add("GET", HTTP_COLLECTION_JOB, collectionJobHandler(collectionProcessor))
-										 .add("GET", HTTP_STATUS, statusHandler(submissionProcessor, collectionProcessor));
+										 .add("OPTIONS", HTTP_COLLECTION_JOB_EVENTS, corsOptionsHandler("GET, OPTIONS"))
+										 .add("GET", HTTP_COLLECTION_JOB_EVENTS, logEventsHandler(id -> {
+											 final CollectionSubmissions.Job job = collectionProcessor.job(id);
+											 return job == null ? null : job.log;
+										 }))
+										 .add("GET", HTTP_STATUS, statusHandler(submissionProcessor, collectionProcessor))
+										 .add("GET", HTTP_METRICS, metricsHandler());
 
 		this.server = Undertow.builder()
 							  .setWorkerOption(Options.WORKER_IO_THREADS, WORKER_IO_THREADS)
@@ -96,22 +189,80 @@ public class WebApp implements Closeable {
 							  .setSocketOption(Options.TCP_NODELAY, true)
 							  .setSocketOption(Options.REUSE_ADDRESSES, true)
 							  .addHttpListener(bindAddress.getPort(), bindAddress.getHostString())
-							  .setHandler(handler)
+							  .setHandler(recorded(handler))
 							  .build();
 		this.server.start();
 
+		final XnioWorkerMXBean worker = this.server.getWorker().getMXBean();
+		Metrics.REGISTRY.gauge("submitter_http_workers_busy", "Busy HTTP worker pool threads", worker::getBusyWorkerThreadCount);
+		Metrics.REGISTRY.gauge("submitter_http_workers_max", "Size limit of the HTTP worker pool", worker::getMaxWorkerPoolSize);
+		Metrics.REGISTRY.gauge("submitter_http_worker_queue", "Tasks waiting for an HTTP worker thread", worker::getWorkerQueueSize);
+		Metrics.REGISTRY.gauge("submitter_http_dispatched_active", "Blocking request handlers currently running", dispatched::sum);
+
 		logger.info("Server started on host {}", bindAddress);
 	}
 
 	@Override
 	public void close() {
 		this.server.stop();
-		try {
-			logger.info("Cleaning upload path {}", uploadPath);
-			ArchiveUtil.cleanPath(uploadPath);
-		} catch (IOException e) {
-			logger.error("Cleanup failed", e);
-		}
+		if (dispatcher != null) dispatcher.shutdownNow();
+		// uploaded files are left in place, so queued submissions can resume after a restart
+	}
+
+	/**
+	 * Run a blocking handler off the IO thread, on virtual threads if
+	 * configured, otherwise on the server's worker pool.
+	 */
+	private void dispatch(HttpServerExchange exchange, Runnable task) {
+		final Runnable counted = () -> {
+			dispatched.increment();
+			try {
+				task.run();
+			} finally {
+				dispatched.decrement();
+			}
+		};
+		if (dispatcher != null) exchange.dispatch(dispatcher, counted);
+		else exchange.dispatch(counted);
+	}
+
+	/**
+	 * Record each request as a Flight Recorder event once it has completed,
+	 * so time spent after being dispatched, or parked waiting for a job to
+	 * progress, is included. Requests for a job are attributed to it by the
+	 * {@code jobId} parameter, and handlers which create a job fill it in.
+	 */
+	private static HttpHandler recorded(HttpHandler next) {
+		return (exchange) -> {
+			final HttpRequestEvent event = new HttpRequestEvent(exchange.getRequestMethod().toString());
+			event.begin();
+			exchange.putAttachment(REQUEST_EVENT, event);
+			exchange.addExchangeCompleteListener((ex, nextListener) -> {
+				try {
+					final PathTemplateMatch route = ex.getAttachment(PathTemplateMatch.ATTACHMENT_KEY);
+					final Deque<String> jobId = ex.getQueryParameters().get("jobId");
+					event.path = route != null ? route.getMatchedTemplate() : ex.getRequestPath();
+					if (event.jobId == null && jobId != null && !jobId.isEmpty()) event.jobId = jobId.getFirst();
+					if (event.bytes == 0) event.bytes = Math.max(0, ex.getRequestContentLength());
+					event.status = ex.getStatusCode();
+					event.responseBytes = ex.getResponseBytesSent();
+					event.finish(event.status < 400 ? "OK" : event.status == 429 || event.status == 503 ? "REJECTED" : "ERROR");
+				} finally {
+					nextListener.proceed();
+				}
+			});
+			next.handleRequest(exchange);
+		};
+	}
+
+	/**
+	 * Attribute a request's event to a job, and the bytes it received.
+	 */
+	private static void recordJob(HttpServerExchange exchange, String jobId, long bytes) {
+		final HttpRequestEvent event = exchange.getAttachment(REQUEST_EVENT);
+		if (event == null) return;
+		event.jobId = jobId;
+		if (bytes > 0) event.bytes = bytes;
 	}
 
 	private HttpHandler corsOptionsHandler(String methods) {
@@ -124,62 +275,193 @@ public class WebApp implements Closeable {
 	}
 
 	private HttpHandler uploadHandler(SubmissionProcessor subProcessor, Path tmpDir) {
-		HttpHandler multipartProcessorHandler = (exchange) -> exchange.dispatch(() -> {
-			try {
-				FormData attachment = exchange.getAttachment(FormDataParser.FORM_DATA);
+		final UploadReceiver receiver = new UploadReceiver(tmpDir, FILES_FIELD, uploadClamScan);
 
-				SimpleAddonType forceType = null;
-				FormData.FormValue maybeForceType = attachment.getFirst("forceType");
-				if (maybeForceType != null && maybeForceType.getValue() != null && !maybeForceType.getValue().isBlank()) {
-					forceType = SimpleAddonType.valueOf(maybeForceType.getValue().toUpperCase());
+		return (exchange) -> dispatch(exchange, () -> {
+			try {
+				final String boundary = MultipartStream.boundary(exchange.getRequestHeaders().getFirst(Headers.CONTENT_TYPE));
+				if (boundary == null) {
+					exchange.setStatusCode(400);
+					exchange.getResponseSender().send("Expected a multipart upload");
+					return;
 				}
 
-				Submissions.Job job = new Submissions.Job(forceType);
-				subProcessor.trackJob(job);
+				// turn the upload away before receiving it if it can't be handled. with "Expect: 100-continue", the
+				// client won't have sent any of the body yet either
+				final UploadAdmission.Decision admitted = admission == null ? null : admission.admit(exchange.getRequestContentLength());
+				if (admitted != null && !admitted.accepted()) {
+					reject(exchange, admitted.status(), admitted.message(), admitted.retryAfter());
+					return;
+				}
 
-				final List<Path> files = attachment.get("files").stream().map(v -> {
+				// the permit holds the upload's reserved space and queue place until it has been handed to processing
+				try (admitted) {
+					exchange.startBlocking();
+					// a body without a declared length could otherwise grow beyond the space reserved for it
+					final InputStream body = admitted == null
+						? exchange.getInputStream()
+						: new LimitedInputStream(exchange.getInputStream(), admitted.limit());
+					final long receiveStart = System.nanoTime();
+					final UploadReceiver.Upload upload;
 					try {
-						Path file = v.getFileItem().getFile();
-						String newName = String.format("%s.%s", Util.plainName(v.getFileName()), Util.extension(v.getFileName()));
-						Path savePath = Files.createDirectories(tmpDir.resolve(Util.hash(file).substring(0, 8)));
-						// we're also changing the permissions of the file here, so it can be read by the clamav user
-						return Files.setPosixFilePermissions(
-							Files.move(file, savePath.resolve(newName), StandardCopyOption.REPLACE_EXISTING),
-							Set.of(OWNER_READ, OWNER_WRITE, GROUP_READ, OTHERS_READ)
-						);
-					} catch (IOException e) {
-						job.log(Submissions.JobState.FAILED, String.format("Failed moving file %s", v.getFileName()), e);
-						logger.error("File move failed", e);
-						return null;
+						upload = receiver.receive(body, boundary);
+					} catch (LimitedInputStream.LimitExceededException e) {
+						// the rest of the body would be drained to reuse the connection, so close it instead
+						exchange.setPersistent(false);
+						exchange.setStatusCode(413);
+						exchange.getResponseSender().send(String.format("Uploads may be at most %d bytes", admitted.limit()));
+						return;
+					}
+					UPLOAD_TIME.observeSince(receiveStart);
+					UPLOADS.inc();
+					long received = 0;
+					for (UploadReceiver.ReceivedFile f : upload.files()) received += f.size();
+					UPLOAD_BYTES.add(received);
+
+					SimpleAddonType forceType = null;
+					final String maybeForceType = upload.fields().get("forceType");
+					if (maybeForceType != null && !maybeForceType.isBlank()) {
+						try {
+							forceType = SimpleAddonType.valueOf(maybeForceType.strip().toUpperCase());
+						} catch (IllegalArgumentException e) {
+							upload.delete();
+							exchange.setStatusCode(400);
+							exchange.getResponseSender().send(String.format("Unknown content type %s", maybeForceType.strip()));
+							return;
+						}
 					}
-				}).filter(Objects::nonNull).toList();
 
-				if (!files.isEmpty()) {
-					job.log(String.format("Received file(s): %s, queue for processing",
-										  files.stream().map(Util::fileName).collect(Collectors.joining(", "))));
+					final List<String> hashes = upload.files().stream().map(UploadReceiver.ReceivedFile::hash).toList();
 
-					subProcessor.add(new SubmissionProcessor.PendingSubmission(
-						job, System.currentTimeMillis(), Util.fileName(files.getFirst()), files.toArray(PATH_ARRAY)
-					));
-				}
+					final String client = client(exchange);
+					Submissions.Job job = new Submissions.Job(forceType, client);
 
-				exchange.getResponseHeaders()
-						.put(Headers.CONTENT_TYPE, "application/json")
-						.put(new HttpString("Access-Control-Allow-Origin"), allowOrigins)
-						.put(new HttpString("Access-Control-Allow-Methods"), "POST");
-				exchange.getResponseSender().send(MAPPER.writeValueAsString(job.id));
-			} catch (IOException e) {
+					// if this exact content was uploaded recently, point the client at that job instead
+					final Submissions.Job existing = subProcessor.claim(contentKey(hashes, forceType), job);
+					recordJob(exchange, existing != null ? existing.id : job.id, received);
+					if (existing != null) {
+						upload.delete();
+						existing.log("Received a repeated upload of the same content");
+						jobResponse(exchange, existing);
+						return;
+					}
+
+					subProcessor.trackJob(job);
+
+					if (!upload.files().isEmpty()) {
+						final Path[] files = upload.files().stream().map(UploadReceiver.ReceivedFile::path).toArray(Path[]::new);
+						job.log(String.format("Received file(s): %s, queue for processing",
+											  Arrays.stream(files).map(Util::fileName).collect(Collectors.joining(", "))));
+
+						uploadVirusScan(job, upload);
+
+						if (job.state == Submissions.JobState.VIRUS_FOUND) {
+							upload.delete();
+						} else if (!subProcessor.add(new SubmissionProcessor.PendingSubmission(
+							job, System.currentTimeMillis(), Util.fileName(files[0]), files, hashes.toArray(String[]::new), client
+						))) {
+							// the job will never run, so don't let the client think it will
+							upload.delete();
+							job.log(Submissions.JobState.FAILED, "The submission queue is full", Submissions.LogType.ERROR);
+							reject(exchange, 429, "Too many submissions are queued, please try again later", QUEUE_FULL_RETRY);
+							return;
+						}
+					} else {
+						upload.delete();
+					}
+
+					jobResponse(exchange, job);
+				}
+			} catch (IOException | InterruptedException e) {
 				throw new RuntimeException(e);
 			} finally {
 				exchange.endExchange();
 			}
 		});
+	}
+
+	private void jobResponse(HttpServerExchange exchange, Submissions.Job job) throws JsonProcessingException {
+		exchange.getResponseHeaders()
+				.put(Headers.CONTENT_TYPE, "application/json")
+				.put(new HttpString("Access-Control-Allow-Origin"), allowOrigins)
+				.put(new HttpString("Access-Control-Allow-Methods"), "POST");
+		exchange.getResponseSender().send(MAPPER.writeValueAsString(job.id));
+	}
 
-		return new EagerFormParsingHandler(
-			FormParserFactory.builder()
-							 .addParsers(new MultiPartParserDefinition())
-							 .build()
-		).setNext(multipartProcessorHandler);
+	/**
+	 * Identify the client making a request by the address it connected from.
+	 * <p>
+	 * If that is a trusted proxy, the address the proxy says it was forwarded
+	 * for is used instead. Proxies append to {@code X-Forwarded-For}, so it is
+	 * read from the right, skipping any further trusted proxies; anything to
+	 * the left of the first untrusted address was written by the client
+	 * itself, and can't be believed.
+	 */
+	private String client(HttpServerExchange exchange) {
+		final InetSocketAddress source = exchange.getSourceAddress();
+		String client = source == null || source.getAddress() == null ? null : source.getAddress().getHostAddress();
+		if (client == null || !trustedProxies.contains(client)) return client;
+
+		final HeaderValues forwarded = exchange.getRequestHeaders().get(Headers.X_FORWARDED_FOR);
+		if (forwarded == null) return client;
+		final List<String> hops = forwarded.stream()
+										   .flatMap(h -> Arrays.stream(h.split(",")))
+										   .map(String::strip)
+										   .filter(h -> !h.isEmpty())
+										   .toList();
+		for (String hop : hops.reversed()) {
+			client = hop;
+			if (!trustedProxies.contains(hop)) break;
+		}
+		return client;
+	}
+
+	private void reject(HttpServerExchange exchange, int status, String message, Duration retryAfter) {
+		(status == 503 ? REJECTED_SPACE : REJECTED_BUSY).inc();
+		exchange.setStatusCode(status);
+		exchange.getResponseHeaders()
+				.put(Headers.RETRY_AFTER, retryAfter.toSeconds())
+				.put(new HttpString("Access-Control-Allow-Origin"), allowOrigins)
+				.put(new HttpString("Access-Control-Expose-Headers"), Headers.RETRY_AFTER_STRING);
+		exchange.getResponseSender().send(message);
+	}
+
+	/**
+	 * Identify a submission by the content of its files, and any type it was
+	 * forced to, independent of the order files were uploaded in.
+	 */
+	private static String contentKey(List<String> hashes, SimpleAddonType forceType) {
+		final String content = hashes.stream().sorted().collect(Collectors.joining("+"));
+		return forceType == null ? content : String.format("%s:%s", content, forceType.name());
+	}
+
+	/**
+	 * Apply the results of virus scanning performed while the upload was
+	 * received, if there are any. The job is left untouched if any file could
+	 * not be scanned, so it will be scanned as normal.
+	 */
+	private void uploadVirusScan(Submissions.Job job, UploadReceiver.Upload upload) {
+		final List<UploadReceiver.ReceivedFile> files = upload.files();
+		for (UploadReceiver.ReceivedFile f : files) {
+			if (f.verdict() != null) uploadClamScan.remember(f.hash(), f.verdict().result());
+		}
+
+		if (files.stream().anyMatch(f -> f.verdict() == null
+										 || f.verdict().result() == ClamScan.ClamResult.ERROR
+										 || f.verdict().result() == ClamScan.ClamResult.FAILED)) return;
+
+		job.log(Submissions.JobState.VIRUS_SCANNING, "Scanned for malware during upload");
+		for (UploadReceiver.ReceivedFile f : files) {
+			if (f.verdict().result() == ClamScan.ClamResult.VIRUS) {
+				job.log(String.format("Malware found in file %s: %s", f.fileName(), f.verdict().detail()), Submissions.LogType.ERROR);
+			}
+		}
+
+		if (files.stream().anyMatch(f -> f.verdict().result() == ClamScan.ClamResult.VIRUS)) {
+			job.log(Submissions.JobState.VIRUS_FOUND, "Malware found!!", new RuntimeException("Found some malware"));
+		} else {
+			job.log(Submissions.JobState.VIRUS_FREE, "No malware found");
+		}
 	}
 
 	private HttpHandler jobHandler(SubmissionProcessor submissionProcessor) {
@@ -192,36 +474,142 @@ public class WebApp implements Closeable {
 			exchange.getResponseHeaders()
 					.put(Headers.CONTENT_TYPE, "application/json")
 					.put(new HttpString("Access-Control-Allow-Origin"), allowOrigins)
-					.put(new HttpString("Access-Control-Allow-Methods"), "POST, GET");
+					.put(new HttpString("Access-Control-Allow-Methods"), "POST, GET")
+					.put(new HttpString("Access-Control-Expose-Headers"), LOG_NEXT_HEADER.toString());
 
-			exchange.dispatch(() -> {
-				try {
-					if (job == null) {
-						exchange.setStatusCode(404);
-						exchange.getResponseSender().send("[]");
-						return;
-					}
+			if (job == null) {
+				exchange.setStatusCode(404);
+				exchange.getResponseSender().send("[]");
+				return;
+			}
 
-					final Deque<String> catchup = exchange.getQueryParameters().getOrDefault("catchup", emptyDeque);
-					if (!catchup.isEmpty() && catchup.getFirst().equals("1")) {
-						exchange.getResponseSender().send(MAPPER.writeValueAsString(job.log));
-					} else {
-						exchange.getResponseSender().send(MAPPER.writeValueAsString(job.pollLog(Duration.ofSeconds(15))));
-					}
-				} catch (JsonProcessingException | InterruptedException e) {
-					throw new RuntimeException(e);
-				} finally {
+			final Deque<String> catchup = exchange.getQueryParameters().getOrDefault("catchup", emptyDeque);
+			if (!catchup.isEmpty() && catchup.getFirst().equals("1")) {
+				final List<Submissions.LogEntry> entries = job.log.since(0);
+				exchange.getResponseHeaders().put(LOG_NEXT_HEADER, entries.size());
+				exchange.getResponseSender().send(MAPPER.writeValueAsString(entries));
+			} else {
+				longPoll(exchange, job.log);
+			}
+		};
+	}
+
+	/**
+	 * Respond with the job's log entries from the sequence number given by the
+	 * {@code since} parameter, or from the start of the log if there is none,
+	 * once there are some. The exchange is parked without a thread until then, or
+	 * until the poll times out with an empty response.
+	 * <p>
+	 * The sequence number to poll from next is returned in the
+	 * {@value #LOG_NEXT_HEADER} header. The server keeps no position for
+	 * the client, so any number of clients can follow the same job, each
+	 * sending back the number it was given.
+	 */
+	private void longPoll(HttpServerExchange exchange, JobLog log) {
+		final Deque<String> sinceParam = exchange.getQueryParameters().get("since");
+		int since = 0;
+		if (sinceParam != null && !sinceParam.isEmpty()) {
+			try {
+				since = Math.clamp(Integer.parseInt(sinceParam.getFirst()), 0, log.size());
+			} catch (NumberFormatException e) {
+				exchange.setStatusCode(400);
+				exchange.getResponseSender().send("[]");
+				return;
+			}
+		}
+
+		final int from = since;
+		exchange.dispatch(SameThreadExecutor.INSTANCE, () -> {
+			final CompletableFuture<List<Submissions.LogEntry>> poll = log.poll(from);
+			if (!poll.isDone()) {
+				final XnioExecutor.Key timeout = exchange.getIoThread().executeAfter(() -> {
+					if (log.cancelPoll(poll)) poll.complete(List.of());
+				}, POLL_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+				poll.thenRun(timeout::remove);
+			}
+
+			poll.thenAccept(entries -> exchange.getIoThread().execute(() -> {
+				try {
+					exchange.getResponseHeaders().put(LOG_NEXT_HEADER, from + entries.size());
+					exchange.getResponseSender().send(MAPPER.writeValueAsString(entries));
+				} catch (JsonProcessingException e) {
+					logger.error("Failed to serialise job log", e);
+					exchange.setStatusCode(500);
 					exchange.endExchange();
 				}
-			});
+			}));
+		});
+	}
+
+	/**
+	 * Stream a job's log as Server-Sent Events, one "log" event per entry with
+	 * the entry's sequence number as its event ID, so a reconnecting client
+	 * resumes where it left off. A final "done" event is sent once the job
+	 * finishes, and the stream is closed.
+	 */
+	private HttpHandler logEventsHandler(Function<String, JobLog> jobLogs) {
+		final Deque<String> emptyDeque = new ArrayDeque<>();
+
+		return (exchange) -> {
+			final String jobId = exchange.getQueryParameters().getOrDefault("jobId", emptyDeque).getFirst();
+			final JobLog log = jobLogs.apply(jobId);
+
+			exchange.getResponseHeaders()
+					.put(new HttpString("Access-Control-Allow-Origin"), allowOrigins)
+					.put(new HttpString("Access-Control-Allow-Methods"), "GET");
+
+			if (log == null) {
+				exchange.setStatusCode(404);
+				exchange.endExchange();
+				return;
+			}
+
+			Handlers.serverSentEvents((connection, lastEventId) -> streamLog(connection, lastEventId, log))
+					.handleRequest(exchange);
+		};
+	}
+
+	private void streamLog(ServerSentEventConnection connection, String lastEventId, JobLog log) {
+		int from = 0;
+		if (lastEventId != null) {
+			try {
+				from = Integer.parseInt(lastEventId.strip()) + 1;
+			} catch (NumberFormatException e) {
+				// start from the beginning
+			}
+		}
+
+		connection.setKeepAliveTime(EVENTS_KEEP_ALIVE);
+
+		final JobLog.Listener listener = new JobLog.Listener() {
+			@Override
+			public void logged(int seq, Submissions.LogEntry entry, boolean done) {
+				try {
+					connection.send(MAPPER.writeValueAsString(entry), "log", Integer.toString(seq), null);
+				} catch (JsonProcessingException e) {
+					logger.warn("Failed to serialise log entry", e);
+				}
+				if (done) {
+					log.unsubscribe(this);
+					connection.send("done", "done", null, null);
+					connection.shutdown();
+				}
+			}
 		};
+
+		connection.addCloseTask(c -> log.unsubscribe(listener));
+		if (log.subscribe(from, listener)) {
+			connection.send("done", "done", null, null);
+			connection.shutdown();
+		}
 	}
 
 	private HttpHandler collectionHandler(CollectionProcessor collectionProcessor) {
-		return (exchange) -> exchange.dispatch(() -> {
+		return (exchange) -> dispatch(exchange, () -> {
 			try {
 				CollectionSubmission submission = MAPPER.readValue(exchange.getInputStream(), CollectionSubmission.class);
 				CollectionSubmissions.Job job = new CollectionSubmissions.Job(submission);
+				recordJob(exchange, job.id, 0);
 				collectionProcessor.add(job);
 
 				exchange.getResponseHeaders()
@@ -249,77 +637,46 @@ public class WebApp implements Closeable {
 			exchange.getResponseHeaders()
 					.put(Headers.CONTENT_TYPE, "application/json")
 					.put(new HttpString("Access-Control-Allow-Origin"), allowOrigins)
-					.put(new HttpString("Access-Control-Allow-Methods"), "POST, GET");
+					.put(new HttpString("Access-Control-Allow-Methods"), "POST, GET")
+					.put(new HttpString("Access-Control-Expose-Headers"), LOG_NEXT_HEADER.toString());
 
-			exchange.dispatch(() -> {
-				try {
-					if (job == null) {
-						exchange.setStatusCode(404);
-						exchange.getResponseSender().send("[]");
-						return;
-					}
+			if (job == null) {
+				exchange.setStatusCode(404);
+				exchange.getResponseSender().send("[]");
+				return;
+			}
 
-					final Deque<String> catchup = exchange.getQueryParameters().getOrDefault("catchup", emptyDeque);
-					if (!catchup.isEmpty() && catchup.getFirst().equals("1")) {
-						exchange.getResponseSender().send(MAPPER.writeValueAsString(job.log));
-					} else {
-						exchange.getResponseSender().send(MAPPER.writeValueAsString(job.pollLog(Duration.ofSeconds(15))));
-					}
-				} catch (JsonProcessingException | InterruptedException e) {
-					throw new RuntimeException(e);
-				} finally {
-					exchange.endExchange();
-				}
-			});
+			final Deque<String> catchup = exchange.getQueryParameters().getOrDefault("catchup", emptyDeque);
+			if (!catchup.isEmpty() && catchup.getFirst().equals("1")) {
+				final List<Submissions.LogEntry> entries = job.log.since(0);
+				exchange.getResponseHeaders().put(LOG_NEXT_HEADER, entries.size());
+				exchange.getResponseSender().send(MAPPER.writeValueAsString(entries));
+			} else {
+				longPoll(exchange, job.log);
+			}
+		};
+	}
+
+	private HttpHandler metricsHandler() {
+		return (exchange) -> {
+			final StringBuilder out = new StringBuilder();
+			Metrics.REGISTRY.write(out);
+			exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain; version=0.0.4; charset=utf-8");
+			exchange.getResponseSender().send(out.toString());
 		};
 	}
 
 	private HttpHandler statusHandler(SubmissionProcessor submissionProcessor, CollectionProcessor collectionProcessor) {
 
 		return (exchange) -> {
-			StringBuilder html = new StringBuilder("<html><title>Job History</title><body><pre>");
-
-			html.append(String.format("<b>%-8s %-20s %-20s %-20s %s</b>\n",
-									  "Job", "Created", "Updated", "State", "Last Update"));
-			html.append("<hr/>");
-
-			submissionProcessor.jobs().stream().sorted(Comparator.comparingLong(j -> j.logHead().time))
-							   .forEach(j -> {
-								   html.append(String.format("<a href='job/%s?catchup=1'>%s</a>", j.id, j.id));
-								   html.append(String.format(" %-20s", LocalDateTime.ofInstant(Instant.ofEpochMilli(j.logHead().time),
-																							   ZoneId.systemDefault()).format(DATE_FMT)));
-								   html.append(String.format(" %-20s", LocalDateTime.ofInstant(Instant.ofEpochMilli(j.logTail().time),
-																							   ZoneId.systemDefault()).format(DATE_FMT)));
-								   html.append(String.format(" %-21s", j.state));
-								   html.append(j.logTail().message);
-								   html.append("\n");
-							   });
-
-			html.append("<hr/>");
-			html.append(String.format("<b>%-8s %-20s %-20s %-20s %s</b>\n",
-									  "Col Job", "Created", "Updated", "State", "Last Update"));
-			html.append("<hr/>");
-
-			collectionProcessor.jobs().stream().sorted(Comparator.comparingLong(j -> j.log.getLast().time))
-							   .forEach(j -> {
-								   html.append(String.format("<a href='submit/collection/job/%s?catchup=1'>%s</a>", j.id, j.id));
-								   html.append(String.format(" %-20s", LocalDateTime.ofInstant(Instant.ofEpochMilli(j.log.getLast().time),
-																							   ZoneId.systemDefault()).format(DATE_FMT)));
-								   html.append(String.format(" %-20s", LocalDateTime.ofInstant(Instant.ofEpochMilli(j.log.getFirst().time),
-																							   ZoneId.systemDefault()).format(DATE_FMT)));
-								   html.append(String.format(" %-21s", j.state));
-								   html.append(j.log.getFirst().message);
-								   html.append("\n");
-							   });
-
-			html.append("</pre></body></html>");
+			final String html = statusPage(submissionProcessor.jobs(), collectionProcessor.jobs());
 
 			exchange.getResponseHeaders()
 					.put(Headers.CONTENT_TYPE, "text/html");
 
-			exchange.dispatch(() -> {
+			dispatch(exchange, () -> {
 				try {
-					exchange.getResponseSender().send(html.toString());
+					exchange.getResponseSender().send(html);
 				} finally {
 					exchange.endExchange();
 				}
@@ -327,4 +684,47 @@ public class WebApp implements Closeable {
 		};
 	}
 
+	/**
+	 * Render the history of content and collection jobs shown on the status
+	 * page.
+	 */
+	static String statusPage(Collection<Submissions.Job> jobs, Collection<CollectionSubmissions.Job> collectionJobs) {
+		StringBuilder html = new StringBuilder("<html><title>Job History</title><body><pre>");
+
+		html.append(String.format("<b>%-8s %-20s %-20s %-20s %s</b>\n",
+								  "Job", "Created", "Updated", "State", "Last Update"));
+		html.append("<hr/>");
+
+		jobs.stream().sorted(Comparator.comparingLong(j -> j.logHead().time)).forEach(j -> {
+			html.append(String.format("<a href='job/%s?catchup=1'>%s</a>", j.id, j.id));
+			html.append(String.format(" %-20s", LocalDateTime.ofInstant(Instant.ofEpochMilli(j.logHead().time),
+																		ZoneId.systemDefault()).format(DATE_FMT)));
+			html.append(String.format(" %-20s", LocalDateTime.ofInstant(Instant.ofEpochMilli(j.logTail().time),
+																		ZoneId.systemDefault()).format(DATE_FMT)));
+			html.append(String.format(" %-21s", j.state));
+			html.append(j.logTail().message);
+			html.append("\n");
+		});
+
+		html.append("<hr/>");
+		html.append(String.format("<b>%-8s %-20s %-20s %-20s %s</b>\n",
+								  "Col Job", "Created", "Updated", "State", "Last Update"));
+		html.append("<hr/>");
+
+		collectionJobs.stream().sorted(Comparator.comparingLong(j -> j.log.getLast().time)).forEach(j -> {
+			html.append(String.format("<a href='submit/collection/job/%s?catchup=1'>%s</a>", j.id, j.id));
+			html.append(String.format(" %-20s", LocalDateTime.ofInstant(Instant.ofEpochMilli(j.log.getLast().time),
+																		ZoneId.systemDefault()).format(DATE_FMT)));
+			html.append(String.format(" %-20s", LocalDateTime.ofInstant(Instant.ofEpochMilli(j.log.getFirst().time),
+																		ZoneId.systemDefault()).format(DATE_FMT)));
+			html.append(String.format(" %-21s", j.state));
+			html.append(j.log.getFirst().message);
+			html.append("\n");
+		});
+
+		html.append("</pre></body></html>");
+
+		return html.toString();
+	}
+
 }
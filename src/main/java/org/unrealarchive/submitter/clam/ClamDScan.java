@@ -38,11 +38,18 @@ public class ClamDScan extends ClamScan {
 		cmd[1] = CLAMSCAN_OPTIONS;
 		cmd[2] = String.format("--config-file=%s", clamConfig.clamdConf.toAbsolutePath());
 		for (int i = 0; i < paths.length; i++) {
-			cmd[i + 3] = paths[0].toAbsolutePath().toString();
+			cmd[i + 3] = paths[i].toAbsolutePath().toString();
 		}
 		return cmd;
 	}
 
+	@Override
+	protected String[] versionCommand() {
+		return new String[] {
+			clamCommand, "--version", String.format("--config-file=%s", clamConfig.clamdConf.toAbsolutePath())
+		};
+	}
+
 	public static class ClamDConfig implements Closeable {
 
 		public final Path socketPath;
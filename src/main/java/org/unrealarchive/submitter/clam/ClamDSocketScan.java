@@ -0,0 +1,333 @@
+package org.unrealarchive.submitter.clam;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.unrealarchive.common.Util;
+import org.unrealarchive.submitter.submit.Submissions;
+
+/**
+ * A ClamScan implementation which talks to a running clamd directly via its
+ * UNIX domain socket, rather than spawning a scanner process per job.
+ * <p>
+ * File contents are streamed to clamd using the INSTREAM command over a
+ * small pool of persistent IDSESSION connections. Files larger than clamd's
+ * stream limit are scanned by path instead, which requires clamd to be able
+ * to read them.
+ */
+public class ClamDSocketScan extends ClamScan implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ClamDSocketScan.class);
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private static final int DEFAULT_POOL_SIZE = 4;
+	// matches clamd's default StreamMaxLength
+	private static final long DEFAULT_STREAM_MAX = 25L * 1024 * 1024;
+
+	private static final Duration SCAN_TIMEOUT = Duration.ofSeconds(300);
+
+	private static final Pattern SESSION_PREFIX = Pattern.compile("^\\d+: ");
+
+	private final UnixDomainSocketAddress address;
+	private final long streamMaxLength;
+	private final Semaphore permits;
+	private final Deque<Connection> idle;
+	private final ScheduledExecutorService watchdog;
+
+	private volatile boolean closed;
+
+	public ClamDSocketScan(Path socketPath, int poolSize, long streamMaxLength) {
+		this.address = UnixDomainSocketAddress.of(socketPath);
+		this.streamMaxLength = streamMaxLength;
+		this.permits = new Semaphore(poolSize);
+		this.idle = new ConcurrentLinkedDeque<>();
+		this.watchdog = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("clamd-watchdog").daemon().factory());
+		this.closed = false;
+	}
+
+	public ClamDSocketScan(Path socketPath) {
+		this(socketPath, DEFAULT_POOL_SIZE, DEFAULT_STREAM_MAX);
+	}
+
+	@Override
+	protected ClamResult scanPaths(Submissions.Job job, Path[] paths) throws IOException, InterruptedException {
+		boolean virus = false;
+		boolean failed = false;
+		for (Path path : paths) {
+			final Verdict verdict = scanFile(path);
+			switch (verdict.result()) {
+				case OK -> logger.info("[{}] No malware found in {}", job.id, path);
+				case VIRUS -> {
+					virus = true;
+					job.log(String.format("Malware found in file %s: %s", Util.fileName(path), verdict.detail()),
+							Submissions.LogType.ERROR);
+				}
+				default -> {
+					failed = true;
+					logger.warn("[{}] Malware scan of {} failed: {}", job.id, path, verdict.detail());
+				}
+			}
+		}
+
+		if (virus) return ClamResult.VIRUS;
+		if (failed) return ClamResult.ERROR;
+		return ClamResult.OK;
+	}
+
+	/**
+	 * Scan a single file, retrying once on a fresh connection if a pooled
+	 * connection turns out to have been closed by clamd.
+	 */
+	public Verdict scanFile(Path path) throws IOException, InterruptedException {
+		final boolean stream = Files.size(path) <= streamMaxLength;
+
+		IOException failure = null;
+		for (int attempt = 0; attempt < 2; attempt++) {
+			final Connection conn = borrow();
+			boolean healthy = false;
+			final ScheduledFuture<?> timeout = watchdog.schedule(conn::close, SCAN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+			try {
+				final Verdict verdict = Verdict.parse(stream ? conn.instream(path) : conn.scan(path));
+				// clamd may end the session after an error, so don't reuse the connection
+				healthy = verdict.result() != ClamResult.ERROR;
+				return verdict;
+			} catch (IOException e) {
+				failure = e;
+				logger.info("clamd connection failed, attempt {}", attempt + 1, e);
+			} finally {
+				timeout.cancel(false);
+				release(conn, healthy);
+			}
+		}
+
+		throw failure;
+	}
+
+	@Override
+	protected String fetchVersion() throws IOException, InterruptedException {
+		final Connection conn = borrow();
+		boolean healthy = false;
+		try {
+			conn.command("zVERSION");
+			final String version = SESSION_PREFIX.matcher(conn.readReply()).replaceFirst("");
+			healthy = true;
+			return version;
+		} finally {
+			release(conn, healthy);
+		}
+	}
+
+	/**
+	 * Open an INSTREAM session, allowing content to be scanned as it becomes
+	 * available rather than from a file on disk.
+	 * <p>
+	 * The stream must be closed once done with, whether or not it was finished.
+	 */
+	public InStream stream() throws IOException, InterruptedException {
+		IOException failure = null;
+		for (int attempt = 0; attempt < 2; attempt++) {
+			final Connection conn = borrow();
+			try {
+				conn.command("zINSTREAM");
+				return new InStream(conn);
+			} catch (IOException e) {
+				failure = e;
+				release(conn, false);
+			}
+		}
+
+		throw failure;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		watchdog.shutdownNow();
+		Connection conn;
+		while ((conn = idle.pollFirst()) != null) {
+			conn.close();
+		}
+	}
+
+	private Connection borrow() throws IOException, InterruptedException {
+		permits.acquire();
+		try {
+			final Connection conn = idle.pollFirst();
+			return conn != null ? conn : new Connection(address);
+		} catch (IOException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	private void release(Connection conn, boolean healthy) {
+		if (healthy && !closed) idle.offerFirst(conn);
+		else conn.close();
+		permits.release();
+	}
+
+	public record Verdict(ClamResult result, String detail) {
+
+		private static final String FOUND = " FOUND";
+		private static final String OK = " OK";
+
+		/**
+		 * Parse a clamd reply such as {@code "1: stream: OK"} or
+		 * {@code "1: stream: Eicar-Signature FOUND"}.
+		 */
+		public static Verdict parse(String reply) {
+			final String body = SESSION_PREFIX.matcher(reply.strip()).replaceFirst("");
+			if (body.endsWith(FOUND)) {
+				final String found = body.substring(0, body.length() - FOUND.length());
+				return new Verdict(ClamResult.VIRUS, found.substring(found.lastIndexOf(": ") + 2));
+			} else if (body.endsWith(OK)) {
+				return new Verdict(ClamResult.OK, body);
+			} else {
+				return new Verdict(ClamResult.ERROR, body);
+			}
+		}
+	}
+
+	public class InStream implements Closeable {
+
+		private final Connection conn;
+
+		private long length;
+		private boolean healthy;
+		private boolean released;
+
+		private InStream(Connection conn) {
+			this.conn = conn;
+			this.length = 0;
+			this.healthy = false;
+			this.released = false;
+		}
+
+		public void write(ByteBuffer data) throws IOException {
+			length += data.remaining();
+			if (length > streamMaxLength) throw new IOException("Content exceeds clamd stream limit");
+
+			while (data.hasRemaining()) {
+				final ByteBuffer chunk = data.slice(data.position(), Math.min(data.remaining(), CHUNK_SIZE));
+				conn.writeLength(chunk.remaining());
+				conn.write(chunk);
+				data.position(data.position() + chunk.limit());
+			}
+		}
+
+		public Verdict finish() throws IOException {
+			final ScheduledFuture<?> timeout = watchdog.schedule(conn::close, SCAN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+			try {
+				conn.writeLength(0);
+				final Verdict verdict = Verdict.parse(conn.readReply());
+				healthy = verdict.result() != ClamResult.ERROR;
+				return verdict;
+			} finally {
+				timeout.cancel(false);
+			}
+		}
+
+		@Override
+		public void close() {
+			if (released) return;
+			released = true;
+			release(conn, healthy);
+		}
+	}
+
+	private static class Connection implements Closeable {
+
+		private final SocketChannel channel;
+		private final ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+		private final ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SIZE);
+		private final ByteBuffer reply = ByteBuffer.allocate(512);
+
+		private Connection(UnixDomainSocketAddress address) throws IOException {
+			this.channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+			this.channel.connect(address);
+			command("zIDSESSION");
+		}
+
+		private String instream(Path file) throws IOException {
+			command("zINSTREAM");
+			try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+				chunk.clear();
+				while (in.read(chunk) > 0) {
+					chunk.flip();
+					writeLength(chunk.remaining());
+					write(chunk);
+					chunk.clear();
+				}
+			}
+			writeLength(0);
+			return readReply();
+		}
+
+		private String scan(Path file) throws IOException {
+			command("zSCAN " + file.toAbsolutePath());
+			return readReply();
+		}
+
+		private void command(String command) throws IOException {
+			write(ByteBuffer.wrap((command + "\0").getBytes(StandardCharsets.US_ASCII)));
+		}
+
+		private void writeLength(int len) throws IOException {
+			length.clear();
+			length.putInt(len).flip();
+			write(length);
+		}
+
+		private void write(ByteBuffer buffer) throws IOException {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+
+		private String readReply() throws IOException {
+			final ByteArrayOutputStream out = new ByteArrayOutputStream();
+			while (true) {
+				reply.clear();
+				if (channel.read(reply) < 0) throw new EOFException("clamd closed the connection");
+				reply.flip();
+				while (reply.hasRemaining()) {
+					final byte b = reply.get();
+					if (b == 0) return out.toString(StandardCharsets.US_ASCII);
+					out.write(b);
+				}
+			}
+		}
+
+		@Override
+		public void close() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				logger.debug("Failed to close clamd connection", e);
+			}
+		}
+	}
+}
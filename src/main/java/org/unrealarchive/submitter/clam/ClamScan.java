@@ -1,12 +1,19 @@
 package org.unrealarchive.submitter.clam;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.unrealarchive.common.Util;
+import org.unrealarchive.submitter.events.VirusScanEvent;
 import org.unrealarchive.submitter.submit.Submissions;
 
 public class ClamScan {
@@ -25,8 +32,14 @@ public class ClamScan {
 
 	private static final Duration SCAN_TIMEOUT = Duration.ofSeconds(300);
 
+	private static final Duration VERSION_CHECK_RATE = Duration.ofMinutes(5);
+
 	private final String clamCommand;
 
+	private ClamVerdictCache verdictCache;
+	private volatile String signatureVersion;
+	private volatile long versionChecked;
+
 	public ClamScan(String clamCommand) {
 		this.clamCommand = clamCommand;
 	}
@@ -35,21 +48,33 @@ public class ClamScan {
 		this(CLAMSCAN);
 	}
 
+	/**
+	 * Remember scan results in the provided cache, so content which has
+	 * already been scanned with the current signature database is not
+	 * scanned again.
+	 */
+	public ClamScan withVerdictCache(ClamVerdictCache verdictCache) {
+		this.verdictCache = verdictCache;
+		return this;
+	}
+
 	public ClamResult scan(Submissions.Job job, Path... paths) {
+		return scan(job, null, paths);
+	}
+
+	/**
+	 * Scan the provided paths for malware.
+	 *
+	 * @param hashes content hashes of each path, used to look up and record
+	 *               previous results. may be null if not known.
+	 */
+	public ClamResult scan(Submissions.Job job, String[] hashes, Path... paths) {
+		final VirusScanEvent event = new VirusScanEvent(job.id, paths);
+		event.begin();
+
 		job.log(Submissions.JobState.VIRUS_SCANNING, "Scanning for malware");
 		try {
-			String[] clamCommand = clamCommand(paths);
-			logger.info("Invoking clam scan with command {}", String.join(" ", clamCommand));
-			Process process = new ProcessBuilder()
-				.command(clamCommand)
-				.inheritIO()
-				.start();
-			boolean b = process.waitFor(SCAN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
-			if (!b) {
-				process.destroyForcibly().waitFor(SCAN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
-			}
-
-			ClamResult clamResult = ClamResult.values()[process.exitValue()];
+			ClamResult clamResult = cachedScan(job, hashes, paths);
 			switch (clamResult) {
 				case OK:
 					job.log(Submissions.JobState.VIRUS_FREE, "No malware found");
@@ -64,20 +89,132 @@ public class ClamScan {
 					break;
 			}
 
+			event.finish(clamResult.name());
 			return clamResult;
 		} catch (Exception e) {
 			logger.error("Malware scan failure", e);
 			job.log(Submissions.JobState.VIRUS_ERROR, "Malware scan error.", new RuntimeException("Malware scan error"));
+			event.finish(ClamResult.ERROR.name());
 			return ClamResult.ERROR;
 		}
 	}
 
+	/**
+	 * Record the result of scanning some content elsewhere, such as while it
+	 * was being uploaded.
+	 */
+	public void remember(String hash, ClamResult result) {
+		if (verdictCache == null) return;
+
+		final String version = signatureVersion();
+		if (version != null) verdictCache.put(hash, version, result);
+	}
+
+	private ClamResult cachedScan(Submissions.Job job, String[] hashes, Path[] paths) throws IOException, InterruptedException {
+		final String version = verdictCache != null && hashes != null ? signatureVersion() : null;
+		if (version == null) return scanPaths(job, paths);
+
+		final List<Path> unknown = new ArrayList<>();
+		final List<String> unknownHashes = new ArrayList<>();
+		for (int i = 0; i < paths.length; i++) {
+			final Optional<ClamResult> cached = verdictCache.get(hashes[i], version);
+			if (cached.isEmpty()) {
+				unknown.add(paths[i]);
+				unknownHashes.add(hashes[i]);
+			} else if (cached.get() == ClamResult.VIRUS) {
+				job.log(String.format("Malware previously found in file %s", Util.fileName(paths[i])), Submissions.LogType.ERROR);
+				return ClamResult.VIRUS;
+			}
+		}
+
+		if (unknown.isEmpty()) {
+			job.log("All files were previously scanned with the current signatures");
+			return ClamResult.OK;
+		}
+
+		final ClamResult result = scanPaths(job, unknown.toArray(Path[]::new));
+		// per-file results aren't known here, but an overall result for a single file, or a clean result for all, is conclusive
+		if (result == ClamResult.OK || unknown.size() == 1) {
+			for (String hash : unknownHashes) verdictCache.put(hash, version, result);
+		}
+
+		return result;
+	}
+
+	/**
+	 * The version of the signature database in use, which is checked
+	 * periodically rather than on every call.
+	 *
+	 * @return the signature version, or null if it could not be determined
+	 */
+	protected String signatureVersion() {
+		if (System.currentTimeMillis() - versionChecked > VERSION_CHECK_RATE.toMillis()) {
+			try {
+				signatureVersion = parseSignatureVersion(fetchVersion());
+			} catch (Exception e) {
+				logger.warn("Failed to determine clam signature version", e);
+				signatureVersion = null;
+			}
+			versionChecked = System.currentTimeMillis();
+		}
+		return signatureVersion;
+	}
+
+	/**
+	 * Retrieve the full version string, eg. {@code "ClamAV 1.0.0/27000/Mon Jan  1 00:00:00 2024"}.
+	 */
+	protected String fetchVersion() throws IOException, InterruptedException {
+		Process process = new ProcessBuilder()
+			.command(versionCommand())
+			.redirectErrorStream(true)
+			.start();
+		final String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+		if (!process.waitFor(SCAN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) process.destroyForcibly();
+		return output;
+	}
+
+	protected String[] versionCommand() {
+		return new String[] { clamCommand, "--version" };
+	}
+
+	/**
+	 * Extract the signature database version from a clam version string.
+	 *
+	 * @return the signature version, or null if the string does not include one
+	 */
+	static String parseSignatureVersion(String version) {
+		if (version == null) return null;
+		final String[] parts = version.strip().split("/");
+		return parts.length >= 2 && !parts[1].isBlank() ? parts[1].strip() : null;
+	}
+
+	/**
+	 * Scan the provided paths, returning the overall result for all of them.
+	 * <p>
+	 * The default implementation invokes the command returned by
+	 * {@link #clamCommand(Path[])} and maps its exit code to a result.
+	 */
+	protected ClamResult scanPaths(Submissions.Job job, Path[] paths) throws IOException, InterruptedException {
+		String[] clamCommand = clamCommand(paths);
+		logger.info("Invoking clam scan with command {}", String.join(" ", clamCommand));
+		Process process = new ProcessBuilder()
+			.command(clamCommand)
+			.inheritIO()
+			.start();
+		boolean b = process.waitFor(SCAN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+		if (!b) {
+			process.destroyForcibly().waitFor(SCAN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+		}
+
+		return ClamResult.values()[process.exitValue()];
+	}
+
 	protected String[] clamCommand(Path[] paths) {
 		String[] cmd = new String[paths.length + 2];
 		cmd[0] = clamCommand;
 		cmd[1] = CLAMSCAN_OPTIONS;
 		for (int i = 0; i < paths.length; i++) {
-			cmd[i + 2] = paths[0].toAbsolutePath().toString();
+			cmd[i + 2] = paths[i].toAbsolutePath().toString();
 		}
 		return cmd;
 	}
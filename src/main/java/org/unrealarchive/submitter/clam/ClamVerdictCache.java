@@ -0,0 +1,153 @@
+package org.unrealarchive.submitter.clam;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers the result of virus scanning files by their content hash, so
+ * the same content does not need to be scanned again until the virus
+ * signature database changes.
+ * <p>
+ * Verdicts are appended to a file as they are recorded, so they survive
+ * restarts, and the file is rewritten to contain only the retained entries
+ * once it grows too large. All verdicts are discarded when a different
+ * signature version is seen.
+ */
+public class ClamVerdictCache implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(ClamVerdictCache.class);
+
+	private static final String VERSION = "version";
+
+	private final Path file;
+	private final int maxEntries;
+	private final Map<String, ClamScan.ClamResult> verdicts;
+
+	private String version;
+	private BufferedWriter out;
+	private int written;
+
+	public ClamVerdictCache(Path file, int maxEntries) throws IOException {
+		this.file = file;
+		this.maxEntries = maxEntries;
+		this.verdicts = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ClamScan.ClamResult> eldest) {
+				return size() > maxEntries;
+			}
+		};
+
+		load();
+		rewrite();
+	}
+
+	public synchronized Optional<ClamScan.ClamResult> get(String hash, String signatureVersion) {
+		checkVersion(signatureVersion);
+		return Optional.ofNullable(verdicts.get(hash));
+	}
+
+	/**
+	 * Record the scan result for some content. Only conclusive results are
+	 * kept, scan failures and errors are ignored.
+	 */
+	public synchronized void put(String hash, String signatureVersion, ClamScan.ClamResult result) {
+		if (result != ClamScan.ClamResult.OK && result != ClamScan.ClamResult.VIRUS) return;
+
+		checkVersion(signatureVersion);
+		verdicts.put(hash, result);
+
+		try {
+			if (written >= maxEntries * 2) rewrite();
+			else write(hash, result.name());
+		} catch (IOException e) {
+			logger.warn("Failed to persist clam verdict", e);
+		}
+	}
+
+	public synchronized int size() {
+		return verdicts.size();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (out != null) out.close();
+	}
+
+	private void checkVersion(String signatureVersion) {
+		if (signatureVersion.equals(version)) return;
+
+		logger.info("Clam signature version changed from {} to {}, discarding {} cached verdicts",
+					version, signatureVersion, verdicts.size());
+		version = signatureVersion;
+		verdicts.clear();
+		try {
+			rewrite();
+		} catch (IOException e) {
+			logger.warn("Failed to reset clam verdict cache file", e);
+		}
+	}
+
+	private void load() {
+		if (!Files.exists(file)) return;
+
+		try (BufferedReader reader = Files.newBufferedReader(file)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final String[] parts = line.split("\t");
+				if (parts.length != 2) continue;
+
+				if (parts[0].equals(VERSION)) {
+					if (!parts[1].equals(version)) verdicts.clear();
+					version = parts[1];
+				} else {
+					try {
+						verdicts.put(parts[0], ClamScan.ClamResult.valueOf(parts[1]));
+					} catch (IllegalArgumentException e) {
+						// skip anything unrecognised
+					}
+				}
+			}
+			logger.info("Loaded {} cached clam verdicts for signature version {}", verdicts.size(), version);
+		} catch (IOException e) {
+			logger.warn("Failed to load clam verdict cache from {}", file, e);
+			verdicts.clear();
+		}
+	}
+
+	/**
+	 * Replace the cache file with only the currently retained verdicts.
+	 */
+	private void rewrite() throws IOException {
+		if (out != null) out.close();
+
+		final Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (BufferedWriter w = Files.newBufferedWriter(tmp)) {
+			if (version != null) w.write(String.format("%s\t%s%n", VERSION, version));
+			for (Map.Entry<String, ClamScan.ClamResult> e : verdicts.entrySet()) {
+				w.write(String.format("%s\t%s%n", e.getKey(), e.getValue().name()));
+			}
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		out = Files.newBufferedWriter(file, StandardOpenOption.APPEND);
+		written = verdicts.size();
+	}
+
+	private void write(String key, String value) throws IOException {
+		out.write(String.format("%s\t%s%n", key, value));
+		out.flush();
+		written++;
+	}
+}
@@ -0,0 +1,25 @@
+package org.unrealarchive.submitter.events;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Bytes are those of the collection's image, if it has one.
+ */
+@Name("org.unrealarchive.submitter.CollectionSubmit")
+@Label("Collection Submit")
+@Description("A collection written and committed to the content data repository")
+public class CollectionSubmitEvent extends SubmitterEvent {
+
+	@Label("Branch")
+	public String branch;
+
+	@Label("Items")
+	public int items;
+
+	public CollectionSubmitEvent(String jobId, String branch) {
+		super(jobId);
+		this.branch = branch;
+	}
+}
@@ -0,0 +1,24 @@
+package org.unrealarchive.submitter.events;
+
+import java.nio.file.Path;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.unrealarchive.submitter.ContentScan")
+@Label("Content Scan")
+@Description("Submitted files scanned for new content")
+public class ContentScanEvent extends SubmitterEvent {
+
+	@Label("Files")
+	public int files;
+
+	@Label("Content Found")
+	public int found;
+
+	public ContentScanEvent(String jobId, Path... paths) {
+		super(jobId, paths);
+		this.files = paths.length;
+	}
+}
@@ -0,0 +1,24 @@
+package org.unrealarchive.submitter.events;
+
+import java.nio.file.Path;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.unrealarchive.submitter.ContentSubmit")
+@Label("Content Submit")
+@Description("Submitted files indexed and committed to the content data repository")
+public class ContentSubmitEvent extends SubmitterEvent {
+
+	@Label("Branch")
+	public String branch;
+
+	@Label("Content Indexed")
+	public int indexed;
+
+	public ContentSubmitEvent(String jobId, String branch, Path... paths) {
+		super(jobId, paths);
+		this.branch = branch;
+	}
+}
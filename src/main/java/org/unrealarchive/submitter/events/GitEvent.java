@@ -0,0 +1,28 @@
+package org.unrealarchive.submitter.events;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * The job is not known for operations which aren't made on behalf of a
+ * single submission, such as checking out branches, updating from the
+ * remote, or pushing a batch.
+ */
+@Name("org.unrealarchive.submitter.Git")
+@Label("Git Operation")
+@Description("An operation on the content data repository")
+public class GitEvent extends SubmitterEvent {
+
+	@Label("Operation")
+	public String operation;
+
+	@Label("Branch")
+	public String branch;
+
+	public GitEvent(String operation, String jobId, String branch) {
+		super(jobId);
+		this.operation = operation;
+		this.branch = branch;
+	}
+}
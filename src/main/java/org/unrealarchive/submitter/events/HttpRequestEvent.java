@@ -0,0 +1,35 @@
+package org.unrealarchive.submitter.events;
+
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Bytes are those received with the request. Handlers which create or look
+ * up a job fill in its ID.
+ */
+@Name("org.unrealarchive.submitter.HttpRequest")
+@Label("HTTP Request")
+@Description("A request handled by the web service")
+public class HttpRequestEvent extends SubmitterEvent {
+
+	@Label("Method")
+	public String method;
+
+	@Label("Path")
+	@Description("The route matched, rather than the requested path")
+	public String path;
+
+	@Label("Status")
+	public int status;
+
+	@Label("Response Bytes")
+	@DataAmount(DataAmount.BYTES)
+	public long responseBytes;
+
+	public HttpRequestEvent(String method) {
+		super(null);
+		this.method = method;
+	}
+}
@@ -0,0 +1,30 @@
+package org.unrealarchive.submitter.events;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Spans from when the pull request was queued until it was created and
+ * labelled, or given up on. Pull requests may cover several jobs, so are
+ * identified by branch.
+ */
+@Name("org.unrealarchive.submitter.PullRequest")
+@Label("Pull Request")
+@Description("A pull request opened for a pushed branch")
+public class PullRequestEvent extends SubmitterEvent {
+
+	@Label("Branch")
+	public String branch;
+
+	@Label("Attempts")
+	public int attempts;
+
+	@Label("URL")
+	public String url;
+
+	public PullRequestEvent(String branch) {
+		super(null);
+		this.branch = branch;
+	}
+}
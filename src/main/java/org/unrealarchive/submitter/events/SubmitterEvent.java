@@ -0,0 +1,67 @@
+package org.unrealarchive.submitter.events;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+/**
+ * Base for the Flight Recorder events emitted as submissions pass through
+ * the service, which may be recorded with {@code -XX:StartFlightRecording}
+ * or enabled on a running process with {@code jcmd}.
+ * <p>
+ * Events are begun before the work they describe and finished with its
+ * outcome. When recording is off, or the event is shorter than its
+ * configured threshold, finishing does nothing further, and the sizes of
+ * any files involved are only read if the event is actually recorded.
+ */
+@Category({ "Unreal Archive", "Submitter" })
+@StackTrace(false)
+public abstract class SubmitterEvent extends Event {
+
+	@Label("Job ID")
+	public String jobId;
+
+	@Label("Bytes")
+	@DataAmount(DataAmount.BYTES)
+	public long bytes;
+
+	@Label("Outcome")
+	public String outcome;
+
+	// not recorded, sized into bytes when finishing
+	private transient Path[] paths;
+
+	protected SubmitterEvent(String jobId, Path... paths) {
+		this.jobId = jobId;
+		this.paths = paths;
+	}
+
+	/**
+	 * Record the event, if it's enabled and took long enough.
+	 */
+	public void finish(String outcome) {
+		if (!shouldCommit()) return;
+
+		this.outcome = outcome;
+		if (paths != null && paths.length > 0) bytes = size(paths);
+		commit();
+	}
+
+	private static long size(Path... paths) {
+		long size = 0;
+		for (Path p : paths) {
+			try {
+				if (Files.isRegularFile(p)) size += Files.size(p);
+			} catch (IOException e) {
+				// possibly already cleaned up, not worth failing over
+			}
+		}
+		return size;
+	}
+}
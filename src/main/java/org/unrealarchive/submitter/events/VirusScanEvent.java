@@ -0,0 +1,21 @@
+package org.unrealarchive.submitter.events;
+
+import java.nio.file.Path;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("org.unrealarchive.submitter.VirusScan")
+@Label("Virus Scan")
+@Description("Submitted files scanned for malware")
+public class VirusScanEvent extends SubmitterEvent {
+
+	@Label("Files")
+	public int files;
+
+	public VirusScanEvent(String jobId, Path... paths) {
+		super(jobId, paths);
+		this.files = paths.length;
+	}
+}
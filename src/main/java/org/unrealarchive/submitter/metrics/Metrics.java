@@ -0,0 +1,201 @@
+package org.unrealarchive.submitter.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * A minimal registry of counters, gauges and histograms, which can be
+ * written out in the Prometheus text exposition format.
+ * <p>
+ * Metrics are registered once, typically into static fields, and recording
+ * to them afterwards neither allocates nor takes locks: counters and
+ * histogram buckets are {@link LongAdder}s, and histograms find their bucket
+ * with a scan of a fixed array of bounds. Gauges are only read when the
+ * metrics are written.
+ * <p>
+ * Registering a metric which already exists with the same name and labels
+ * returns the existing one, except for gauges, which are replaced, so the
+ * most recently created instance of whatever they measure is reported.
+ */
+public class Metrics {
+
+	/**
+	 * The registry exposed by the web service.
+	 */
+	public static final Metrics REGISTRY = new Metrics();
+
+	/**
+	 * Upper bounds of latency histogram buckets, in seconds.
+	 */
+	private static final double[] LATENCY_BUCKETS = {
+		0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600, 1800
+	};
+
+	private final Map<String, Family> families = new LinkedHashMap<>();
+
+	/**
+	 * @param name   without the {@code _total} suffix, which is added
+	 * @param labels alternating label names and values
+	 */
+	public synchronized Counter counter(String name, String help, String... labels) {
+		return (Counter)family(name, help, "counter").series.computeIfAbsent(labels(labels), Counter::new);
+	}
+
+	/**
+	 * A histogram of durations, recorded in nanoseconds and reported in
+	 * seconds.
+	 *
+	 * @param labels alternating label names and values
+	 */
+	public synchronized Histogram histogram(String name, String help, String... labels) {
+		return (Histogram)family(name, help, "histogram").series.computeIfAbsent(labels(labels), Histogram::new);
+	}
+
+	/**
+	 * @param value  read each time metrics are written
+	 * @param labels alternating label names and values
+	 */
+	public synchronized void gauge(String name, String help, LongSupplier value, String... labels) {
+		final String l = labels(labels);
+		family(name, help, "gauge").series.put(l, new Gauge(l, value));
+	}
+
+	/**
+	 * Write all metrics in the Prometheus text format.
+	 */
+	public synchronized void write(StringBuilder out) {
+		for (Family f : families.values()) {
+			out.append("# HELP ").append(f.name).append(' ').append(f.help).append('\n');
+			out.append("# TYPE ").append(f.name).append(' ').append(f.type).append('\n');
+			for (Series s : f.series.values()) s.write(f.name, out);
+		}
+	}
+
+	private Family family(String name, String help, String type) {
+		final Family family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+		if (!family.type.equals(type)) {
+			throw new IllegalArgumentException(String.format("Metric %s is a %s, not a %s", name, family.type, type));
+		}
+		return family;
+	}
+
+	private static String labels(String... labels) {
+		if (labels.length % 2 != 0) throw new IllegalArgumentException("Labels must be pairs of names and values");
+
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < labels.length; i += 2) {
+			if (!sb.isEmpty()) sb.append(',');
+			sb.append(labels[i]).append("=\"")
+			  .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+			  .append('"');
+		}
+		return sb.toString();
+	}
+
+	private static void sample(StringBuilder out, String name, String labels, String value) {
+		out.append(name);
+		if (!labels.isEmpty()) out.append('{').append(labels).append('}');
+		out.append(' ').append(value).append('\n');
+	}
+
+	private record Family(String name, String help, String type, Map<String, Series> series) {
+
+		private Family(String name, String help, String type) {
+			this(name, help, type, new LinkedHashMap<>());
+		}
+	}
+
+	private interface Series {
+
+		void write(String name, StringBuilder out);
+	}
+
+	public static class Counter implements Series {
+
+		private final String labels;
+		private final LongAdder count = new LongAdder();
+
+		private Counter(String labels) {
+			this.labels = labels;
+		}
+
+		public void inc() {
+			count.increment();
+		}
+
+		public void add(long amount) {
+			count.add(amount);
+		}
+
+		public long get() {
+			return count.sum();
+		}
+
+		@Override
+		public void write(String name, StringBuilder out) {
+			sample(out, name + "_total", labels, Long.toString(count.sum()));
+		}
+	}
+
+	public static class Histogram implements Series {
+
+		private final String labels;
+		private final long[] bounds;
+		// counts per bucket, not cumulative. the last is for anything beyond the largest bound
+		private final LongAdder[] counts;
+		private final LongAdder sum = new LongAdder();
+
+		private Histogram(String labels) {
+			this.labels = labels;
+			this.bounds = new long[LATENCY_BUCKETS.length];
+			for (int i = 0; i < bounds.length; i++) bounds[i] = (long)(LATENCY_BUCKETS[i] * TimeUnit.SECONDS.toNanos(1));
+			this.counts = new LongAdder[bounds.length + 1];
+			for (int i = 0; i < counts.length; i++) counts[i] = new LongAdder();
+		}
+
+		public void observe(long nanos) {
+			int i = 0;
+			while (i < bounds.length && nanos > bounds[i]) i++;
+			counts[i].increment();
+			sum.add(nanos);
+		}
+
+		/**
+		 * Record the time since {@code startNanos}, a value of
+		 * {@link System#nanoTime()}.
+		 */
+		public void observeSince(long startNanos) {
+			observe(System.nanoTime() - startNanos);
+		}
+
+		public long count() {
+			long count = 0;
+			for (LongAdder c : counts) count += c.sum();
+			return count;
+		}
+
+		@Override
+		public void write(String name, StringBuilder out) {
+			final String prefix = labels.isEmpty() ? "" : labels + ",";
+			long cumulative = 0;
+			for (int i = 0; i < counts.length; i++) {
+				cumulative += counts[i].sum();
+				final String le = i < bounds.length ? Double.toString(LATENCY_BUCKETS[i]) : "+Inf";
+				sample(out, name + "_bucket", prefix + "le=\"" + le + "\"", Long.toString(cumulative));
+			}
+			sample(out, name + "_sum", labels, Double.toString(sum.sum() / (double)TimeUnit.SECONDS.toNanos(1)));
+			sample(out, name + "_count", labels, Long.toString(cumulative));
+		}
+	}
+
+	private record Gauge(String labels, LongSupplier value) implements Series {
+
+		@Override
+		public void write(String name, StringBuilder out) {
+			sample(out, name, labels, Long.toString(value.getAsLong()));
+		}
+	}
+}
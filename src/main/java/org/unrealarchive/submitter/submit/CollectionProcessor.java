@@ -2,11 +2,11 @@ package org.unrealarchive.submitter.submit;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -15,21 +15,42 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.unrealarchive.submitter.CollectionRepository;
+import org.unrealarchive.submitter.ExecutionMode;
+import org.unrealarchive.submitter.metrics.Metrics;
 
 public class CollectionProcessor implements Closeable {
 
 	private static final Logger logger = LoggerFactory.getLogger(CollectionProcessor.class);
 
 	private static final long POLL_WAIT = 5000;
+	private static final Duration SWEEP_RATE = Duration.ofSeconds(120);
+	private static final Duration SWEEP_AGE = Duration.ofHours(36);
+
+	private static final Metrics.Histogram LATENCY = Metrics.REGISTRY.histogram(
+		"submitter_stage_seconds", "Time taken to process submissions in each stage", "stage", "collection"
+	);
 
 	private final BlockingDeque<CollectionSubmissions.Job> pending;
-	private final Map<String, CollectionSubmissions.Job> jobs;
+	private final JobRegistry<CollectionSubmissions.Job> jobs;
+	private final ExecutorService lane;
 
 	private volatile boolean stopped;
 
 	public CollectionProcessor(CollectionRepository repo, int queueSize, ScheduledExecutorService executor) {
-		this.jobs = new HashMap<>();
+		this(repo, queueSize, ExecutionMode.PLATFORM, executor);
+	}
+
+	/**
+	 * @param executionMode whether collections are processed on a platform or
+	 *                      virtual thread
+	 */
+	public CollectionProcessor(CollectionRepository repo, int queueSize, ExecutionMode executionMode, ScheduledExecutorService executor) {
+		this.jobs = new JobRegistry<>(j -> j.id, j -> j.log.isEmpty() ? 0 : j.log.getLast().time, SWEEP_AGE);
 		this.pending = new LinkedBlockingDeque<>(queueSize);
+		Metrics.REGISTRY.gauge("submitter_queue_depth", "Submissions waiting in each stage's queue", pending::size, "stage", "collection");
+		// collections are processed on a thread of their own, rather than waiting behind content submissions. they
+		// still need the repository lock, which is fair, so they only wait for the submission holding it to finish
+		this.lane = Executors.newSingleThreadExecutor(executionMode.threads("collections"));
 
 		this.stopped = false;
 
@@ -43,11 +64,13 @@ public class CollectionProcessor implements Closeable {
 					if (job != null) {
 						try {
 							job.log("Picked up for processing");
+							final long start = System.nanoTime();
 							repo.lock();
 							try {
 								repo.submit(job);
 							} finally {
 								repo.unlock();
+								LATENCY.observeSince(start);
 							}
 						} catch (Exception e) {
 							job.log(CollectionSubmissions.JobState.SUBMIT_FAILED, String.format("Failed to process submission: %s", e.getMessage()), e);
@@ -58,21 +81,29 @@ public class CollectionProcessor implements Closeable {
 					logger.warn("Collection submission queue processing failure", e);
 				}
 
-				if (!stopped) executor.submit(this);
+				if (!stopped) lane.submit(this);
 			}
 		};
 
-		executor.submit(processor);
+		lane.submit(processor);
+
+		final Runnable cleaner = () -> {
+			if (stopped) return;
+			final int evicted = jobs.evictExpired();
+			if (evicted > 0) logger.info("Removed {} expired collection jobs", evicted);
+		};
+
+		executor.scheduleAtFixedRate(cleaner, SWEEP_RATE.toMillis(), SWEEP_RATE.toMillis(), TimeUnit.MILLISECONDS);
 
-		logger.info("Collection processor started");
+		logger.info("Collection processor started on {} threads", executionMode.name().toLowerCase());
 	}
 
 	public void trackJob(CollectionSubmissions.Job job) {
-		this.jobs.put(job.id, job);
+		this.jobs.add(job);
 	}
 
 	public Collection<CollectionSubmissions.Job> jobs() {
-		return Collections.unmodifiableCollection(jobs.values());
+		return jobs.snapshot();
 	}
 
 	public CollectionSubmissions.Job job(String jobId) {
@@ -87,5 +118,6 @@ public class CollectionProcessor implements Closeable {
 	@Override
 	public void close() {
 		stopped = true;
+		lane.shutdown();
 	}
 }
@@ -1,19 +1,17 @@
 package org.unrealarchive.submitter.submit;
 
 import java.beans.ConstructorProperties;
-import java.time.Duration;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 
+import org.unrealarchive.submitter.metrics.Metrics;
+
 public class CollectionSubmissions {
 
 	public enum JobState {
@@ -43,16 +41,24 @@ public class CollectionSubmissions {
 
 	public static class Job {
 
+		// indexed by state, only present for states which finish a job
+		private static final Metrics.Counter[] FINISHED = Arrays.stream(JobState.values())
+																.map(s -> s.done()
+																	? Metrics.REGISTRY.counter("submitter_collection_jobs",
+																							   "Collection jobs finished, by final state",
+																							   "state", s.name())
+																	: null)
+																.toArray(Metrics.Counter[]::new);
+
 		public final String id;
 		public final CollectionSubmission submission;
-		public final List<Submissions.LogEntry> log;
+		public final JobLog log;
 		public volatile JobState state;
-		public boolean done;
-
-		public final transient BlockingQueue<Submissions.LogEntry> logEvents;
+		// set once the job reaches a final state, so it is only counted as finished once
+		private final AtomicBoolean done = new AtomicBoolean();
 
 		public Job(CollectionSubmission submission) {
-			this(UUID.randomUUID().toString(), submission, JobState.CREATED, new ArrayList<>());
+			this(JobRegistry.newId(), submission, JobState.CREATED, List.of());
 		}
 
 		@ConstructorProperties({ "id", "submission", "state", "log" })
@@ -60,9 +66,7 @@ public class CollectionSubmissions {
 			this.id = id;
 			this.submission = submission;
 			this.state = state;
-			this.log = log;
-			this.done = false;
-			this.logEvents = new ArrayBlockingQueue<>(20);
+			this.log = new JobLog(log);
 		}
 
 		public void log(String message) {
@@ -90,25 +94,18 @@ public class CollectionSubmissions {
 		}
 
 		public void log(JobState state, Submissions.LogEntry logEntry) {
+			if (state.done() && done.compareAndSet(false, true)) FINISHED[state.ordinal()].inc();
 			this.state = state;
-			this.log.add(logEntry);
-			this.logEvents.offer(logEntry);
+			this.log.append(logEntry, state.done());
+		}
+
+		public boolean isDone() {
+			return done.get();
 		}
 
 		@JsonIgnore
 		public Collection<Submissions.LogEntry> log() {
 			return Collections.unmodifiableCollection(log);
 		}
-
-		public List<Submissions.LogEntry> pollLog(Duration timeout) throws InterruptedException {
-			final Submissions.LogEntry head = logEvents.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
-			final List<Submissions.LogEntry> polledLogs = new ArrayList<>();
-			if (head != null) polledLogs.add(head);
-			logEvents.drainTo(polledLogs);
-
-			if (!done && state.done()) done = true;
-
-			return polledLogs;
-		}
 	}
 }
@@ -0,0 +1,211 @@
+package org.unrealarchive.submitter.submit;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+import org.unrealarchive.submitter.metrics.Metrics;
+
+/**
+ * A bounded blocking queue which shares its consumers fairly between the
+ * clients adding to it, and favours smaller items over larger ones.
+ * <p>
+ * Clients are served by start-time fair queueing, weighted by item size:
+ * each client's next item is tagged with a virtual finish time, from where
+ * the client's previous item finished or the current virtual time, plus the
+ * item's size, and the item with the earliest finish is taken first. A client
+ * with a lot of large items therefore only gets its share of the consumers,
+ * and a small item from another client goes ahead of them. Within a client,
+ * the smallest item is taken first.
+ * <p>
+ * So large items can't be held back indefinitely by a steady supply of
+ * smaller ones, the size an item is judged by shrinks the longer it waits.
+ */
+public class FairQueue<T> {
+
+	// items are never considered smaller than this, so even empty ones move virtual time forward
+	private static final long MIN_SIZE = 1024 * 1024;
+	// how much smaller an item is considered for each millisecond it waits, 100MB per minute
+	private static final long AGING_PER_MILLI = 100L * 1024 * 1024 / 60_000;
+
+	private final int capacity;
+	private final Function<T, String> clientOf;
+	private final ToLongFunction<T> sizeOf;
+	private final LongSupplier clock;
+	private final Metrics.Histogram waits;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	// clients with items waiting, in the order they first added them
+	private final Map<String, Client> clients = new LinkedHashMap<>();
+	private int count;
+	private long sequence;
+	private long virtualTime;
+
+	/**
+	 * @param capacity the most items which may be waiting
+	 * @param clientOf identifies the client an item belongs to
+	 * @param sizeOf   the size of an item, used as an estimate of how long it
+	 *                 will take to process
+	 */
+	public FairQueue(int capacity, Function<T, String> clientOf, ToLongFunction<T> sizeOf) {
+		this(capacity, clientOf, sizeOf, null);
+	}
+
+	/**
+	 * @param waits if provided, records how long each item waited in the queue
+	 */
+	public FairQueue(int capacity, Function<T, String> clientOf, ToLongFunction<T> sizeOf, Metrics.Histogram waits) {
+		this(capacity, clientOf, sizeOf, waits, System::currentTimeMillis);
+	}
+
+	FairQueue(int capacity, Function<T, String> clientOf, ToLongFunction<T> sizeOf, Metrics.Histogram waits, LongSupplier clock) {
+		this.capacity = capacity;
+		this.clientOf = clientOf;
+		this.sizeOf = sizeOf;
+		this.waits = waits;
+		this.clock = clock;
+	}
+
+	/**
+	 * @return false if the queue is full
+	 */
+	public boolean offer(T item) {
+		lock.lock();
+		try {
+			if (count >= capacity) return false;
+			enqueue(item);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Add an item, waiting for space if the queue is full.
+	 */
+	public void put(T item) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			while (count >= capacity) notFull.await();
+			enqueue(item);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the next item, or null if none became available before the
+	 * 	timeout
+	 */
+	public T poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (count == 0) {
+				if (nanos <= 0) return null;
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			return dequeue();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int size() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int remainingCapacity() {
+		lock.lock();
+		try {
+			return capacity - count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the items currently waiting, in no particular order
+	 */
+	public List<T> snapshot() {
+		lock.lock();
+		try {
+			final List<T> items = new ArrayList<>(count);
+			for (Client c : clients.values()) {
+				for (Entry<T> e : c.waiting) items.add(e.item);
+			}
+			return items;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void enqueue(T item) {
+		final String client = clientOf.apply(item);
+		clients.computeIfAbsent(client == null ? "" : client, k -> new Client())
+			   .waiting.add(new Entry<>(item, Math.max(MIN_SIZE, sizeOf.applyAsLong(item)), clock.getAsLong(), sequence++));
+		count++;
+		notEmpty.signal();
+	}
+
+	private T dequeue() {
+		final long now = clock.getAsLong();
+
+		Client next = null;
+		Entry<T> nextEntry = null;
+		long nextStart = 0;
+		long nextFinish = Long.MAX_VALUE;
+		for (Client c : clients.values()) {
+			final Entry<T> e = c.waiting.stream().min(Comparator.comparingLong((Entry<T> w) -> w.agedSize(now))
+															   .thenComparingLong(w -> w.sequence)).orElseThrow();
+			final long start = Math.max(virtualTime, c.finish);
+			final long finish = start + e.agedSize(now);
+			if (finish < nextFinish || (finish == nextFinish && e.sequence < nextEntry.sequence)) {
+				next = c;
+				nextEntry = e;
+				nextStart = start;
+				nextFinish = finish;
+			}
+		}
+
+		next.waiting.remove(nextEntry);
+		next.finish = nextFinish;
+		virtualTime = nextStart;
+		// a client which comes back later starts again from the virtual time then
+		if (next.waiting.isEmpty()) clients.values().remove(next);
+
+		count--;
+		notFull.signal();
+		if (waits != null) waits.observe(TimeUnit.MILLISECONDS.toNanos(now - nextEntry.added));
+		return nextEntry.item;
+	}
+
+	private class Client {
+
+		private final List<Entry<T>> waiting = new ArrayList<>();
+		private long finish;
+	}
+
+	private record Entry<T>(T item, long size, long added, long sequence) {
+
+		private long agedSize(long now) {
+			return Math.max(MIN_SIZE, size - (now - added) * AGING_PER_MILLI);
+		}
+	}
+}
@@ -0,0 +1,364 @@
+package org.unrealarchive.submitter.submit;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.unrealarchive.content.addons.SimpleAddonType;
+
+/**
+ * An append-only journal of submission jobs, from which jobs can be restored
+ * after a restart.
+ * <p>
+ * Three kinds of record are written, as JSON lines: one when a job is
+ * created, one when its files are queued for processing, and one for every
+ * log entry, which also carries the job's state at that point. The journal
+ * is split into numbered segment files. Once the current one exceeds a
+ * maximum size, the journal is compacted into a new segment holding only the
+ * jobs still retained, and the older segments are deleted.
+ * <p>
+ * Records are written by a thread of the journal's own, so nothing recording
+ * a job's progress waits on the disk. Queued records are forced to disk
+ * before returning though, since they are what allows processing to resume;
+ * other records are only flushed to the OS.
+ */
+public class JobJournal implements Closeable {
+
+	private static final Logger logger = LoggerFactory.getLogger(JobJournal.class);
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static final String SEGMENT_PREFIX = "journal-";
+	private static final String SEGMENT_SUFFIX = ".jsonl";
+
+	private static final String JOB = "job";
+	private static final String QUEUED = "queued";
+	private static final String LOG = "log";
+
+	// written to the queue by close(), once everything before it has been written the writer stops
+	private static final Write STOP = new Write(null, null);
+
+	private final Path dir;
+	private final long segmentSize;
+	private final Duration retention;
+	private final BlockingQueue<Write> writes;
+
+	// only used by start(), and then the writer thread
+	private FileChannel out;
+	private long segment;
+	private long compactAt;
+
+	private volatile Thread writer;
+
+	/**
+	 * @param segmentSize how large a segment may grow before the journal is
+	 *                    compacted
+	 * @param retention   how long jobs are kept in the journal after their
+	 *                    last log entry
+	 */
+	public JobJournal(Path dir, long segmentSize, Duration retention) throws IOException {
+		this.dir = Files.createDirectories(dir);
+		this.segmentSize = segmentSize;
+		this.retention = retention;
+		this.writes = new LinkedBlockingQueue<>();
+		this.segment = segments().stream().mapToLong(JobJournal::segmentNumber).max().orElse(0);
+	}
+
+	/**
+	 * Read back all jobs recorded in the journal, in the order they were
+	 * created. Unreadable records, such as a partially written final line,
+	 * are skipped.
+	 */
+	public List<Recovered> recover() throws IOException {
+		final Map<String, Recovered> jobs = new LinkedHashMap<>();
+
+		for (Path file : segments()) {
+			try (BufferedReader reader = Files.newBufferedReader(file)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (line.isBlank()) continue;
+
+					final Record record;
+					try {
+						record = MAPPER.readValue(line, Record.class);
+					} catch (JsonProcessingException e) {
+						logger.warn("Skipping unreadable journal record in {}", file);
+						continue;
+					}
+
+					switch (record.kind) {
+						case JOB -> jobs.putIfAbsent(record.job, new Recovered(record.job, record.forcedType, record.client));
+						case QUEUED -> {
+							final Recovered job = jobs.get(record.job);
+							if (job != null) job.queued = new Queued(record.submitTime, record.name, record.files, record.hashes);
+						}
+						case LOG -> {
+							final Recovered job = jobs.get(record.job);
+							if (job != null) {
+								job.state = record.state;
+								job.log.add(new Submissions.LogEntry(
+									record.time, record.message, record.error == null ? null : new RuntimeException(record.error), record.type
+								));
+							}
+						}
+						default -> logger.warn("Skipping unknown journal record kind {}", record.kind);
+					}
+				}
+			}
+		}
+
+		return new ArrayList<>(jobs.values());
+	}
+
+	/**
+	 * @return whether a recovered job is still recent enough to be kept
+	 */
+	public boolean retained(Recovered job) {
+		return !job.log.isEmpty() && job.log.getLast().time >= System.currentTimeMillis() - retention.toMillis();
+	}
+
+	/**
+	 * Begin a new segment containing only the given jobs, discard all
+	 * existing segments, and begin accepting new records.
+	 */
+	public synchronized void start(Collection<Recovered> keep) throws IOException {
+		if (writer != null) throw new IllegalStateException("Journal already started");
+
+		compact(keep);
+		writer = Thread.ofVirtual().name("job-journal").start(this::writeLoop);
+	}
+
+	public void job(Submissions.Job job) {
+		append(Record.job(job.id, job.forcedType, job.client), false);
+	}
+
+	public void queued(SubmissionProcessor.PendingSubmission submission) {
+		append(Record.queued(submission.job().id, new Queued(
+			submission.submitTime(), submission.name(),
+			Stream.of(submission.files()).map(Path::toString).toList(), List.of(submission.hashes())
+		)), true);
+	}
+
+	public void logged(Submissions.Job job, Submissions.JobState state, Submissions.LogEntry entry) {
+		append(Record.log(job.id, state, entry), false);
+	}
+
+	/**
+	 * Write out any records still waiting, and stop.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		final Thread w = writer;
+		writer = null;
+		if (w != null) {
+			writes.add(STOP);
+			try {
+				w.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				w.interrupt();
+			}
+		}
+		if (out != null) out.close();
+
+		// anything which slipped in as the writer stopped will never be written
+		for (Write straggler : writes) {
+			if (straggler.forced != null) straggler.forced.completeExceptionally(new IOException("Job journal is closed"));
+		}
+		writes.clear();
+	}
+
+	private void append(Record record, boolean force) {
+		if (writer == null) return;
+
+		final Write write = new Write(record, force ? new CompletableFuture<>() : null);
+		writes.add(write);
+		// if the journal was closed in the meantime, the record may never be written, so don't wait for it
+		if (!force || writer == null) return;
+
+		try {
+			write.forced.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.warn("Failed to write job journal record", e.getCause());
+		}
+	}
+
+	/**
+	 * Write records as they arrive, a batch at a time, so a single force to
+	 * disk covers every queued record which arrived together.
+	 */
+	private void writeLoop() {
+		final List<Write> batch = new ArrayList<>();
+		while (true) {
+			try {
+				batch.add(writes.take());
+			} catch (InterruptedException e) {
+				logger.warn("Job journal writer interrupted");
+				return;
+			}
+			writes.drainTo(batch);
+
+			boolean stop = false;
+			boolean force = false;
+			IOException failure = null;
+			try {
+				for (Write w : batch) {
+					if (w == STOP) {
+						stop = true;
+						continue;
+					}
+					// a job just created may not have had its first log entry written yet
+					if (out.size() >= compactAt) compact(recover().stream().filter(r -> r.log.isEmpty() || retained(r)).toList());
+					write(w.record);
+					force |= w.forced != null;
+				}
+				if (force) out.force(false);
+			} catch (IOException e) {
+				logger.warn("Failed to write job journal records", e);
+				failure = e;
+			}
+
+			for (Write w : batch) {
+				if (w.forced == null) continue;
+				if (failure == null) w.forced.complete(null);
+				else w.forced.completeExceptionally(failure);
+			}
+			batch.clear();
+
+			if (stop) return;
+		}
+	}
+
+	/**
+	 * Begin a new segment containing only the given jobs, and discard all
+	 * existing segments. Records of finished jobs' queued files are no longer
+	 * needed, so are left out.
+	 */
+	private void compact(Collection<Recovered> keep) throws IOException {
+		final List<Path> previous = segments();
+
+		rotate();
+		for (Recovered job : keep) {
+			write(Record.job(job.id, job.forcedType, job.client));
+			if (job.queued != null && !job.state.done()) write(Record.queued(job.id, job.queued));
+			for (Submissions.LogEntry entry : job.log) write(Record.log(job.id, job.state, entry));
+		}
+		out.force(false);
+
+		for (Path file : previous) Files.deleteIfExists(file);
+
+		// if the retained jobs alone fill a segment, don't compact again until as much again has been written
+		compactAt = out.size() + segmentSize;
+	}
+
+	private void write(Record record) throws IOException {
+		final ByteBuffer line = ByteBuffer.wrap((MAPPER.writeValueAsString(record) + "\n").getBytes());
+		while (line.hasRemaining()) out.write(line);
+	}
+
+	private void rotate() throws IOException {
+		if (out != null) out.close();
+		segment++;
+		out = FileChannel.open(dir.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX)),
+							   StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+	}
+
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.filter(f -> f.getFileName().toString().startsWith(SEGMENT_PREFIX)
+									 && f.getFileName().toString().endsWith(SEGMENT_SUFFIX))
+						.sorted()
+						.toList();
+		}
+	}
+
+	private static long segmentNumber(Path file) {
+		final String name = file.getFileName().toString();
+		try {
+			return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * A job as recorded in the journal.
+	 */
+	public static class Recovered {
+
+		public final String id;
+		public final SimpleAddonType forcedType;
+		public final String client;
+		public final List<Submissions.LogEntry> log;
+		public Submissions.JobState state;
+		public Queued queued;
+
+		private Recovered(String id, SimpleAddonType forcedType, String client) {
+			this.id = id;
+			this.forcedType = forcedType;
+			this.client = client;
+			this.log = new ArrayList<>();
+			this.state = Submissions.JobState.CREATED;
+			this.queued = null;
+		}
+	}
+
+	/**
+	 * A record waiting to be written.
+	 *
+	 * @param forced if present, completed once the record is forced to disk
+	 */
+	private record Write(Record record, CompletableFuture<Void> forced) {}
+
+	/**
+	 * The files a job was queued to process.
+	 */
+	public record Queued(long submitTime, String name, List<String> files, List<String> hashes) {}
+
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private record Record(
+		String kind, String job,
+		SimpleAddonType forcedType, String client,
+		Long submitTime, String name, List<String> files, List<String> hashes,
+		Submissions.JobState state, Long time, Submissions.LogType type, String message, String error
+	) {
+
+		private static Record job(String job, SimpleAddonType forcedType, String client) {
+			return new Record(JOB, job, forcedType, client, null, null, null, null, null, null, null, null, null);
+		}
+
+		private static Record queued(String job, Queued queued) {
+			return new Record(QUEUED, job, null, null, queued.submitTime, queued.name, queued.files, queued.hashes,
+							  null, null, null, null, null);
+		}
+
+		private static Record log(String job, Submissions.JobState state, Submissions.LogEntry entry) {
+			return new Record(LOG, job, null, null, null, null, null, null, state, entry.time, entry.type, entry.message,
+							  entry.error == null ? null : String.valueOf(entry.error.getMessage()));
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package org.unrealarchive.submitter.submit;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append-only job log, where each entry's position in the log is its
+ * sequence number.
+ * <p>
+ * Entries are stored in fixed-size chunks which are never moved once
+ * allocated, and the size is published only after an entry has been stored,
+ * so any number of readers may read the log concurrently with a writer
+ * without locking or copying it. Appends are serialised, and also notify
+ * any waiting polls and subscribed listeners in sequence order.
+ */
+public class JobLog extends AbstractList<Submissions.LogEntry> implements RandomAccess {
+
+	private static final Logger logger = LoggerFactory.getLogger(JobLog.class);
+
+	private static final int CHUNK_BITS = 6;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private final Object appendLock = new Object();
+	private final List<Poll> polls;
+	private final List<Listener> listeners;
+
+	private volatile Submissions.LogEntry[][] chunks;
+	private volatile int size;
+	private volatile boolean done;
+
+
+	public JobLog() {
+		this.polls = new ArrayList<>();
+		this.listeners = new CopyOnWriteArrayList<>();
+		this.chunks = new Submissions.LogEntry[4][];
+		this.size = 0;
+		this.done = false;
+	}
+
+	public JobLog(Collection<Submissions.LogEntry> entries) {
+		this();
+		for (Submissions.LogEntry entry : entries) append(entry, false);
+	}
+
+	/**
+	 * Receives log entries as they are appended.
+	 */
+	public interface Listener {
+
+		/**
+		 * @param seq  sequence number of the entry
+		 * @param done whether the job has finished as of this entry
+		 */
+		void logged(int seq, Submissions.LogEntry entry, boolean done);
+	}
+
+	/**
+	 * Append an entry to the log.
+	 *
+	 * @param done whether the job is finished as of this entry
+	 * @return the sequence number of the new entry
+	 */
+	public int append(Submissions.LogEntry entry, boolean done) {
+		synchronized (appendLock) {
+			final int seq = size;
+			final int chunk = seq >>> CHUNK_BITS;
+
+			Submissions.LogEntry[][] dir = chunks;
+			if (chunk == dir.length) dir = Arrays.copyOf(dir, dir.length * 2);
+			if (dir[chunk] == null) dir[chunk] = new Submissions.LogEntry[CHUNK_SIZE];
+			dir[chunk][seq & CHUNK_MASK] = entry;
+
+			// publish the entry before the size, so readers never see a missing entry
+			this.chunks = dir;
+			this.size = seq + 1;
+			this.done = done;
+
+			if (!polls.isEmpty()) {
+				for (Poll poll : polls) poll.future.complete(since(poll.since));
+				polls.clear();
+			}
+
+			for (Listener listener : listeners) {
+				try {
+					listener.logged(seq, entry, done);
+				} catch (RuntimeException e) {
+					logger.warn("Log listener failed", e);
+				}
+			}
+
+			return seq;
+		}
+	}
+
+	@Override
+	public Submissions.LogEntry get(int index) {
+		final int currentSize = size;
+		if (index < 0 || index >= currentSize) {
+			throw new IndexOutOfBoundsException(String.format("Index %d out of bounds for length %d", index, currentSize));
+		}
+		return chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return whether the job had finished as of the latest entry
+	 */
+	public boolean done() {
+		return done;
+	}
+
+	/**
+	 * @return a view of the entries from sequence number {@code seq} onwards,
+	 * 	as of now, without copying them
+	 */
+	public List<Submissions.LogEntry> since(int seq) {
+		final int currentSize = size;
+		return subList(Math.clamp(seq, 0, currentSize), currentSize);
+	}
+
+	/**
+	 * Wait for entries from sequence number {@code seq} onwards.
+	 * <p>
+	 * Completes immediately if there are any, or if the job has finished,
+	 * otherwise once the next entry is appended, without occupying a thread
+	 * while waiting.
+	 */
+	public CompletableFuture<List<Submissions.LogEntry>> poll(int seq) {
+		synchronized (appendLock) {
+			if (seq < size || done) return CompletableFuture.completedFuture(since(seq));
+
+			final Poll poll = new Poll(seq, new CompletableFuture<>());
+			polls.add(poll);
+			return poll.future;
+		}
+	}
+
+	/**
+	 * Stop waiting on a poll which has not yet completed.
+	 *
+	 * @return true if the poll was still waiting and is now abandoned
+	 */
+	public boolean cancelPoll(CompletableFuture<List<Submissions.LogEntry>> poll) {
+		synchronized (appendLock) {
+			return polls.removeIf(p -> p.future == poll);
+		}
+	}
+
+	/**
+	 * Deliver existing entries from sequence number {@code from} onwards to
+	 * the listener, then keep delivering new entries as they are appended.
+	 * Delivery is in order, with no gap between existing and new entries.
+	 *
+	 * @return true if the job has already finished, in which case the
+	 * 	listener is not retained
+	 */
+	public boolean subscribe(int from, Listener listener) {
+		synchronized (appendLock) {
+			for (int i = Math.max(0, from); i < size; i++) {
+				listener.logged(i, get(i), false);
+			}
+			if (done) return true;
+
+			listeners.add(listener);
+			return false;
+		}
+	}
+
+	public void unsubscribe(Listener listener) {
+		listeners.remove(listener);
+	}
+
+	private record Poll(int since, CompletableFuture<List<Submissions.LogEntry>> future) {}
+}
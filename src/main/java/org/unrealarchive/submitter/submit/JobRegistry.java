@@ -0,0 +1,137 @@
+package org.unrealarchive.submitter.submit;
+
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * A concurrent registry of jobs by ID, which forgets jobs once they have been
+ * inactive for longer than a maximum age.
+ * <p>
+ * Alongside the jobs themselves, an index ordered by last known activity
+ * time is kept, so finding expired jobs only visits jobs which might have
+ * expired. Jobs which turn out to have seen activity since they were indexed
+ * are re-indexed at their new activity time.
+ */
+public class JobRegistry<J> {
+
+	// Crockford's base32, which sorts in the same order as the values it encodes
+	private static final char[] ALPHABET = "0123456789abcdefghjkmnpqrstvwxyz".toCharArray();
+	private static final int SEQUENCE_BITS = 16;
+	private static final int RANDOM_CHARS = 4;
+
+	private static final AtomicLong lastId = new AtomicLong();
+	private static final Random random = new SecureRandom();
+
+	private final Function<J, String> id;
+	private final ToLongFunction<J> lastActivity;
+	private final Duration maxAge;
+
+	private final Map<String, Registered<J>> jobs;
+	private final NavigableSet<Expiry> expiry;
+
+	/**
+	 * @param id           provides the ID of a job
+	 * @param lastActivity provides the time of a job's most recent activity,
+	 *                     or 0 if it has none yet
+	 * @param maxAge       how long after their last activity jobs are kept
+	 */
+	public JobRegistry(Function<J, String> id, ToLongFunction<J> lastActivity, Duration maxAge) {
+		this.id = id;
+		this.lastActivity = lastActivity;
+		this.maxAge = maxAge;
+		this.jobs = new ConcurrentHashMap<>();
+		this.expiry = new ConcurrentSkipListSet<>(Comparator.comparingLong(Expiry::time).thenComparing(Expiry::id));
+	}
+
+	/**
+	 * Generate a new job ID. IDs sort in the order they were generated, and
+	 * include a random part so they can not be guessed.
+	 */
+	public static String newId() {
+		// millisecond timestamp, followed by a sequence in case of several IDs in the same millisecond
+		final long time = lastId.updateAndGet(prev -> Math.max(prev + 1, System.currentTimeMillis() << SEQUENCE_BITS));
+		final int rand = random.nextInt(1 << (5 * RANDOM_CHARS));
+
+		final char[] chars = new char[13 + RANDOM_CHARS];
+		long v = time;
+		for (int i = 12; i >= 0; i--, v >>>= 5) chars[i] = ALPHABET[(int)(v & 31)];
+		for (int i = 0; i < RANDOM_CHARS; i++) chars[13 + i] = ALPHABET[(rand >>> (5 * i)) & 31];
+
+		return new String(chars);
+	}
+
+	/**
+	 * @return true if the job was added, false if a job with the same ID was
+	 * 	already registered
+	 */
+	public boolean add(J job) {
+		final String jobId = id.apply(job);
+		final long now = System.currentTimeMillis();
+		if (jobs.putIfAbsent(jobId, new Registered<>(job, now)) != null) return false;
+
+		expiry.add(new Expiry(Math.max(now, lastActivity.applyAsLong(job)), jobId));
+		return true;
+	}
+
+	public J get(String jobId) {
+		final Registered<J> registered = jobs.get(jobId);
+		return registered == null ? null : registered.job;
+	}
+
+	/**
+	 * @return all currently registered jobs, unaffected by jobs added or
+	 * 	removed afterwards
+	 */
+	public List<J> snapshot() {
+		return jobs.values().stream().map(Registered::job).toList();
+	}
+
+	public int size() {
+		return jobs.size();
+	}
+
+	/**
+	 * Remove all jobs which have had no activity within the maximum age.
+	 *
+	 * @return the number of jobs removed
+	 */
+	public int evictExpired() {
+		final long cutoff = System.currentTimeMillis() - maxAge.toMillis();
+		int evicted = 0;
+
+		Expiry oldest;
+		while ((oldest = expiry.pollFirst()) != null) {
+			if (oldest.time >= cutoff) {
+				expiry.add(oldest);
+				break;
+			}
+
+			final Registered<J> registered = jobs.get(oldest.id);
+			if (registered == null) continue;
+
+			final long active = Math.max(registered.added, lastActivity.applyAsLong(registered.job));
+			if (active < cutoff) {
+				jobs.remove(oldest.id, registered);
+				evicted++;
+			} else {
+				expiry.add(new Expiry(active, oldest.id));
+			}
+		}
+
+		return evicted;
+	}
+
+	private record Registered<J>(J job, long added) {}
+
+	private record Expiry(long time, String id) {}
+}
@@ -0,0 +1,58 @@
+package org.unrealarchive.submitter.submit;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Remembers which job is handling, or recently handled, a particular set of
+ * uploaded content, so repeated uploads of the same files can be attached to
+ * the original job rather than processed again.
+ * <p>
+ * Memory use is bounded by evicting the least recently seen content once
+ * there are more than {@code maxEntries}, and finished jobs are forgotten
+ * once their last activity is older than {@code maxAge}.
+ */
+public class RecentSubmissions {
+
+	// failures which may succeed if tried again, so should not block a re-upload
+	private static final Set<Submissions.JobState> RETRYABLE = Set.of(
+		Submissions.JobState.VIRUS_ERROR,
+		Submissions.JobState.INDEX_FAILED,
+		Submissions.JobState.SUBMIT_FAILED,
+		Submissions.JobState.FAILED
+	);
+
+	private final Duration maxAge;
+	private final Map<String, Submissions.Job> jobs;
+
+	public RecentSubmissions(int maxEntries, Duration maxAge) {
+		this.maxAge = maxAge;
+		this.jobs = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Submissions.Job> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Claim the content identified by {@code contentKey} for a new job.
+	 *
+	 * @return the existing job already handling this content, or null if there
+	 * 	is none and {@code job} has been registered for it
+	 */
+	public synchronized Submissions.Job claim(String contentKey, Submissions.Job job) {
+		final Submissions.Job existing = jobs.get(contentKey);
+		if (existing != null && !expired(existing)) return existing;
+
+		jobs.put(contentKey, job);
+		return null;
+	}
+
+	private boolean expired(Submissions.Job job) {
+		if (!job.state.done()) return false;
+		return RETRYABLE.contains(job.state) || job.logTail().time < System.currentTimeMillis() - maxAge.toMillis();
+	}
+}
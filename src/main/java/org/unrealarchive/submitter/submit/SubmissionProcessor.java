@@ -2,34 +2,45 @@ package org.unrealarchive.submitter.submit;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.unrealarchive.common.ArchiveUtil;
 import org.unrealarchive.submitter.ContentRepository;
+import org.unrealarchive.submitter.ExecutionMode;
 import org.unrealarchive.submitter.clam.ClamScan;
+import org.unrealarchive.submitter.metrics.Metrics;
 
 public class SubmissionProcessor implements Closeable {
 
 	private static final Logger logger = LoggerFactory.getLogger(SubmissionProcessor.class);
 
-	private static final PendingSubmission[] PENDING_ARRAY = {};
 	private static final Duration POLL_WAIT = Duration.ofSeconds(5);
 	private static final Duration SWEEP_RATE = Duration.ofSeconds(120);
 	private static final Duration SWEEP_AGE = Duration.ofHours(36);
+	private static final int RECENT_SUBMISSIONS = 1000;
+	private static final long JOURNAL_SEGMENT_SIZE = 16L * 1024 * 1024;
+
+	private static final int VIRUS_WORKERS = 2;
+	private static final int SCAN_WORKERS = Runtime.getRuntime().availableProcessors();
 
 	private static final ObjectMapper MAPPER = new ObjectMapper();
 
@@ -37,94 +48,237 @@ public class SubmissionProcessor implements Closeable {
 		MAPPER.configure(SerializationFeature.INDENT_OUTPUT, true);
 	}
 
-	private final BlockingDeque<PendingSubmission> pending;
 	private final ContentRepository repo;
 	private final ClamScan clamScan;
 	private final Path jobsPath;
-	private final Map<String, Submissions.Job> jobs;
+	private final JobRegistry<Submissions.Job> jobs;
+	private final RecentSubmissions recent;
+	private final JobJournal journal;
+	// files of submissions resumed after a restart
+	private final Set<Path> resumedFiles = new HashSet<>();
+
+	private final Stage virusStage;
+	private final Stage scanStage;
+	private final Stage indexStage;
 
 	private volatile boolean stopped;
 
 	public SubmissionProcessor(
-		ContentRepository repo, ClamScan clamScan, int queueSize, ScheduledExecutorService executor, Path jobsPath) {
+		ContentRepository repo, ClamScan clamScan, int queueSize, ScheduledExecutorService executor, Path jobsPath)
+		throws IOException {
+		this(repo, clamScan, queueSize, VIRUS_WORKERS, SCAN_WORKERS, ExecutionMode.PLATFORM, executor, jobsPath);
+	}
+
+	/**
+	 * @param virusWorkers  how many submissions may be virus scanned at once
+	 * @param scanWorkers   how many submissions may be content scanned at once
+	 * @param executionMode whether stage workers are platform or virtual threads
+	 */
+	public SubmissionProcessor(
+		ContentRepository repo, ClamScan clamScan, int queueSize, int virusWorkers, int scanWorkers,
+		ExecutionMode executionMode, ScheduledExecutorService executor, Path jobsPath) throws IOException {
 		this.repo = repo;
 		this.clamScan = clamScan;
-		this.jobs = new HashMap<>();
-		this.pending = new LinkedBlockingDeque<>(queueSize);
+		this.jobs = new JobRegistry<>(j -> j.id, j -> j.log.isEmpty() ? 0 : j.logTail().time, SWEEP_AGE);
+		this.recent = new RecentSubmissions(RECENT_SUBMISSIONS, SWEEP_AGE);
 		this.jobsPath = jobsPath;
+		this.journal = new JobJournal(jobsPath.resolve("journal"), JOURNAL_SEGMENT_SIZE, SWEEP_AGE);
 
 		this.stopped = false;
 
-		final Runnable processor = new Runnable() {
-			@Override
-			public void run() {
-				if (stopped) return;
-
-				try {
-					PendingSubmission sub = pending.pollFirst(POLL_WAIT.toMillis(), TimeUnit.MILLISECONDS);
-					if (sub != null) {
-						try {
-							sub.job.log("Picked up for processing");
-							process(sub);
-						} catch (Exception e) {
-							sub.job.log(Submissions.JobState.FAILED, String.format("Failed to process submission: %s", e.getMessage()), e);
-							logger.warn("Submission processing failure", e);
-						} finally {
-							writeJob(sub);
-						}
-					}
-				} catch (InterruptedException e) {
-					logger.warn("Submission queue processing failure", e);
-				}
-
-				if (!stopped) executor.submit(this);
-			}
-		};
+		// each stage has its own queue and workers, so a slow job in one stage does not hold up the others.
+		// indexing mutates the shared git repository, so only ever gets a single worker.
+		this.virusStage = new Stage("virus-scan", queueSize, virusWorkers, executionMode, this::virusScan);
+		this.scanStage = new Stage("content-scan", queueSize, scanWorkers, executionMode, this::scan);
+		this.indexStage = new Stage("index", queueSize, 1, executionMode, this::index);
 
 		final Runnable cleaner = () -> {
 			if (stopped) return;
-			jobs.entrySet().removeIf(e -> {
-				Submissions.Job job = e.getValue();
-				Submissions.LogEntry last = job.log.getLast();
-				return last.time < System.currentTimeMillis() - SWEEP_AGE.toMillis();
-			});
+			final int evicted = jobs.evictExpired();
+			if (evicted > 0) logger.info("Removed {} expired jobs", evicted);
 		};
 
-		executor.submit(processor);
+		recover();
+
 		executor.scheduleAtFixedRate(cleaner, SWEEP_RATE.toMillis(), SWEEP_RATE.toMillis(), TimeUnit.MILLISECONDS);
 
-		logger.info("Submission processor started");
+		logger.info("Submission processor started with {} virus scan and {} content scan workers on {} threads",
+					virusWorkers, scanWorkers, executionMode.name().toLowerCase());
 	}
 
 	// --- public methods
 
 	public PendingSubmission[] pending() {
-		return pending.toArray(PENDING_ARRAY);
+		return Stream.of(virusStage, scanStage, indexStage)
+					 .flatMap(s -> s.queue.snapshot().stream())
+					 .toArray(PendingSubmission[]::new);
 	}
 
 	public boolean trackJob(Submissions.Job job) {
-		return this.jobs.put(job.id, job) == null;
+		if (!this.jobs.add(job)) return false;
+
+		journal.job(job);
+		journal(job, 0);
+		return true;
+	}
+
+	/**
+	 * Claim uploaded content for a new job, unless the same content has
+	 * already been submitted recently.
+	 *
+	 * @param contentKey identifies the uploaded content, typically derived
+	 *                   from the hashes of the uploaded files
+	 * @return the existing job for the same content, or null if {@code job}
+	 * 	should go ahead and process it
+	 */
+	public Submissions.Job claim(String contentKey, Submissions.Job job) {
+		return recent.claim(contentKey, job);
+	}
+
+	/**
+	 * How busy processing currently is.
+	 */
+	public Load load() {
+		final Duration wait = Stream.of(virusStage, scanStage, indexStage)
+									.map(Stage::estimatedWait)
+									.reduce(Duration.ZERO, Duration::plus);
+		// uploads may be added to either of the first two stages, depending on whether they were scanned while received
+		final int capacity = Math.min(virusStage.queue.remainingCapacity(), scanStage.queue.remainingCapacity());
+		return new Load(pending().length, capacity, wait);
 	}
 
 	public Collection<Submissions.Job> jobs() {
-		return Collections.unmodifiableCollection(jobs.values());
+		return jobs.snapshot();
 	}
 
 	public Submissions.Job job(String jobId) {
 		return jobs.get(jobId);
 	}
 
+	/**
+	 * Delete anything in an upload directory which no job is going to
+	 * process, such as uploads interrupted by a restart while they were being
+	 * received, or before their job was recorded in the journal. Should be
+	 * called before any new uploads are received.
+	 */
+	public void sweepUploads(Path uploadDir) throws IOException {
+		final List<Path> entries;
+		try (Stream<Path> list = Files.list(uploadDir)) {
+			entries = list.toList();
+		}
+
+		int removed = 0;
+		for (Path entry : entries) {
+			final Path abs = entry.toAbsolutePath().normalize();
+			if (resumedFiles.stream().anyMatch(f -> f.startsWith(abs))) continue;
+
+			if (Files.isDirectory(entry)) ArchiveUtil.cleanPath(entry);
+			else Files.deleteIfExists(entry);
+			removed++;
+		}
+		if (removed > 0) logger.info("Removed {} abandoned uploads from {}", removed, uploadDir);
+	}
+
 	public boolean add(PendingSubmission submission) {
-		return pending.offerLast(submission);
+		final Stage stage = stageFor(submission.job.state);
+		if (stage == null) {
+			submission.job.log("Invalid processing state " + submission.job.state, Submissions.LogType.ERROR);
+			return false;
+		}
+		if (!stage.queue.offer(submission)) return false;
+
+		journal.queued(submission);
+		return true;
 	}
 
 	@Override
 	public void close() {
 		stopped = true;
+		virusStage.close();
+		scanStage.close();
+		indexStage.close();
+		try {
+			journal.close();
+		} catch (IOException e) {
+			logger.warn("Failed to close job journal", e);
+		}
 	}
 
 	// --- private helpers
 
+	private void journal(Submissions.Job job, int from) {
+		job.record(from, journal::logged);
+	}
+
+	/**
+	 * Restore jobs recorded in the journal before a restart, and resume
+	 * processing of any which were interrupted, from the start of the stage
+	 * they were in.
+	 */
+	private void recover() throws IOException {
+		final List<JobJournal.Recovered> keep = journal.recover().stream().filter(journal::retained).toList();
+		journal.start(keep);
+
+		final List<PendingSubmission> resume = new ArrayList<>();
+		for (JobJournal.Recovered r : keep) {
+			final Submissions.Job job = new Submissions.Job(r.id, r.log, r.state, r.forcedType, r.client);
+			jobs.add(job);
+			journal(job, job.log.size());
+
+			if (r.queued == null || job.state.done()) continue;
+
+			final PendingSubmission submission = new PendingSubmission(
+				job, r.queued.submitTime(), r.queued.name(),
+				r.queued.files().stream().map(Path::of).toArray(Path[]::new), r.queued.hashes().toArray(String[]::new),
+				job.client
+			);
+
+			final Submissions.JobState resumeAt = switch (job.state) {
+				case CREATED, VIRUS_SCANNING -> Submissions.JobState.CREATED;
+				case VIRUS_FREE, SCANNING -> Submissions.JobState.VIRUS_FREE;
+				case SCANNED, INDEXING -> Submissions.JobState.SCANNED;
+				case SUBMITTED -> {
+					job.log(Submissions.JobState.COMPLETED, "Complete!", Submissions.LogType.GOOD);
+					yield null;
+				}
+				default -> {
+					// a pull request may or may not have been opened, so this can not safely be repeated
+					job.log(Submissions.JobState.FAILED, String.format("Processing was interrupted while %s", job.state),
+							Submissions.LogType.ERROR);
+					yield null;
+				}
+			};
+			if (resumeAt == null) {
+				fileCleanup(submission);
+				continue;
+			}
+
+			if (!Stream.of(submission.files).allMatch(Files::exists)) {
+				job.log(Submissions.JobState.FAILED, "Uploaded files were lost while processing was interrupted",
+						Submissions.LogType.ERROR);
+				fileCleanup(submission);
+				continue;
+			}
+
+			job.log(resumeAt, "Resuming processing after restart");
+			resume.add(submission);
+			for (Path file : submission.files) resumedFiles.add(file.toAbsolutePath().normalize());
+		}
+
+		logger.info("Recovered {} jobs from journal, resuming {}", keep.size(), resume.size());
+
+		if (!resume.isEmpty()) {
+			// may be more than the queues can hold, so feed them as the workers take submissions
+			Thread.ofVirtual().name("resume-submissions").start(() -> {
+				try {
+					for (PendingSubmission submission : resume) forward(submission);
+				} catch (InterruptedException e) {
+					logger.warn("Interrupted resuming submissions", e);
+				}
+			});
+		}
+	}
+
 	private void writeJob(PendingSubmission submission) {
 		try {
 			final String fName = String.format("%d-%s.json", submission.submitTime, submission.job.id);
@@ -134,37 +288,38 @@ public class SubmissionProcessor implements Closeable {
 		}
 	}
 
-	private void process(PendingSubmission submission) {
-		switch (submission.job.state) {
-			case CREATED -> {
-				if (virusScan(submission)) {
-					// no viruses, re-add it to the queue for scanning
-					add(submission);
-				} else {
-					// probably a virus, cleanup
-					fileCleanup(submission);
-				}
-			}
-			case VIRUS_FREE -> {
-				if (scan(submission)) {
-					// successful scan, re-add it to the queue for indexing
-					add(submission);
-				} else {
-					// no indexable content, cleanup
-					fileCleanup(submission);
-				}
-			}
-			case SCANNED -> {
-				index(submission);
-				// completed, cleanup
-				fileCleanup(submission);
-			}
-			default -> submission.job.log("Invalid processing state " + submission.job.state, Submissions.LogType.ERROR);
+	private Stage stageFor(Submissions.JobState state) {
+		return switch (state) {
+			case CREATED -> virusStage;
+			case VIRUS_FREE -> scanStage;
+			case SCANNED -> indexStage;
+			default -> null;
+		};
+	}
+
+	/**
+	 * Pass a submission on to the stage matching its current state, blocking if that
+	 * stage's queue is full.
+	 */
+	private void forward(PendingSubmission submission) throws InterruptedException {
+		final Stage stage = stageFor(submission.job.state);
+		if (stage == null) {
+			submission.job.log("Invalid processing state " + submission.job.state, Submissions.LogType.ERROR);
+			fileCleanup(submission);
+			return;
 		}
+		stage.queue.put(submission);
 	}
 
-	private boolean virusScan(PendingSubmission submission) {
-		return clamScan.scan(submission.job, submission.files) == ClamScan.ClamResult.OK;
+	private boolean virusScan(PendingSubmission submission) throws InterruptedException {
+		if (clamScan.scan(submission.job, submission.hashes, submission.files) == ClamScan.ClamResult.OK) {
+			// no viruses, pass it on for scanning
+			return true;
+		} else {
+			// probably a virus, cleanup
+			fileCleanup(submission);
+			return false;
+		}
 	}
 
 	private boolean scan(PendingSubmission submission) {
@@ -175,20 +330,35 @@ public class SubmissionProcessor implements Closeable {
 
 		try {
 			repo.scan(submission.job, submission.files);
-			return (submission.job.state == Submissions.JobState.SCANNED);
 		} catch (IOException e) {
 			submission.job.log(Submissions.JobState.SCAN_FAILED, "Scanning failed", e);
 			logger.warn("Submission scanning failure", e);
 		}
-		return false;
+
+		if (submission.job.state == Submissions.JobState.SCANNED) {
+			// successful scan, pass it on for indexing
+			return true;
+		} else {
+			// no indexable content, cleanup
+			fileCleanup(submission);
+			return false;
+		}
 	}
 
-	private void index(PendingSubmission submission) {
+	private boolean index(PendingSubmission submission) {
 		// use the repo to index and submit PR
 		repo.lock();
 		try {
-			if (!repo.submit(submission.job, submission.files).isEmpty()) {
-				submission.job.log(Submissions.JobState.COMPLETED, "Complete!", Submissions.LogType.GOOD);
+			final ContentRepository.SubmitResult result = repo.submit(submission.job, submission.files);
+			if (!result.indexed().isEmpty()) {
+				// the job is only complete once its pull request has been opened, which may be some time later
+				result.pullRequest().whenComplete((url, error) -> {
+					if (error == null) {
+						submission.job.log(Submissions.JobState.COMPLETED, "Complete!", Submissions.LogType.GOOD);
+					} else {
+						submission.job.log(Submissions.JobState.FAILED, String.format("Failed to submit content: %s", error.getMessage()), error);
+					}
+				});
 			} else {
 				submission.job.log(Submissions.JobState.FAILED, "No content was added", Submissions.LogType.ERROR);
 				logger.warn("Content index returned an empty result");
@@ -198,7 +368,10 @@ public class SubmissionProcessor implements Closeable {
 			logger.warn("Submission indexing failure", e);
 		} finally {
 			repo.unlock();
+			// completed, cleanup
+			fileCleanup(submission);
 		}
+		return false;
 	}
 
 	private void fileCleanup(PendingSubmission submission) {
@@ -209,8 +382,153 @@ public class SubmissionProcessor implements Closeable {
 				logger.warn("Failed to delete file {} for job {}", file, submission.job.id);
 			}
 		}
+
+		// uploads are stored in a directory of their own, which is no longer needed either
+		if (submission.files.length > 0) {
+			final Path dir = submission.files[0].getParent();
+			try {
+				if (dir != null) Files.deleteIfExists(dir);
+			} catch (DirectoryNotEmptyException e) {
+				// something else is still there, leave it
+			} catch (IOException e) {
+				logger.warn("Failed to delete directory {} for job {}", dir, submission.job.id);
+			}
+		}
 	}
 
-	public record PendingSubmission(Submissions.Job job, long submitTime, String name, Path[] files) {
+	@FunctionalInterface
+	private interface StageHandler {
+
+		/**
+		 * @return true to pass the submission on to the next stage
+		 */
+		boolean process(PendingSubmission submission) throws InterruptedException;
+	}
+
+	/**
+	 * A single step of the submission pipeline, with a bounded queue of work
+	 * and a fixed number of workers pulling from it. Work is taken from the
+	 * queue fairly between clients, and smaller submissions first.
+	 */
+	private final class Stage implements Closeable {
+
+		private final String name;
+		private final FairQueue<PendingSubmission> queue;
+		private final ExecutorService workers;
+		private final int workerCount;
+		private final StageHandler handler;
+		// moving average of how long the handler takes with each submission
+		private final AtomicLong averageNanos = new AtomicLong();
+		private final Metrics.Histogram latency;
+
+		private Stage(String name, int queueSize, int workerCount, ExecutionMode executionMode, StageHandler handler) {
+			this.name = name;
+			this.queue = new FairQueue<>(queueSize, PendingSubmission::client, PendingSubmission::fileSize, Metrics.REGISTRY.histogram(
+				"submitter_queue_wait_seconds", "Time submissions waited in a stage's queue", "stage", name
+			));
+			this.latency = Metrics.REGISTRY.histogram("submitter_stage_seconds", "Time taken to process submissions in each stage", "stage", name);
+			Metrics.REGISTRY.gauge("submitter_queue_depth", "Submissions waiting in each stage's queue", queue::size, "stage", name);
+			this.handler = handler;
+			this.workerCount = workerCount;
+			this.workers = Executors.newFixedThreadPool(workerCount, executionMode.threads(name));
+
+			for (int i = 0; i < workerCount; i++) {
+				workers.submit(this::work);
+			}
+		}
+
+		private void work() {
+			while (!stopped) {
+				final PendingSubmission sub;
+				try {
+					sub = queue.poll(POLL_WAIT.toMillis(), TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					logger.warn("Submission {} queue processing interrupted", name);
+					return;
+				}
+
+				if (sub == null) continue;
+
+				final long start = System.nanoTime();
+				boolean passOn = false;
+				try {
+					sub.job.log("Picked up for processing");
+					passOn = handler.process(sub);
+				} catch (InterruptedException e) {
+					sub.job.log(Submissions.JobState.FAILED, "Processing was interrupted", e);
+					logger.warn("Submission {} processing interrupted", name);
+					return;
+				} catch (Exception e) {
+					sub.job.log(Submissions.JobState.FAILED, String.format("Failed to process submission: %s", e.getMessage()), e);
+					logger.warn("Submission processing failure", e);
+				} finally {
+					final long took = System.nanoTime() - start;
+					latency.observe(took);
+					averageNanos.accumulateAndGet(took, (avg, t) -> avg == 0 ? t : (avg * 4 + t) / 5);
+					writeJob(sub);
+				}
+
+				// waiting for room in the next stage's queue is not part of this stage's processing time
+				if (passOn) {
+					try {
+						forward(sub);
+					} catch (InterruptedException e) {
+						sub.job.log(Submissions.JobState.FAILED, "Processing was interrupted", e);
+						logger.warn("Submission {} processing interrupted", name);
+						writeJob(sub);
+						return;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Roughly how long it would take the workers to get through the
+		 * current queue.
+		 */
+		private Duration estimatedWait() {
+			return Duration.ofNanos(averageNanos.get() * queue.size() / workerCount);
+		}
+
+		@Override
+		public void close() {
+			workers.shutdownNow();
+		}
+	}
+
+	/**
+	 * @param queued        submissions waiting in any stage
+	 * @param capacity      how many more new submissions can be queued
+	 * @param estimatedWait roughly how long a new submission would wait for
+	 *                      the submissions already queued ahead of it
+	 */
+	public record Load(int queued, int capacity, Duration estimatedWait) {
+	}
+
+	/**
+	 * @param hashes content hashes of each of the files, in the same order
+	 * @param client identifies who made the submission, so processing can be
+	 *               shared fairly between submitters. may be null
+	 */
+	public record PendingSubmission(Submissions.Job job, long submitTime, String name, Path[] files, String[] hashes, String client) {
+
+		public PendingSubmission(Submissions.Job job, long submitTime, String name, Path[] files, String[] hashes) {
+			this(job, submitTime, name, files, hashes, null);
+		}
+
+		/**
+		 * @return the combined size of the submitted files
+		 */
+		public long fileSize() {
+			long size = 0;
+			for (Path file : files) {
+				try {
+					size += Files.size(file);
+				} catch (IOException e) {
+					// gone, so it won't take long
+				}
+			}
+			return size;
+		}
 	}
 }
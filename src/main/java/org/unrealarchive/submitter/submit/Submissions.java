@@ -1,19 +1,17 @@
 package org.unrealarchive.submitter.submit;
 
 import java.beans.ConstructorProperties;
-import java.time.Duration;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.unrealarchive.content.addons.SimpleAddonType;
+import org.unrealarchive.submitter.metrics.Metrics;
 
 public class Submissions {
 
@@ -56,35 +54,55 @@ public class Submissions {
 
 		private static final Logger logger = LoggerFactory.getLogger(Job.class);
 
+		// indexed by state, only present for states which finish a job
+		private static final Metrics.Counter[] FINISHED = Arrays.stream(JobState.values())
+																.map(s -> s.done()
+																	? Metrics.REGISTRY.counter("submitter_jobs", "Submission jobs finished, by final state",
+																							   "state", s.name())
+																	: null)
+																.toArray(Metrics.Counter[]::new);
+
 		public final String id;
 		public final SimpleAddonType forcedType;
-		public final List<LogEntry> log;
-		public JobState state;
-		public boolean done;
-
-		public final transient BlockingQueue<LogEntry> logEvents;
+		// identifies who made the submission, so processing can be shared fairly between submitters. may be null
+		public final String client;
+		public final JobLog log;
+		public volatile JobState state;
+		// set once the job reaches a final state, so it is only counted as finished once
+		private final AtomicBoolean done = new AtomicBoolean();
+		// guarded by this, so it sees entries in the order they were logged
+		private Recorder recorder;
 
-		@ConstructorProperties({ "id", "log", "state", "forcedType" })
 		public Job(String id, List<LogEntry> log, JobState state, SimpleAddonType forcedType) {
+			this(id, log, state, forcedType, null);
+		}
+
+		@ConstructorProperties({ "id", "log", "state", "forcedType", "client" })
+		public Job(String id, List<LogEntry> log, JobState state, SimpleAddonType forcedType, String client) {
 			this.id = id;
 			this.forcedType = forcedType;
-			this.log = log;
+			this.client = client;
+			this.log = new JobLog(log);
 			this.state = state;
-			this.done = false;
-
-			this.logEvents = new ArrayBlockingQueue<>(20);
 		}
 
 		public Job(SimpleAddonType forcedType) {
-			this(Long.toHexString(Double.doubleToLongBits(Math.random())).substring(8), new ArrayList<>(), JobState.CREATED, forcedType);
+			this(forcedType, null);
+		}
+
+		public Job(SimpleAddonType forcedType, String client) {
+			this(JobRegistry.newId(), List.of(), JobState.CREATED, forcedType, client);
 			log("Job created with ID " + id);
 			if (forcedType != null) log("Content type is forced to " + forcedType.name());
 		}
 
 		public Job log(JobState state, LogEntry log) {
-			this.log.add(log);
-			this.state = state;
-			this.logEvents.offer(log);
+			synchronized (this) {
+				if (state.done() && done.compareAndSet(false, true)) FINISHED[state.ordinal()].inc();
+				this.state = state;
+				this.log.append(log, state.done());
+				if (recorder != null) recorder.logged(this, state, log);
+			}
 
 			logger.info("{}: {}", state, log);
 
@@ -115,19 +133,23 @@ public class Submissions {
 			return log(state, new LogEntry(message, error));
 		}
 
-		public List<LogEntry> log() {
-			return Collections.unmodifiableList(log);
+		/**
+		 * Pass entries from sequence number {@code from} onwards to the recorder,
+		 * then every entry logged after, along with the state it put the job in.
+		 * <p>
+		 * Entries logged before this call are passed with the job's current state.
+		 */
+		public synchronized void record(int from, Recorder recorder) {
+			for (int i = from; i < log.size(); i++) recorder.logged(this, state, log.get(i));
+			this.recorder = recorder;
 		}
 
-		public List<LogEntry> pollLog(Duration timeout) throws InterruptedException {
-			final LogEntry head = logEvents.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
-			final List<LogEntry> polledLogs = new ArrayList<>();
-			if (head != null) polledLogs.add(head);
-			logEvents.drainTo(polledLogs);
-
-			if (!done && state.done()) done = true;
+		public boolean isDone() {
+			return done.get();
+		}
 
-			return polledLogs;
+		public List<LogEntry> log() {
+			return Collections.unmodifiableList(log);
 		}
 
 		public LogEntry logHead() {
@@ -137,6 +159,11 @@ public class Submissions {
 		public LogEntry logTail() {
 			return log.getLast();
 		}
+
+		public interface Recorder {
+
+			void logged(Job job, JobState state, LogEntry entry);
+		}
 	}
 
 	public static class LogEntry {
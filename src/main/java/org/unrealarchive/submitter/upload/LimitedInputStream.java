@@ -0,0 +1,65 @@
+package org.unrealarchive.submitter.upload;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Passes through at most a given number of bytes from another stream, and
+ * fails once the stream carries on beyond that, rather than quietly
+ * truncating it.
+ */
+public class LimitedInputStream extends FilterInputStream {
+
+	private final long limit;
+	private long remaining;
+
+	/**
+	 * @param in    the stream to read from
+	 * @param limit the most bytes which may be read from {@code in}
+	 */
+	public LimitedInputStream(InputStream in, long limit) {
+		super(in);
+		this.limit = limit;
+		this.remaining = limit;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final int b = super.read();
+		if (b >= 0) count(1);
+		return b;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		// ask for one byte beyond the limit, so a stream which ends exactly at it isn't mistaken for an over-long one
+		final int read = super.read(b, off, (int)Math.min(len, remaining + 1));
+		if (read > 0) count(read);
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		final long skipped = super.skip(Math.min(n, remaining + 1));
+		if (skipped > 0) count(skipped);
+		return skipped;
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	private void count(long read) throws LimitExceededException {
+		remaining -= read;
+		if (remaining < 0) throw new LimitExceededException(limit);
+	}
+
+	public static class LimitExceededException extends IOException {
+
+		public LimitExceededException(long limit) {
+			super(String.format("Stream is longer than %d bytes", limit));
+		}
+	}
+}
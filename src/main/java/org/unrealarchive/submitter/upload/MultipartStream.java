@@ -0,0 +1,216 @@
+package org.unrealarchive.submitter.upload;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An incremental multipart/form-data parser.
+ * <p>
+ * Raw request body bytes are pushed in via {@link #feed(ByteBuffer)} in
+ * whatever sized chunks they arrive in, and the content of each part is
+ * handed to the {@link PartSink} provided for it as soon as it is known not
+ * to contain the closing boundary, without buffering whole parts.
+ */
+public class MultipartStream {
+
+	private static final Pattern BOUNDARY = Pattern.compile("boundary=(\"([^\"]+)\"|[^;\\s]+)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern DISPOSITION_PARAM = Pattern.compile("(\\w+)=(\"([^\"]*)\"|[^;]*)");
+
+	private static final byte[] CRLF = { '\r', '\n' };
+	private static final byte[] HEADER_END = { '\r', '\n', '\r', '\n' };
+	private static final int MAX_HEADER_SIZE = 16 * 1024;
+
+	public interface PartHandler {
+
+		/**
+		 * Called when a new part begins.
+		 *
+		 * @return a sink for the part's content, or null to discard it
+		 */
+		PartSink part(Part part) throws IOException;
+	}
+
+	public interface PartSink {
+
+		/**
+		 * Receive the next bytes of a part's content. The buffer is only
+		 * valid for the duration of the call.
+		 */
+		void data(ByteBuffer data) throws IOException;
+
+		void end() throws IOException;
+	}
+
+	public record Part(String name, String fileName, Map<String, String> headers) {
+
+		public boolean isFile() {
+			return fileName != null;
+		}
+	}
+
+	private enum State {
+		PREAMBLE,
+		DELIMITER,
+		HEADERS,
+		BODY,
+		DONE
+	}
+
+	private final byte[] delimiter;
+	private final PartHandler handler;
+
+	private byte[] buf;
+	private int len;
+	private State state;
+	private PartSink sink;
+
+	public MultipartStream(String boundary, PartHandler handler) {
+		this.delimiter = ("\r\n--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+		this.handler = handler;
+		this.buf = new byte[8192];
+		this.state = State.PREAMBLE;
+
+		// the first delimiter is not preceded by a line break, so pretend it was
+		System.arraycopy(CRLF, 0, buf, 0, CRLF.length);
+		this.len = CRLF.length;
+	}
+
+	/**
+	 * Find the boundary parameter of a multipart Content-Type header.
+	 *
+	 * @return the boundary, or null if there is none
+	 */
+	public static String boundary(String contentType) {
+		if (contentType == null) return null;
+		Matcher m = BOUNDARY.matcher(contentType);
+		if (!m.find()) return null;
+		return m.group(2) != null ? m.group(2) : m.group(1);
+	}
+
+	public boolean done() {
+		return state == State.DONE;
+	}
+
+	public void feed(ByteBuffer data) throws IOException {
+		// anything after the closing delimiter is epilogue, and ignored
+		if (state == State.DONE) return;
+
+		final int incoming = data.remaining();
+		if (buf.length - len < incoming) {
+			byte[] grown = new byte[Math.max(buf.length * 2, len + incoming)];
+			System.arraycopy(buf, 0, grown, 0, len);
+			buf = grown;
+		}
+		data.get(buf, len, incoming);
+		len += incoming;
+
+		process();
+	}
+
+	private void process() throws IOException {
+		int pos = 0;
+		parse:
+		while (true) {
+			switch (state) {
+				case PREAMBLE, BODY -> {
+					final int idx = indexOf(buf, pos, len, delimiter);
+					if (idx < 0) {
+						// hold back enough of the tail to match a delimiter split across chunks
+						final int safe = Math.max(pos, len - delimiter.length + 1);
+						emit(pos, safe - pos);
+						pos = safe;
+						break parse;
+					}
+					emit(pos, idx - pos);
+					if (state == State.BODY) endPart();
+					pos = idx + delimiter.length;
+					state = State.DELIMITER;
+				}
+				case DELIMITER -> {
+					if (len - pos < 2) break parse;
+					if (buf[pos] == '-' && buf[pos + 1] == '-') {
+						state = State.DONE;
+						pos = len;
+						break parse;
+					}
+					// skip any transport padding up to the end of the delimiter line
+					final int eol = indexOf(buf, pos, len, CRLF);
+					if (eol < 0) break parse;
+					pos = eol;
+					state = State.HEADERS;
+				}
+				case HEADERS -> {
+					final int end = indexOf(buf, pos, len, HEADER_END);
+					if (end < 0) {
+						if (len - pos > MAX_HEADER_SIZE) throw new IOException("Multipart headers too large");
+						break parse;
+					}
+					final String headers = end > pos ? new String(buf, pos + CRLF.length, end - pos - CRLF.length,
+																	StandardCharsets.UTF_8) : "";
+					pos = end + HEADER_END.length;
+					sink = handler.part(part(headers));
+					state = State.BODY;
+				}
+				case DONE -> {
+					pos = len;
+					break parse;
+				}
+			}
+		}
+
+		System.arraycopy(buf, pos, buf, 0, len - pos);
+		len -= pos;
+	}
+
+	private void emit(int offset, int length) throws IOException {
+		if (state == State.BODY && sink != null && length > 0) {
+			sink.data(ByteBuffer.wrap(buf, offset, length));
+		}
+	}
+
+	private void endPart() throws IOException {
+		if (sink != null) sink.end();
+		sink = null;
+	}
+
+	private static Part part(String headerBlock) {
+		final Map<String, String> headers = new HashMap<>();
+		for (String line : headerBlock.split("\r\n")) {
+			int colon = line.indexOf(':');
+			if (colon > 0) headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+		}
+
+		String name = null;
+		String fileName = null;
+		final Matcher m = DISPOSITION_PARAM.matcher(headers.getOrDefault("content-disposition", ""));
+		while (m.find()) {
+			final String value = m.group(3) != null ? m.group(3) : m.group(2).trim();
+			switch (m.group(1).toLowerCase(Locale.ROOT)) {
+				case "name" -> name = value;
+				case "filename" -> fileName = value;
+				default -> {
+					// not interested
+				}
+			}
+		}
+
+		return new Part(name, fileName, headers);
+	}
+
+	private static int indexOf(byte[] buf, int from, int to, byte[] pattern) {
+		final byte first = pattern[0];
+		for (int i = from, max = to - pattern.length; i <= max; i++) {
+			if (buf[i] != first) continue;
+			int j = 1;
+			while (j < pattern.length && buf[i + j] == pattern[j]) j++;
+			if (j == pattern.length) return i;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,156 @@
+package org.unrealarchive.submitter.upload;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.unrealarchive.submitter.submit.SubmissionProcessor;
+
+/**
+ * Decides whether a new upload should be accepted, before any of its body
+ * has been received.
+ * <p>
+ * Uploads are turned away while the processing queue is full, while a new
+ * submission would be expected to wait longer than allowed before being
+ * processed, or while accepting it could leave less than the minimum free
+ * space under the upload path. The space of uploads still being received is
+ * reserved against the free space, using their declared content length, so
+ * a burst of concurrent uploads can't all pass the check together. Uploads
+ * which don't declare a length reserve a configured amount instead, and
+ * should not be received beyond it, see {@link Decision#limit()}.
+ * <p>
+ * Likewise, each accepted upload holds a place in the processing queue until
+ * its permit is closed, which should be once it has been handed to
+ * processing. A submission can still be refused by the queue after being
+ * received if the queue is filled by other means in the meantime, such as
+ * submissions resumed after a restart.
+ */
+public class UploadAdmission {
+
+	private static final Logger logger = LoggerFactory.getLogger(UploadAdmission.class);
+
+	private static final Duration MIN_RETRY = Duration.ofSeconds(5);
+	private static final Duration MAX_RETRY = Duration.ofMinutes(5);
+	private static final Duration DISK_RETRY = Duration.ofMinutes(1);
+
+	public static final long DEFAULT_UNKNOWN_LENGTH = 256L * 1024 * 1024;
+
+	private final Supplier<SubmissionProcessor.Load> load;
+	private final Path uploadPath;
+	private final long minFreeBytes;
+	private final Duration maxWait;
+	private final long unknownLength;
+
+	private final AtomicLong reserved = new AtomicLong();
+	private final AtomicInteger admitted = new AtomicInteger();
+
+	/**
+	 * @param load         current load of submission processing
+	 * @param uploadPath   where uploads are stored
+	 * @param minFreeBytes free space to leave under {@code uploadPath}
+	 * @param maxWait      longest estimated wait for processing to accept an
+	 *                     upload with
+	 */
+	public UploadAdmission(Supplier<SubmissionProcessor.Load> load, Path uploadPath, long minFreeBytes, Duration maxWait) {
+		this(load, uploadPath, minFreeBytes, maxWait, DEFAULT_UNKNOWN_LENGTH);
+	}
+
+	/**
+	 * @param load          current load of submission processing
+	 * @param uploadPath    where uploads are stored
+	 * @param minFreeBytes  free space to leave under {@code uploadPath}
+	 * @param maxWait       longest estimated wait for processing to accept
+	 *                      an upload with
+	 * @param unknownLength space to reserve for an upload which does not
+	 *                      declare its length, such as a chunked one
+	 */
+	public UploadAdmission(Supplier<SubmissionProcessor.Load> load, Path uploadPath, long minFreeBytes, Duration maxWait,
+						   long unknownLength) {
+		this.load = load;
+		this.uploadPath = uploadPath;
+		this.minFreeBytes = minFreeBytes;
+		this.maxWait = maxWait;
+		this.unknownLength = unknownLength;
+	}
+
+	/**
+	 * @param contentLength the declared length of the upload body, or a
+	 *                      negative number if unknown
+	 * @return a permit to be closed once the upload has been received and
+	 * 	handed to processing, or a rejection
+	 */
+	public Decision admit(long contentLength) {
+		final SubmissionProcessor.Load current = load.get();
+		// uploads already admitted but not yet queued will take their places first
+		final int ahead = admitted.incrementAndGet();
+		if (current.capacity() < ahead) {
+			admitted.decrementAndGet();
+			// roughly how long it takes for a queued submission to be picked up
+			return reject(429, "Too many submissions are queued, please try again later",
+						  current.estimatedWait().dividedBy(Math.max(1, current.queued())));
+		}
+		if (current.estimatedWait().compareTo(maxWait) > 0) {
+			admitted.decrementAndGet();
+			return reject(429, "Submissions are taking too long to process, please try again later",
+						  current.estimatedWait().minus(maxWait));
+		}
+
+		final long length = contentLength < 0 ? unknownLength : contentLength;
+		final long reserving = reserved.addAndGet(length);
+		try {
+			if (Files.getFileStore(uploadPath).getUsableSpace() - reserving < minFreeBytes) {
+				reserved.addAndGet(-length);
+				admitted.decrementAndGet();
+				logger.warn("Rejecting upload of {} bytes, not enough free space under {}", length, uploadPath);
+				return reject(503, "Not enough space to accept uploads, please try again later", DISK_RETRY);
+			}
+		} catch (IOException e) {
+			// can't tell, so don't hold uploads up
+			logger.warn("Failed to check free space under {}", uploadPath, e);
+		}
+
+		return new Decision(0, null, null, length, () -> {
+			reserved.addAndGet(-length);
+			admitted.decrementAndGet();
+		});
+	}
+
+	private static Decision reject(int status, String message, Duration retryAfter) {
+		final Duration retry = retryAfter.compareTo(MIN_RETRY) < 0
+			? MIN_RETRY
+			: retryAfter.compareTo(MAX_RETRY) > 0 ? MAX_RETRY : retryAfter;
+		return new Decision(status, message, retry, -1, () -> {});
+	}
+
+	/**
+	 * The outcome of asking to accept an upload.
+	 *
+	 * @param status     the HTTP status to reject the upload with, or 0 if
+	 *                   it's accepted
+	 * @param message    explanation for the client, when rejected
+	 * @param retryAfter how long the client should wait before trying again,
+	 *                   when rejected
+	 * @param limit      the space reserved for an accepted upload, which its
+	 *                   body should be cut off at, or -1 when rejected
+	 * @param release    releases the space and queue place reserved for an
+	 *                   accepted upload
+	 */
+	public record Decision(int status, String message, Duration retryAfter, long limit, Runnable release) implements AutoCloseable {
+
+		public boolean accepted() {
+			return status == 0;
+		}
+
+		@Override
+		public void close() {
+			release.run();
+		}
+	}
+}
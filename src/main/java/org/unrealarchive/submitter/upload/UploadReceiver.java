@@ -0,0 +1,279 @@
+package org.unrealarchive.submitter.upload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.unrealarchive.common.ArchiveUtil;
+import org.unrealarchive.common.Util;
+import org.unrealarchive.submitter.clam.ClamDSocketScan;
+
+import static java.nio.file.attribute.PosixFilePermission.*;
+
+/**
+ * Receives a multipart upload request body in a single pass.
+ * <p>
+ * Each uploaded file is written directly to its own staging directory as it
+ * arrives. Its content hash, and optionally a clamd virus scan, are computed
+ * from the same bytes on a separate thread per file, so no file is read back
+ * from disk once received, and a file is still being hashed while the next
+ * one is received.
+ */
+public class UploadReceiver {
+
+	private static final Logger logger = LoggerFactory.getLogger(UploadReceiver.class);
+
+	public static final String HASH_ALGORITHM = "SHA-1";
+
+	private static final int READ_BUFFER = 64 * 1024;
+	private static final int MAX_FIELD_SIZE = 4 * 1024;
+	// how many received chunks a file's hashing may fall behind before receiving waits for it
+	private static final int MAX_PENDING_CHUNKS = 64;
+	private static final byte[] END = {};
+
+	private final Path uploadPath;
+	private final String filesField;
+	private final ClamDSocketScan clamScan;
+
+	/**
+	 * @param uploadPath where uploaded files are stored, in a new directory per upload
+	 * @param filesField the name of the form field carrying files, other files are ignored
+	 * @param clamScan   if provided, files are virus scanned as they are received
+	 */
+	public UploadReceiver(Path uploadPath, String filesField, ClamDSocketScan clamScan) {
+		this.uploadPath = uploadPath;
+		this.filesField = filesField;
+		this.clamScan = clamScan;
+	}
+
+	public Upload receive(InputStream body, String boundary) throws IOException, InterruptedException {
+		final Path dir = Files.createDirectories(uploadPath.resolve(UUID.randomUUID().toString()));
+		final Map<String, String> fields = new HashMap<>();
+		final List<FilePart> parts = new ArrayList<>();
+
+		final MultipartStream parser = new MultipartStream(boundary, part -> {
+			if (!part.isFile()) return new FieldPart(part.name(), fields);
+			if (!filesField.equals(part.name()) || part.fileName().isBlank()) return null;
+
+			final FilePart filePart = new FilePart(part.fileName(), uniquePath(dir, part.fileName()));
+			parts.add(filePart);
+			return filePart;
+		});
+
+		try {
+			final byte[] buffer = new byte[READ_BUFFER];
+			int read;
+			while (!parser.done() && (read = body.read(buffer)) >= 0) {
+				parser.feed(ByteBuffer.wrap(buffer, 0, read));
+			}
+			if (!parser.done()) throw new IOException("Upload ended before it was complete");
+
+			final List<ReceivedFile> files = new ArrayList<>(parts.size());
+			for (FilePart part : parts) {
+				files.add(part.received.get());
+				// so it can be read by the clamav user
+				Files.setPosixFilePermissions(part.path, Set.of(OWNER_READ, OWNER_WRITE, GROUP_READ, OTHERS_READ));
+			}
+
+			return new Upload(dir, Map.copyOf(fields), List.copyOf(files));
+		} catch (IOException | InterruptedException | RuntimeException e) {
+			for (FilePart part : parts) part.abort();
+			cleanup(dir);
+			throw e;
+		} catch (ExecutionException e) {
+			for (FilePart part : parts) part.abort();
+			cleanup(dir);
+			throw new IOException("Failed to process uploaded file", e.getCause());
+		}
+	}
+
+	private static Path uniquePath(Path dir, String fileName) throws IOException {
+		final String name = String.format("%s.%s", Util.plainName(fileName), Util.extension(fileName));
+		Path path = dir.resolve(name).normalize();
+		for (int i = 1; Files.exists(path); i++) {
+			path = dir.resolve(String.format("%d-%s", i, name)).normalize();
+		}
+		if (!dir.equals(path.getParent())) throw new IOException(String.format("Invalid file name %s", fileName));
+		return path;
+	}
+
+	private static void cleanup(Path dir) {
+		try {
+			ArchiveUtil.cleanPath(dir);
+		} catch (IOException e) {
+			logger.warn("Failed to clean up upload directory {}", dir, e);
+		}
+	}
+
+	/**
+	 * @param dir    the directory uploaded files were stored in
+	 * @param fields values of non-file form fields
+	 * @param files  uploaded files, in the order they were received
+	 */
+	public record Upload(Path dir, Map<String, String> fields, List<ReceivedFile> files) {
+
+		public void delete() {
+			cleanup(dir);
+		}
+	}
+
+	/**
+	 * @param verdict result of virus scanning the file while it was received,
+	 *                null if it was not scanned
+	 */
+	public record ReceivedFile(String fileName, Path path, long size, String hash, ClamDSocketScan.Verdict verdict) {}
+
+	private static class FieldPart implements MultipartStream.PartSink {
+
+		private final String name;
+		private final Map<String, String> fields;
+		private final ByteArrayOutputStream value;
+
+		private FieldPart(String name, Map<String, String> fields) {
+			this.name = name;
+			this.fields = fields;
+			this.value = new ByteArrayOutputStream();
+		}
+
+		@Override
+		public void data(ByteBuffer data) throws IOException {
+			if (value.size() + data.remaining() > MAX_FIELD_SIZE) throw new IOException(String.format("Field %s is too large", name));
+			value.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+			data.position(data.limit());
+		}
+
+		@Override
+		public void end() {
+			if (name != null) fields.putIfAbsent(name, value.toString(StandardCharsets.UTF_8));
+		}
+	}
+
+	private class FilePart implements MultipartStream.PartSink {
+
+		private final String fileName;
+		private final Path path;
+		private final FileChannel channel;
+		private final BlockingQueue<byte[]> chunks;
+		private final CompletableFuture<ReceivedFile> received;
+		private final Thread digester;
+
+		private FilePart(String fileName, Path path) throws IOException {
+			this.fileName = fileName;
+			this.path = path;
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			this.chunks = new ArrayBlockingQueue<>(MAX_PENDING_CHUNKS);
+			this.received = new CompletableFuture<>();
+
+			this.digester = Thread.ofVirtual().name("upload-digest").start(this::digest);
+		}
+
+		@Override
+		public void data(ByteBuffer data) throws IOException {
+			final byte[] copy = new byte[data.remaining()];
+			data.duplicate().get(copy);
+			while (data.hasRemaining()) channel.write(data);
+
+			try {
+				chunks.put(copy);
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while receiving upload", e);
+			}
+		}
+
+		@Override
+		public void end() throws IOException {
+			channel.close();
+			try {
+				chunks.put(END);
+			} catch (InterruptedException e) {
+				throw new IOException("Interrupted while receiving upload", e);
+			}
+		}
+
+		private void abort() {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// ignore
+			}
+			received.completeExceptionally(new IOException("Upload aborted"));
+			chunks.clear();
+			chunks.offer(END);
+
+			// don't leave the digest, or its clamd stream, running after the upload is gone
+			try {
+				digester.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		private void digest() {
+			ClamDSocketScan.InStream clam = null;
+			try {
+				final MessageDigest md = MessageDigest.getInstance(HASH_ALGORITHM);
+
+				if (clamScan != null) {
+					try {
+						clam = clamScan.stream();
+					} catch (IOException e) {
+						logger.warn("Failed to open clamd stream for upload, it will be scanned later", e);
+					}
+				}
+
+				long size = 0;
+				byte[] chunk;
+				while ((chunk = chunks.take()) != END) {
+					md.update(chunk);
+					size += chunk.length;
+					if (clam != null) {
+						try {
+							clam.write(ByteBuffer.wrap(chunk));
+						} catch (IOException e) {
+							logger.info("Abandoning clamd stream for upload of {}: {}", fileName, e.getMessage());
+							clam.close();
+							clam = null;
+						}
+					}
+				}
+
+				ClamDSocketScan.Verdict verdict = null;
+				if (clam != null && !received.isDone()) {
+					try {
+						verdict = clam.finish();
+					} catch (IOException e) {
+						logger.warn("Failed to get clamd verdict for upload of {}", fileName, e);
+					}
+				}
+
+				received.complete(new ReceivedFile(fileName, path, size, HexFormat.of().formatHex(md.digest()), verdict));
+			} catch (NoSuchAlgorithmException | InterruptedException e) {
+				received.completeExceptionally(e);
+			} finally {
+				if (clam != null) clam.close();
+			}
+		}
+	}
+}
@@ -4,6 +4,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.lib.Repository;
@@ -38,6 +39,9 @@ public class CollectionRepositoryTest {
 		when(gitManager.gitRepo()).thenReturn(git);
 		when(git.getRepository()).thenReturn(repo);
 		when(repo.getWorkTree()).thenReturn(gitDir.toFile());
+		when(gitManager.change(any(), any())).thenReturn(mock(GitManager.Change.class));
+		when(gitManager.createPullRequest(any(), any(), any(), any(), any(String[].class)))
+			.thenReturn(CompletableFuture.completedFuture("https://github.com/unreal-archive/unreal-archive-data/pull/1"));
 
 		CollectionRepository collectionRepository = new CollectionRepository(gitManager);
 
@@ -83,6 +87,9 @@ public class CollectionRepositoryTest {
 		when(gitManager.gitRepo()).thenReturn(git);
 		when(git.getRepository()).thenReturn(repo);
 		when(repo.getWorkTree()).thenReturn(gitDir.toFile());
+		when(gitManager.change(any(), any())).thenReturn(mock(GitManager.Change.class));
+		when(gitManager.createPullRequest(any(), any(), any(), any(), any(String[].class)))
+			.thenReturn(CompletableFuture.completedFuture("https://github.com/unreal-archive/unreal-archive-data/pull/1"));
 
 		CollectionRepository collectionRepository = new CollectionRepository(gitManager);
 
@@ -122,6 +129,9 @@ public class CollectionRepositoryTest {
 		when(gitManager.gitRepo()).thenReturn(git);
 		when(git.getRepository()).thenReturn(repo);
 		when(repo.getWorkTree()).thenReturn(gitDir.toFile());
+		when(gitManager.change(any(), any())).thenReturn(mock(GitManager.Change.class));
+		when(gitManager.createPullRequest(any(), any(), any(), any(), any(String[].class)))
+			.thenReturn(CompletableFuture.completedFuture("https://github.com/unreal-archive/unreal-archive-data/pull/1"));
 
 		CollectionRepository collectionRepository = new CollectionRepository(gitManager);
 
@@ -161,6 +171,9 @@ public class CollectionRepositoryTest {
 		when(gitManager.gitRepo()).thenReturn(git);
 		when(git.getRepository()).thenReturn(repo);
 		when(repo.getWorkTree()).thenReturn(gitDir.toFile());
+		when(gitManager.change(any(), any())).thenReturn(mock(GitManager.Change.class));
+		when(gitManager.createPullRequest(any(), any(), any(), any(), any(String[].class)))
+			.thenReturn(CompletableFuture.completedFuture("https://github.com/unreal-archive/unreal-archive-data/pull/1"));
 
 		CollectionRepository collectionRepository = new CollectionRepository(gitManager);
 
@@ -187,4 +200,16 @@ public class CollectionRepositoryTest {
 		assertNotNull(captured.titleImage);
 		assertTrue(captured.titleImage.endsWith(".gif"), "Extension should be .gif but was " + captured.titleImage);
 	}
+
+	@Test
+	public void testDecodeImage() {
+		CollectionRepository.Image image = CollectionRepository.decodeImage("data:image/jpeg;base64,AAEC");
+		assertNotNull(image);
+		assertEquals("jpg", image.extension());
+		assertArrayEquals(new byte[] { 0, 1, 2 }, image.data());
+
+		assertNull(CollectionRepository.decodeImage(null));
+		assertNull(CollectionRepository.decodeImage("https://example.com/image.png"));
+		assertNull(CollectionRepository.decodeImage("data:image/bmp;base64,AAEC"));
+	}
 }
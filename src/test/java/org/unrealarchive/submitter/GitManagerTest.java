@@ -0,0 +1,170 @@
+package org.unrealarchive.submitter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GitManagerTest {
+
+	private static final List<String> SPARSE = List.of("content", "authors");
+
+	@TempDir
+	Path tmp;
+
+	private Path upstream;
+	private String url;
+
+	@BeforeEach
+	public void setup() throws Exception {
+		final Path remote = Files.createDirectories(tmp.resolve("org/data.git"));
+		Git.init().setBare(true).setInitialBranch(GitManager.GIT_DEFAULT_BRANCH).setDirectory(remote.toFile()).call().close();
+		url = remote.toUri().toString().replaceAll("/$", "");
+
+		upstream = tmp.resolve("upstream");
+		Git.cloneRepository().setURI(url).setDirectory(upstream.toFile()).call().close();
+		upstream("Initial", Map.of(
+			"content/a/one.yml", "one",
+			"authors/author.yml", "author",
+			"docs/readme.md", "readme"
+		), List.of());
+	}
+
+	@Test
+	public void testSparseClone() throws Exception {
+		final Path clone = tmp.resolve("clone");
+		try (GitManager gitManager = new GitManager(url, "user", "pass", "user@example.com", "", clone, true,
+													GitManager.CommitMode.OBJECTS, SPARSE)) {
+			assertEquals("one", Files.readString(clone.resolve("content/a/one.yml")));
+			assertTrue(Files.exists(clone.resolve("authors/author.yml")));
+			assertFalse(Files.exists(clone.resolve("docs")));
+
+			// only changes within the sparse paths are written, but all changes are reported
+			upstream("Update", Map.of(
+				"content/a/one.yml", "one changed",
+				"content/b/two.yml", "two",
+				"docs/new.md", "new"
+			), List.of("authors/author.yml"));
+
+			final List<DiffEntry> changes = gitManager.update();
+			assertEquals(4, changes.size());
+			assertEquals("one changed", Files.readString(clone.resolve("content/a/one.yml")));
+			assertEquals("two", Files.readString(clone.resolve("content/b/two.yml")));
+			assertFalse(Files.exists(clone.resolve("authors/author.yml")));
+			assertFalse(Files.exists(clone.resolve("docs")));
+
+			// commits keep the paths which were never written out
+			final List<String> log = new ArrayList<>();
+			try (GitManager.Change change = gitManager.change("sparse-branch", "content")) {
+				Files.createDirectories(clone.resolve("content/c"));
+				Files.writeString(clone.resolve("content/c/three.yml"), "three");
+				change.add(clone.resolve("content/c"));
+				// written at the same time, but not for this change
+				Files.writeString(clone.resolve("content/a/other.yml"), "other");
+				change.commitAndPush("job", log::add, "Add three");
+			}
+			assertFalse(Files.exists(clone.resolve("content/c")));
+			assertEquals("other", Files.readString(clone.resolve("content/a/other.yml")));
+			assertEquals("one changed", Files.readString(clone.resolve("content/a/one.yml")));
+
+			try (Repository remote = Git.open(tmp.resolve("org/data.git").toFile()).getRepository()) {
+				assertEquals("three", read(remote, "refs/heads/sparse-branch", "content/c/three.yml"));
+				assertEquals("one changed", read(remote, "refs/heads/sparse-branch", "content/a/one.yml"));
+				assertEquals("readme", read(remote, "refs/heads/sparse-branch", "docs/readme.md"));
+				try (RevWalk walk = new RevWalk(remote);
+					 TreeWalk other = TreeWalk.forPath(remote, "content/a/other.yml",
+													   walk.parseCommit(remote.resolve("refs/heads/sparse-branch")).getTree())) {
+					assertNull(other);
+				}
+			}
+
+			// only paths within the change's path may be added
+			try (GitManager.Change change = gitManager.change("outside-branch", "content")) {
+				assertThrows(IllegalArgumentException.class, () -> change.add(clone.resolve("authors/author.yml")));
+			}
+		}
+
+		// reopening discards anything left behind, and catches up with upstream
+		Files.writeString(clone.resolve("content/a/left-behind.yml"), "junk");
+		upstream("Another", Map.of("content/a/four.yml", "four"), List.of());
+
+		try (GitManager gitManager = new GitManager(url, "user", "pass", "user@example.com", "", clone, true,
+													GitManager.CommitMode.OBJECTS, SPARSE)) {
+			assertFalse(Files.exists(clone.resolve("content/a/left-behind.yml")));
+			assertEquals("four", Files.readString(clone.resolve("content/a/four.yml")));
+			assertFalse(Files.exists(clone.resolve("docs")));
+			assertEquals(List.of(GitManager.GIT_DEFAULT_BRANCH), gitManager.gitRepo().branchList().call().stream()
+																		   .map(r -> Repository.shortenRefName(r.getName()))
+																		   .toList());
+		}
+	}
+
+	@Test
+	public void testExport() throws Exception {
+		final Path clone = tmp.resolve("clone");
+		try (GitManager gitManager = new GitManager(url, "user", "pass", "user@example.com", "", clone, true,
+													GitManager.CommitMode.OBJECTS, List.of())) {
+			final ObjectId initial = gitManager.head();
+			upstream("Update", Map.of("content/a/one.yml", "one changed"), List.of());
+			gitManager.update();
+
+			// the export is of the commit asked for, not whatever is in the working tree
+			Files.writeString(clone.resolve("content/a/uncommitted.yml"), "uncommitted");
+			final Path export = tmp.resolve("export");
+			gitManager.export(initial, export, "content", "authors");
+
+			assertEquals("one", Files.readString(export.resolve("content/a/one.yml")));
+			assertEquals("author", Files.readString(export.resolve("authors/author.yml")));
+			assertFalse(Files.exists(export.resolve("content/a/uncommitted.yml")));
+			assertFalse(Files.exists(export.resolve("docs")));
+			assertNotEquals(initial, gitManager.head());
+		}
+	}
+
+	@Test
+	public void testSparseRequiresObjectsMode() {
+		assertThrows(IllegalArgumentException.class,
+					 () -> new GitManager(url, "user", "pass", "user@example.com", "", tmp.resolve("clone"), true,
+										  GitManager.CommitMode.WORKTREE, SPARSE));
+	}
+
+	private void upstream(String message, Map<String, String> write, List<String> delete) throws IOException, GitAPIException {
+		try (Git git = Git.open(upstream.toFile())) {
+			for (Map.Entry<String, String> file : write.entrySet()) {
+				Files.createDirectories(upstream.resolve(file.getKey()).getParent());
+				Files.writeString(upstream.resolve(file.getKey()), file.getValue());
+				git.add().addFilepattern(file.getKey()).call();
+			}
+			for (String file : delete) git.rm().addFilepattern(file).call();
+			git.commit().setMessage(message).setAuthor("upstream", "upstream@example.com")
+			   .setCommitter("upstream", "upstream@example.com").call();
+			git.push().call();
+		}
+	}
+
+	private static String read(Repository repo, String ref, String path) throws IOException {
+		try (RevWalk walk = new RevWalk(repo)) {
+			final RevTree tree = walk.parseCommit(repo.resolve(ref)).getTree();
+			try (TreeWalk file = TreeWalk.forPath(repo, path, tree)) {
+				assertNotNull(file, path);
+				return new String(repo.open(file.getObjectId(0)).getBytes());
+			}
+		}
+	}
+}
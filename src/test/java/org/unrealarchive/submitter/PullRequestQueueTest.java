@@ -0,0 +1,105 @@
+package org.unrealarchive.submitter;
+
+import java.io.IOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.kohsuke.github.GHIssueState;
+import org.kohsuke.github.GHPullRequest;
+import org.kohsuke.github.GHPullRequestQueryBuilder;
+import org.kohsuke.github.GHRepository;
+import org.kohsuke.github.HttpException;
+import org.kohsuke.github.PagedIterable;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class PullRequestQueueTest {
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testRetries() throws Exception {
+		final GHRepository repository = mock(GHRepository.class);
+		final GHPullRequest pullRequest = mock(GHPullRequest.class);
+		when(pullRequest.getHtmlUrl()).thenReturn(URI.create("https://github.com/org/repo/pull/1").toURL());
+
+		// creating fails once, labelling twice
+		when(repository.createPullRequest(anyString(), anyString(), anyString(), anyString()))
+			.thenThrow(new IOException("timed out"))
+			.thenReturn(pullRequest);
+		doThrow(new IOException("not yet")).doThrow(new IOException("not yet")).doNothing()
+										  .when(pullRequest).setLabels(any(String[].class));
+
+		// the retry looks for a pull request created by the failed attempt first
+		final GHPullRequestQueryBuilder query = mock(GHPullRequestQueryBuilder.class, RETURNS_SELF);
+		final PagedIterable<GHPullRequest> none = mock(PagedIterable.class);
+		when(repository.queryPullRequests()).thenReturn(query);
+		when(repository.getOwnerName()).thenReturn("org");
+		when(query.list()).thenReturn(none);
+		when(none.toList()).thenReturn(List.of());
+
+		final List<String> log = new ArrayList<>();
+		try (PullRequestQueue queue = new PullRequestQueue(() -> repository, Thread.ofVirtual().factory(),
+														   Duration.ofMillis(10), Duration.ofMillis(10))) {
+			final String url = queue.submit(log::add, "branch", "title", "body", "submitter", "content")
+									.get(10, TimeUnit.SECONDS);
+
+			assertEquals("https://github.com/org/repo/pull/1", url);
+			verify(repository, times(2)).createPullRequest("title", "branch", GitManager.GIT_DEFAULT_BRANCH, "body");
+			verify(pullRequest, times(3)).setLabels("submitter", "content");
+			verify(query).head("org:branch");
+			verify(query).state(GHIssueState.OPEN);
+			assertEquals(List.of("Created Pull Request at https://github.com/org/repo/pull/1"), log);
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testGivesUp() throws Exception {
+		final GHRepository repository = mock(GHRepository.class);
+		final GHPullRequestQueryBuilder query = mock(GHPullRequestQueryBuilder.class, RETURNS_SELF);
+		final PagedIterable<GHPullRequest> failing = mock(PagedIterable.class);
+		when(repository.queryPullRequests()).thenReturn(query);
+		when(query.list()).thenReturn(failing);
+		when(failing.toList()).thenThrow(new IOException("still down"));
+		when(repository.createPullRequest(anyString(), anyString(), anyString(), anyString())).thenThrow(new IOException("down"));
+
+		try (PullRequestQueue queue = new PullRequestQueue(() -> repository, Thread.ofVirtual().factory(),
+														   Duration.ofMillis(1), Duration.ofMillis(1))) {
+			final ExecutionException failed = assertThrows(ExecutionException.class,
+														   () -> queue.submit(s -> {}, "branch", "title", "body").get(10, TimeUnit.SECONDS));
+			assertInstanceOf(IOException.class, failed.getCause());
+		}
+	}
+
+	@Test
+	public void testRetryDelay() {
+		try (PullRequestQueue queue = new PullRequestQueue(() -> mock(GHRepository.class), Thread.ofVirtual().factory(),
+														   Duration.ofSeconds(5), Duration.ofSeconds(1))) {
+			assertEquals(Duration.ofSeconds(5), queue.retryDelay(new IOException(), 1));
+			assertEquals(Duration.ofSeconds(20), queue.retryDelay(new IOException(), 3));
+			assertEquals(Duration.ofMinutes(5), queue.retryDelay(new IOException(), 30));
+
+			final HttpException secondary = mock(HttpException.class);
+			when(secondary.getResponseHeaderFields()).thenReturn(Map.of("retry-after", List.of("60")));
+			assertEquals(Duration.ofSeconds(60), queue.retryDelay(secondary, 1));
+
+			final HttpException primary = mock(HttpException.class);
+			final long reset = System.currentTimeMillis() / 1000 + 120;
+			when(primary.getResponseHeaderFields()).thenReturn(Map.of(
+				"X-RateLimit-Remaining", List.of("0"), "X-RateLimit-Reset", List.of(Long.toString(reset))
+			));
+			final Duration untilReset = queue.retryDelay(primary, 1);
+			assertTrue(untilReset.compareTo(Duration.ofSeconds(110)) > 0 && untilReset.compareTo(Duration.ofSeconds(125)) < 0);
+		}
+	}
+}
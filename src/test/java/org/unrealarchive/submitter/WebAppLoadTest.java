@@ -0,0 +1,434 @@
+package org.unrealarchive.submitter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.unrealarchive.content.addons.Addon;
+import org.unrealarchive.indexing.IndexResult;
+import org.unrealarchive.submitter.clam.ClamScan;
+import org.unrealarchive.submitter.submit.CollectionProcessor;
+import org.unrealarchive.submitter.submit.CollectionSubmissions;
+import org.unrealarchive.submitter.submit.SubmissionProcessor;
+import org.unrealarchive.submitter.submit.Submissions;
+import org.unrealarchive.submitter.upload.UploadAdmission;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Drives an in-process web service with a mix of uploads, job log polls,
+ * collection submissions and status page requests from many concurrent
+ * clients, and reports throughput, latency percentiles and error rates for
+ * each kind of request.
+ * <p>
+ * Submissions are processed by the real processors, with virus scanning,
+ * content scanning, indexing and collection submission replaced by stubs
+ * which take a configurable time, so nothing outside the machine is needed.
+ * <p>
+ * Not run with the other tests. Run with {@code ./gradlew loadTest}, and see
+ * {@link Settings} for what can be configured.
+ */
+@Tag("load")
+public class WebAppLoadTest {
+
+	private static final int APP_PORT = 59974 + (int)(Math.random() * 1000);
+	// recently created jobs which clients poll the logs of
+	private static final int RECENT_JOBS = 256;
+
+	private enum Op {
+		UPLOAD,
+		POLL,
+		COLLECTION,
+		STATUS
+	}
+
+	private enum Outcome {
+		OK,
+		REJECTED,
+		ERROR
+	}
+
+	@TempDir
+	Path tmp;
+
+	private final AtomicReferenceArray<String> recentJobs = new AtomicReferenceArray<>(RECENT_JOBS);
+	private final AtomicLong jobCount = new AtomicLong();
+	private final Map<String, Integer> logNext = new ConcurrentHashMap<>();
+	private final AtomicLong uploadCount = new AtomicLong();
+
+	@Test
+	void load() throws Exception {
+		final Settings settings = Settings.fromProperties();
+		System.out.println(settings);
+
+		final Path uploadPath = Files.createDirectories(tmp.resolve("upload"));
+		final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+		try (SubmissionProcessor processor = new SubmissionProcessor(contentRepository(settings), clamScan(settings), settings.queueSize,
+																	 settings.virusWorkers, settings.scanWorkers,
+																	 settings.executionMode, executor, tmp.resolve("jobs"));
+			 CollectionProcessor collections = new CollectionProcessor(collectionRepository(settings), settings.queueSize,
+																	   settings.executionMode, executor);
+			 WebApp ignored = new WebApp(InetSocketAddress.createUnresolved("127.0.0.1", APP_PORT),
+										 processor, collections, uploadPath, "*", null, settings.executionMode,
+										 settings.admission
+											 ? new UploadAdmission(processor::load, uploadPath, 0, Duration.ofMinutes(15))
+											 : null);
+			 HttpClient client = HttpClient.newBuilder()
+										   .version(HttpClient.Version.HTTP_1_1)
+										   .connectTimeout(Duration.ofSeconds(10))
+										   .build();
+			 ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+
+			final long start = System.nanoTime();
+			final long measureFrom = start + settings.warmup.toNanos();
+			final long until = measureFrom + settings.duration.toNanos();
+
+			final List<Recorder> recorders = new ArrayList<>();
+			for (int i = 0; i < settings.clients; i++) {
+				final Recorder recorder = new Recorder();
+				recorders.add(recorder);
+				final SplittableRandom random = new SplittableRandom(settings.seed + i);
+				clients.submit(() -> run(client, settings, random, recorder, measureFrom, until));
+			}
+
+			clients.shutdown();
+			assertTrue(clients.awaitTermination(settings.duration.plus(settings.warmup).toSeconds() + 120, TimeUnit.SECONDS),
+					   "Clients did not finish");
+
+			final String report = report(settings, recorders);
+			System.out.println(report);
+			if (settings.report != null) {
+				Files.createDirectories(settings.report.toAbsolutePath().getParent());
+				Files.writeString(settings.report, settings + "\n\n" + report);
+			}
+
+			long total = 0;
+			long errors = 0;
+			for (Recorder r : recorders) {
+				for (Op op : Op.values()) {
+					total += r.count(op);
+					errors += r.errors.get(op);
+				}
+			}
+			assertTrue(total > 0, "No requests were made");
+			assertTrue((double)errors / total <= settings.maxErrorRate,
+					   String.format("Error rate %.4f exceeded %.4f", (double)errors / total, settings.maxErrorRate));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void run(HttpClient client, Settings settings, SplittableRandom random, Recorder recorder, long measureFrom, long until) {
+		while (System.nanoTime() < until) {
+			Op op = settings.pick(random);
+			int slot = -1;
+			if (op == Op.POLL) {
+				slot = jobCount.get() == 0 ? -1 : random.nextInt((int)Math.min(jobCount.get(), RECENT_JOBS));
+				// nothing to poll until something has been uploaded
+				if (slot < 0 || recentJobs.get(slot) == null) op = Op.UPLOAD;
+			}
+
+			final long start = System.nanoTime();
+			Outcome outcome;
+			try {
+				outcome = switch (op) {
+					case UPLOAD -> upload(client, settings, random);
+					case POLL -> poll(client, slot);
+					case COLLECTION -> collection(client);
+					case STATUS -> status(client);
+				};
+			} catch (IOException e) {
+				outcome = Outcome.ERROR;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			if (start >= measureFrom) recorder.record(op, System.nanoTime() - start, outcome);
+		}
+	}
+
+	private Outcome upload(HttpClient client, Settings settings, SplittableRandom random) throws IOException, InterruptedException {
+		final String boundary = "load-" + Long.toHexString(random.nextLong());
+		// every upload's content is different, so none are treated as repeats of an earlier one
+		final byte[] content = new byte[settings.uploadBytes];
+		random.nextBytes(content);
+
+		final ByteArrayOutputStream body = new ByteArrayOutputStream(settings.uploadBytes + 256);
+		body.writeBytes(String.format("--%s\r\nContent-Disposition: form-data; name=\"files\"; filename=\"upload%d.zip\"\r\n"
+									  + "Content-Type: application/zip\r\n\r\n", boundary, uploadCount.incrementAndGet())
+								.getBytes(StandardCharsets.UTF_8));
+		body.writeBytes(content);
+		body.writeBytes(String.format("\r\n--%s--\r\n", boundary).getBytes(StandardCharsets.UTF_8));
+
+		final HttpResponse<String> res = client.send(
+			request("/upload").header("Content-Type", "multipart/form-data; boundary=" + boundary)
+							  .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+							  .build(),
+			HttpResponse.BodyHandlers.ofString()
+		);
+
+		final Outcome outcome = outcome(res.statusCode());
+		if (outcome == Outcome.OK) {
+			final String jobId = res.body().replace("\"", "").strip();
+			recentJobs.set((int)(jobCount.getAndIncrement() % RECENT_JOBS), jobId);
+		}
+		return outcome;
+	}
+
+	/**
+	 * Long-poll a recently created job's log, following on from where the
+	 * last poll of it left off.
+	 * <p>
+	 * A poll which times out with nothing new is taken to mean the job has
+	 * finished, and the job is not polled again, as a browser would stop
+	 * polling a finished job.
+	 */
+	private Outcome poll(HttpClient client, int slot) throws IOException, InterruptedException {
+		final String jobId = recentJobs.get(slot);
+		if (jobId == null) return Outcome.OK;
+
+		final HttpResponse<String> res = client.send(
+			request(String.format("/job/%s?since=%d", jobId, logNext.getOrDefault(jobId, 0))).GET().build(),
+			HttpResponse.BodyHandlers.ofString()
+		);
+		res.headers().firstValue("X-Log-Next").ifPresent(next -> logNext.merge(jobId, Integer.parseInt(next), Math::max));
+		if (res.statusCode() == 200 && res.body().strip().equals("[]") && recentJobs.compareAndSet(slot, jobId, null)) {
+			logNext.remove(jobId);
+		}
+		return outcome(res.statusCode());
+	}
+
+	private Outcome collection(HttpClient client) throws IOException, InterruptedException {
+		final String body = """
+			{"title": "Load Test", "description": "A collection", "author": "Load", "links": {},
+			 "createdDate": "2026-01-01", "items": [{"reference": "abc", "title": "Item"}]}
+			""";
+		final HttpResponse<String> res = client.send(
+			request("/submit/collection").header("Content-Type", "application/json")
+										 .POST(HttpRequest.BodyPublishers.ofString(body))
+										 .build(),
+			HttpResponse.BodyHandlers.ofString()
+		);
+		return outcome(res.statusCode());
+	}
+
+	private Outcome status(HttpClient client) throws IOException, InterruptedException {
+		return outcome(client.send(request("/status").GET().build(), HttpResponse.BodyHandlers.discarding()).statusCode());
+	}
+
+	private static HttpRequest.Builder request(String path) {
+		return HttpRequest.newBuilder()
+						  .uri(URI.create("http://127.0.0.1:" + APP_PORT + path))
+						  .timeout(Duration.ofSeconds(60));
+	}
+
+	private static Outcome outcome(int status) {
+		if (status >= 200 && status < 300) return Outcome.OK;
+		if (status == 429 || status == 503) return Outcome.REJECTED;
+		return Outcome.ERROR;
+	}
+
+	private static ClamScan clamScan(Settings settings) {
+		return new ClamScan() {
+			@Override
+			protected ClamResult scanPaths(Submissions.Job job, Path[] paths) throws InterruptedException {
+				Thread.sleep(settings.virusDelay);
+				return ClamResult.OK;
+			}
+		};
+	}
+
+	@SuppressWarnings("unchecked")
+	private static ContentRepository contentRepository(Settings settings) throws Exception {
+		final Set<IndexResult<? extends Addon>> indexed = Set.of(mock(IndexResult.class));
+
+		final ContentRepository repo = mock(ContentRepository.class);
+		when(repo.scan(any(), any(Path[].class))).thenAnswer(i -> {
+			Thread.sleep(settings.scanDelay);
+			i.<Submissions.Job>getArgument(0).log(Submissions.JobState.SCANNED, "Scan completed");
+			return Set.of();
+		});
+		when(repo.submit(any(), any(Path[].class))).thenAnswer(i -> {
+			Thread.sleep(settings.indexDelay);
+			return new ContentRepository.SubmitResult(indexed, CompletableFuture.completedFuture("https://example.com/pull/1"));
+		});
+		return repo;
+	}
+
+	private static CollectionRepository collectionRepository(Settings settings) throws Exception {
+		final CollectionRepository repo = mock(CollectionRepository.class);
+		doAnswer(i -> {
+			Thread.sleep(settings.collectionDelay);
+			i.<CollectionSubmissions.Job>getArgument(0).log(CollectionSubmissions.JobState.COMPLETED, "Submission completed");
+			return null;
+		}).when(repo).submit(any());
+		return repo;
+	}
+
+	private static String report(Settings settings, List<Recorder> recorders) {
+		final double seconds = settings.duration.toMillis() / 1000d;
+		final StringBuilder out = new StringBuilder();
+		out.append(String.format("%-12s %9s %9s %9s %9s %9s %9s %9s%n",
+								 "Request", "Count", "Req/s", "p50 ms", "p95 ms", "p99 ms", "Rejected", "Errors"));
+
+		for (Op op : Op.values()) {
+			final long[] latencies = recorders.stream()
+											  .flatMapToLong(r -> Arrays.stream(r.latencies.get(op), 0, r.count(op)))
+											  .sorted()
+											  .toArray();
+			final long rejected = recorders.stream().mapToLong(r -> r.rejected.get(op)).sum();
+			final long errors = recorders.stream().mapToLong(r -> r.errors.get(op)).sum();
+			out.append(String.format("%-12s %9d %9.1f %9.1f %9.1f %9.1f %8.2f%% %8.2f%%%n",
+									 op.name().toLowerCase(), latencies.length, latencies.length / seconds,
+									 percentile(latencies, 0.50), percentile(latencies, 0.95), percentile(latencies, 0.99),
+									 rate(rejected, latencies.length), rate(errors, latencies.length)));
+		}
+		return out.toString();
+	}
+
+	/**
+	 * @return the percentile of sorted latencies in nanoseconds, in
+	 * 	milliseconds
+	 */
+	private static double percentile(long[] sorted, double p) {
+		if (sorted.length == 0) return 0;
+		final int i = Math.clamp((long)Math.ceil(p * sorted.length) - 1, 0, sorted.length - 1);
+		return sorted[i] / 1_000_000d;
+	}
+
+	private static double rate(long count, long total) {
+		return total == 0 ? 0 : 100d * count / total;
+	}
+
+	/**
+	 * Results of one client's requests, only touched by that client until it
+	 * has finished.
+	 */
+	private static class Recorder {
+
+		private final Map<Op, long[]> latencies = new EnumMap<>(Op.class);
+		private final Map<Op, Integer> counts = new EnumMap<>(Op.class);
+		private final Map<Op, Long> rejected = new EnumMap<>(Op.class);
+		private final Map<Op, Long> errors = new EnumMap<>(Op.class);
+
+		private Recorder() {
+			for (Op op : Op.values()) {
+				latencies.put(op, new long[1024]);
+				counts.put(op, 0);
+				rejected.put(op, 0L);
+				errors.put(op, 0L);
+			}
+		}
+
+		private void record(Op op, long nanos, Outcome outcome) {
+			final int count = counts.get(op);
+			long[] values = latencies.get(op);
+			if (count == values.length) {
+				values = Arrays.copyOf(values, values.length * 2);
+				latencies.put(op, values);
+			}
+			values[count] = nanos;
+			counts.put(op, count + 1);
+
+			if (outcome == Outcome.REJECTED) rejected.merge(op, 1L, Long::sum);
+			else if (outcome == Outcome.ERROR) errors.merge(op, 1L, Long::sum);
+		}
+
+		private int count(Op op) {
+			return counts.get(op);
+		}
+	}
+
+	/**
+	 * Load test settings, read from {@code load.*} system properties, which
+	 * the {@code loadTest} task passes on from {@code -Pload.*} project
+	 * properties.
+	 *
+	 * @param clients      how many clients make requests at once, each
+	 *                     waiting for a response before its next request
+	 * @param mix          relative weights of each kind of request, eg.
+	 *                     {@code upload=1,poll=4,collection=1,status=1}
+	 * @param uploadBytes  the size of each uploaded file
+	 * @param virusDelay   how long stubbed virus scans take
+	 * @param scanDelay    how long stubbed content scans take
+	 * @param indexDelay   how long stubbed indexing and submission takes
+	 * @param maxErrorRate fails the test if exceeded, rejected requests are
+	 *                     not counted as errors
+	 * @param report       if set, where the report is written to
+	 */
+	private record Settings(Duration duration, Duration warmup, int clients, Map<Op, Integer> mix, int uploadBytes,
+							long virusDelay, long scanDelay, long indexDelay, long collectionDelay, int queueSize,
+							int virusWorkers, int scanWorkers, ExecutionMode executionMode, boolean admission, long seed,
+							double maxErrorRate, Path report) {
+
+		private static Settings fromProperties() {
+			final Map<Op, Integer> mix = new EnumMap<>(Op.class);
+			for (String weight : System.getProperty("load.mix", "upload=1,poll=4,collection=1,status=1").split(",")) {
+				final String[] parts = weight.split("=");
+				mix.put(Op.valueOf(parts[0].strip().toUpperCase()), Integer.parseInt(parts[1].strip()));
+			}
+
+			final String report = System.getProperty("load.report");
+			return new Settings(
+				Duration.ofSeconds(Long.getLong("load.duration", 30)),
+				Duration.ofSeconds(Long.getLong("load.warmup", 5)),
+				Integer.getInteger("load.clients", 32),
+				mix,
+				Integer.getInteger("load.uploadBytes", 256 * 1024),
+				Long.getLong("load.virusDelay", 20),
+				Long.getLong("load.scanDelay", 50),
+				Long.getLong("load.indexDelay", 100),
+				Long.getLong("load.collectionDelay", 100),
+				Integer.getInteger("load.queueSize", 50),
+				Integer.getInteger("load.virusWorkers", 2),
+				Integer.getInteger("load.scanWorkers", Runtime.getRuntime().availableProcessors()),
+				ExecutionMode.fromEnv(System.getProperty("load.executionMode")),
+				Boolean.parseBoolean(System.getProperty("load.admission", "true")),
+				Long.getLong("load.seed", 42),
+				Double.parseDouble(System.getProperty("load.maxErrorRate", "0.01")),
+				report == null || report.isBlank() ? null : Path.of(report)
+			);
+		}
+
+		private Op pick(SplittableRandom random) {
+			final int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+			int n = random.nextInt(total);
+			for (Map.Entry<Op, Integer> e : mix.entrySet()) {
+				n -= e.getValue();
+				if (n < 0) return e.getKey();
+			}
+			throw new IllegalStateException("Empty request mix");
+		}
+	}
+}
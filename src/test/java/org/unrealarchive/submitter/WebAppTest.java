@@ -8,19 +8,23 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 
+import org.unrealarchive.common.ArchiveUtil;
 import org.unrealarchive.content.addons.SimpleAddonType;
 import org.unrealarchive.submitter.submit.CollectionProcessor;
 import org.unrealarchive.submitter.submit.SubmissionProcessor;
 import org.unrealarchive.submitter.submit.Submissions;
+import org.unrealarchive.submitter.upload.UploadAdmission;
 
 import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.wildfly.common.Assert.assertFalse;
 
 public class WebAppTest {
 
@@ -38,6 +42,8 @@ public class WebAppTest {
 	void testUploadWithForcedType() throws IOException, InterruptedException {
 		Path uploadPath = Files.createTempDirectory("ua-test-upload");
 
+		Mockito.when(mockProcessor.add(Mockito.any())).thenReturn(true);
+
 		try (WebApp ignored = new WebApp(InetSocketAddress.createUnresolved("127.0.0.1", APP_PORT),
 										 mockProcessor, mockCollectionProcessor, uploadPath, "*")) {
 
@@ -50,18 +56,166 @@ public class WebAppTest {
 										 .header("Content-Type", "multipart/form-data; boundary=" + bp.getBoundary())
 										 .POST(bp.build())
 										 .build();
-			String result;
+			HttpResponse<String> res;
 			try (HttpClient c = HttpClient.newHttpClient()) {
-				result = c.send(req, HttpResponse.BodyHandlers.ofString()).body();
+				res = c.send(req, HttpResponse.BodyHandlers.ofString());
 			}
-			assertFalse(result.isBlank());
+			assertEquals(200, res.statusCode());
 
 			ArgumentCaptor<Submissions.Job> jobCapture = ArgumentCaptor.forClass(Submissions.Job.class);
 			Mockito.verify(mockProcessor).trackJob(jobCapture.capture());
 
 			assertEquals(SimpleAddonType.MAP, jobCapture.getValue().forcedType);
+			assertEquals("\"" + jobCapture.getValue().id + "\"", res.body());
+		} finally {
+			ArchiveUtil.cleanPath(uploadPath);
+		}
+	}
+
+	@Test
+	void testUploadWithUnknownForcedType() throws IOException, InterruptedException {
+		Path uploadPath = Files.createTempDirectory("ua-test-upload");
+
+		try (WebApp ignored = new WebApp(InetSocketAddress.createUnresolved("127.0.0.1", APP_PORT),
+										 mockProcessor, mockCollectionProcessor, uploadPath, "*")) {
+
+			MultiPartBodyPublisher bp = new MultiPartBodyPublisher();
+			bp.addPart("files", () -> getClass().getResourceAsStream("test.txt"), "test.txt", "text/plain")
+			  .addPart("forceType", "not-a-type");
+
+			HttpRequest req = HttpRequest.newBuilder()
+										 .uri(URI.create("http://127.0.0.1:" + APP_PORT + "/upload"))
+										 .header("Content-Type", "multipart/form-data; boundary=" + bp.getBoundary())
+										 .POST(bp.build())
+										 .build();
+			HttpResponse<String> res;
+			try (HttpClient c = HttpClient.newHttpClient()) {
+				res = c.send(req, HttpResponse.BodyHandlers.ofString());
+			}
+			assertEquals(400, res.statusCode());
+
+			// the received files are gone, rather than left for the next restart
+			try (Stream<Path> uploads = Files.list(uploadPath.resolve("incoming"))) {
+				assertEquals(0, uploads.count());
+			}
+			Mockito.verify(mockProcessor, Mockito.never()).trackJob(Mockito.any());
+		} finally {
+			ArchiveUtil.cleanPath(uploadPath);
+		}
+	}
+
+	@Test
+	void testUploadRejectedWhenQueueFull() throws IOException, InterruptedException {
+		Path uploadPath = Files.createTempDirectory("ua-test-upload");
+
+		// the mock processor never accepts submissions
+		try (WebApp ignored = new WebApp(InetSocketAddress.createUnresolved("127.0.0.1", APP_PORT),
+										 mockProcessor, mockCollectionProcessor, uploadPath, "*")) {
+			HttpResponse<String> res = upload();
+			assertEquals(429, res.statusCode());
+			assertEquals("30", res.headers().firstValue("Retry-After").orElse(null));
+
+			ArgumentCaptor<Submissions.Job> jobCapture = ArgumentCaptor.forClass(Submissions.Job.class);
+			Mockito.verify(mockProcessor).trackJob(jobCapture.capture());
+			assertEquals(Submissions.JobState.FAILED, jobCapture.getValue().state);
 		} finally {
-			Files.deleteIfExists(uploadPath);
+			ArchiveUtil.cleanPath(uploadPath);
+		}
+	}
+
+	@Test
+	void testUploadRejectedBeforeReceiving() throws IOException, InterruptedException {
+		Path uploadPath = Files.createTempDirectory("ua-test-upload");
+
+		final UploadAdmission admission = new UploadAdmission(
+			() -> new SubmissionProcessor.Load(5, 0, Duration.ofMinutes(1)), uploadPath, 0, Duration.ofHours(1)
+		);
+		try (WebApp ignored = new WebApp(InetSocketAddress.createUnresolved("127.0.0.1", APP_PORT),
+										 mockProcessor, mockCollectionProcessor, uploadPath, "*", null, ExecutionMode.PLATFORM,
+										 admission)) {
+			HttpResponse<String> res = upload();
+			assertEquals(429, res.statusCode());
+			assertEquals("12", res.headers().firstValue("Retry-After").orElse(null));
+
+			Mockito.verify(mockProcessor, Mockito.never()).trackJob(Mockito.any());
+		} finally {
+			ArchiveUtil.cleanPath(uploadPath);
+		}
+	}
+
+	@Test
+	void testUploadBeyondReservedSize() throws IOException, InterruptedException {
+		Path uploadPath = Files.createTempDirectory("ua-test-upload");
+
+		// test uploads are sent chunked, so reserve less than the body for them
+		final UploadAdmission admission = new UploadAdmission(
+			() -> new SubmissionProcessor.Load(0, 5, Duration.ZERO), uploadPath, 0, Duration.ofHours(1), 64
+		);
+		try (WebApp ignored = new WebApp(InetSocketAddress.createUnresolved("127.0.0.1", APP_PORT),
+										 mockProcessor, mockCollectionProcessor, uploadPath, "*", null, ExecutionMode.PLATFORM,
+										 admission)) {
+			HttpResponse<String> res = upload();
+			assertEquals(413, res.statusCode());
+
+			try (Stream<Path> uploads = Files.list(uploadPath.resolve("incoming"))) {
+				assertEquals(0, uploads.count());
+			}
+			Mockito.verify(mockProcessor, Mockito.never()).trackJob(Mockito.any());
+		} finally {
+			ArchiveUtil.cleanPath(uploadPath);
+		}
+	}
+
+	@Test
+	void testClientNotTakenFromForwardedHeader() throws IOException, InterruptedException {
+		Path uploadPath = Files.createTempDirectory("ua-test-upload");
+
+		try (WebApp ignored = new WebApp(InetSocketAddress.createUnresolved("127.0.0.1", APP_PORT),
+										 mockProcessor, mockCollectionProcessor, uploadPath, "*")) {
+			upload("203.0.113.7");
+
+			ArgumentCaptor<SubmissionProcessor.PendingSubmission> captor = ArgumentCaptor.forClass(SubmissionProcessor.PendingSubmission.class);
+			Mockito.verify(mockProcessor).add(captor.capture());
+			assertEquals("127.0.0.1", captor.getValue().client());
+		} finally {
+			ArchiveUtil.cleanPath(uploadPath);
+		}
+	}
+
+	@Test
+	void testClientForwardedByTrustedProxy() throws IOException, InterruptedException {
+		Path uploadPath = Files.createTempDirectory("ua-test-upload");
+
+		try (WebApp ignored = new WebApp(InetSocketAddress.createUnresolved("127.0.0.1", APP_PORT),
+										 mockProcessor, mockCollectionProcessor, uploadPath, "*", null, ExecutionMode.PLATFORM,
+										 null, Set.of("127.0.0.1", "10.0.0.2"))) {
+			// the leftmost address was made up by the client, the rest were appended by proxies
+			upload("203.0.113.7, 198.51.100.4, 10.0.0.2");
+
+			ArgumentCaptor<SubmissionProcessor.PendingSubmission> captor = ArgumentCaptor.forClass(SubmissionProcessor.PendingSubmission.class);
+			Mockito.verify(mockProcessor).add(captor.capture());
+			assertEquals("198.51.100.4", captor.getValue().client());
+			assertEquals("198.51.100.4", captor.getValue().job().client);
+		} finally {
+			ArchiveUtil.cleanPath(uploadPath);
+		}
+	}
+
+	private HttpResponse<String> upload() throws IOException, InterruptedException {
+		return upload(null);
+	}
+
+	private HttpResponse<String> upload(String forwardedFor) throws IOException, InterruptedException {
+		MultiPartBodyPublisher bp = new MultiPartBodyPublisher();
+		bp.addPart("files", () -> getClass().getResourceAsStream("test.txt"), "test.txt", "text/plain");
+
+		HttpRequest.Builder req = HttpRequest.newBuilder()
+											 .uri(URI.create("http://127.0.0.1:" + APP_PORT + "/upload"))
+											 .header("Content-Type", "multipart/form-data; boundary=" + bp.getBoundary())
+											 .POST(bp.build());
+		if (forwardedFor != null) req.header("X-Forwarded-For", forwardedFor);
+		try (HttpClient c = HttpClient.newHttpClient()) {
+			return c.send(req.build(), HttpResponse.BodyHandlers.ofString());
 		}
 	}
 }
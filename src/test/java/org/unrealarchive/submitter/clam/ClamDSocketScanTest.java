@@ -0,0 +1,86 @@
+package org.unrealarchive.submitter.clam;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.unrealarchive.submitter.submit.Submissions;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClamDSocketScanTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	public void testCleanAndInfectedFiles() throws Exception {
+		Path clean = Files.writeString(tempDir.resolve("clean.txt"), "nothing to see here");
+		Path infected = Files.writeString(tempDir.resolve("infected.txt"), "some EICAR test content");
+
+		try (FakeClamD clamd = new FakeClamD(tempDir.resolve("clamd.sock"));
+			 ClamDSocketScan scan = new ClamDSocketScan(clamd.socketPath)) {
+
+			Submissions.Job cleanJob = new Submissions.Job(null);
+			assertEquals(ClamScan.ClamResult.OK, scan.scan(cleanJob, clean));
+			assertEquals(Submissions.JobState.VIRUS_FREE, cleanJob.state);
+
+			Submissions.Job infectedJob = new Submissions.Job(null);
+			assertEquals(ClamScan.ClamResult.VIRUS, scan.scan(infectedJob, clean, infected));
+			assertEquals(Submissions.JobState.VIRUS_FOUND, infectedJob.state);
+			assertTrue(infectedJob.log().stream().anyMatch(l -> l.message.contains(FakeClamD.SIGNATURE)));
+
+			// sequential scans should all have shared one pooled session
+			assertEquals(3, clamd.scans.get());
+			assertEquals(1, clamd.connections.get());
+		}
+	}
+
+	@Test
+	public void testLargeFilesScannedByPath() throws Exception {
+		Path infected = Files.writeString(tempDir.resolve("infected.txt"), "some EICAR test content");
+
+		try (FakeClamD clamd = new FakeClamD(tempDir.resolve("clamd.sock"));
+			 ClamDSocketScan scan = new ClamDSocketScan(clamd.socketPath, 1, 4)) {
+
+			ClamDSocketScan.Verdict verdict = scan.scanFile(infected);
+			assertEquals(ClamScan.ClamResult.VIRUS, verdict.result());
+			assertEquals(FakeClamD.SIGNATURE, verdict.detail());
+		}
+	}
+
+	@Test
+	public void testCachedVerdicts() throws Exception {
+		Path clean = Files.writeString(tempDir.resolve("clean.txt"), "nothing to see here");
+		Path cacheFile = tempDir.resolve("verdicts.tsv");
+
+		try (FakeClamD clamd = new FakeClamD(tempDir.resolve("clamd.sock"));
+			 ClamDSocketScan scan = new ClamDSocketScan(clamd.socketPath);
+			 ClamVerdictCache cache = new ClamVerdictCache(cacheFile, 10)) {
+			scan.withVerdictCache(cache);
+
+			assertEquals(ClamScan.ClamResult.OK, scan.scan(new Submissions.Job(null), new String[] { "abc123" }, clean));
+			assertEquals(ClamScan.ClamResult.OK, scan.scan(new Submissions.Job(null), new String[] { "abc123" }, clean));
+			assertEquals(1, clamd.scans.get());
+		}
+
+		// cached verdicts survive a restart, but not a signature update
+		try (ClamVerdictCache cache = new ClamVerdictCache(cacheFile, 10)) {
+			assertEquals(ClamScan.ClamResult.OK, cache.get("abc123", "27000").orElseThrow());
+			assertTrue(cache.get("abc123", "27001").isEmpty());
+			assertEquals(0, cache.size());
+		}
+	}
+
+	@Test
+	public void testParseReplies() {
+		assertEquals(ClamScan.ClamResult.OK, ClamDSocketScan.Verdict.parse("1: stream: OK").result());
+		assertEquals(ClamScan.ClamResult.ERROR, ClamDSocketScan.Verdict.parse("2: INSTREAM size limit exceeded. ERROR").result());
+
+		ClamDSocketScan.Verdict found = ClamDSocketScan.Verdict.parse("3: /tmp/some: file.zip: Win.Trojan.Agent-1 FOUND");
+		assertEquals(ClamScan.ClamResult.VIRUS, found.result());
+		assertEquals("Win.Trojan.Agent-1", found.detail());
+	}
+}
@@ -0,0 +1,129 @@
+package org.unrealarchive.submitter.clam;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal clamd stand-in listening on a UNIX domain socket, supporting
+ * enough of the session protocol to exercise {@link ClamDSocketScan}.
+ * <p>
+ * Any streamed content containing the text "EICAR" is reported as infected.
+ */
+public class FakeClamD implements Closeable {
+
+	public static final String SIGNATURE = "Eicar-Test-Signature";
+
+	public final Path socketPath;
+	public final AtomicInteger connections = new AtomicInteger();
+	public final AtomicInteger scans = new AtomicInteger();
+
+	private final ServerSocketChannel server;
+	private final Thread acceptor;
+
+	public FakeClamD(Path socketPath) throws IOException {
+		this.socketPath = socketPath;
+		this.server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		this.server.bind(UnixDomainSocketAddress.of(socketPath));
+		this.acceptor = Thread.ofPlatform().daemon().name("fake-clamd").start(this::accept);
+	}
+
+	private void accept() {
+		while (server.isOpen()) {
+			try {
+				SocketChannel client = server.accept();
+				connections.incrementAndGet();
+				Thread.ofPlatform().daemon().start(() -> session(client));
+			} catch (IOException e) {
+				return;
+			}
+		}
+	}
+
+	private void session(SocketChannel client) {
+		try (client) {
+			int id = 0;
+			while (true) {
+				String command = readCommand(client);
+				switch (command) {
+					case "zIDSESSION" -> {}
+					case "zEND" -> {
+						return;
+					}
+					case "zVERSION" -> reply(client, ++id, "ClamAV 1.0.0/27000/Mon Jan  1 00:00:00 2024");
+					case "zINSTREAM" -> {
+						scans.incrementAndGet();
+						String content = readStream(client);
+						reply(client, ++id, content.contains("EICAR") ? "stream: " + SIGNATURE + " FOUND" : "stream: OK");
+					}
+					default -> {
+						if (command.startsWith("zSCAN ")) {
+							scans.incrementAndGet();
+							String path = command.substring(6);
+							String content = Files.readString(Path.of(path), StandardCharsets.ISO_8859_1);
+							reply(client, ++id, path + (content.contains("EICAR") ? ": " + SIGNATURE + " FOUND" : ": OK"));
+						} else {
+							reply(client, ++id, "UNKNOWN COMMAND");
+							return;
+						}
+					}
+				}
+			}
+		} catch (IOException e) {
+			// client went away
+		}
+	}
+
+	private String readCommand(SocketChannel client) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ByteBuffer b = ByteBuffer.allocate(1);
+		while (true) {
+			b.clear();
+			if (client.read(b) < 0) throw new EOFException();
+			byte c = b.get(0);
+			if (c == 0) return out.toString(StandardCharsets.US_ASCII);
+			out.write(c);
+		}
+	}
+
+	private String readStream(SocketChannel client) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		while (true) {
+			ByteBuffer len = readFully(client, Integer.BYTES);
+			int size = len.getInt();
+			if (size == 0) return out.toString(StandardCharsets.ISO_8859_1);
+			ByteBuffer chunk = readFully(client, size);
+			out.write(chunk.array(), 0, size);
+		}
+	}
+
+	private ByteBuffer readFully(SocketChannel client, int size) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(size);
+		while (buf.hasRemaining()) {
+			if (client.read(buf) < 0) throw new EOFException();
+		}
+		return buf.flip();
+	}
+
+	private void reply(SocketChannel client, int id, String message) throws IOException {
+		ByteBuffer buf = ByteBuffer.wrap(String.format("%d: %s\0", id, message).getBytes(StandardCharsets.US_ASCII));
+		while (buf.hasRemaining()) client.write(buf);
+	}
+
+	@Override
+	public void close() throws IOException {
+		server.close();
+		acceptor.interrupt();
+		Files.deleteIfExists(socketPath);
+	}
+}
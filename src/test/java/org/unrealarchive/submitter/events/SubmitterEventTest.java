@@ -0,0 +1,57 @@
+package org.unrealarchive.submitter.events;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SubmitterEventTest {
+
+	@TempDir
+	Path tmp;
+
+	@Test
+	public void testFinish() throws Exception {
+		final Path a = Files.write(tmp.resolve("a.zip"), new byte[1000]);
+		final Path b = Files.write(tmp.resolve("b.zip"), new byte[24]);
+
+		final List<RecordedEvent> events;
+		try (Recording recording = new Recording()) {
+			recording.enable(ContentScanEvent.class);
+			recording.disable(VirusScanEvent.class);
+			recording.start();
+
+			final ContentScanEvent event = new ContentScanEvent("job1", a, b);
+			event.begin();
+			event.found = 1;
+			event.finish("SCANNED");
+
+			// not recorded, since it's disabled
+			final VirusScanEvent other = new VirusScanEvent("job1", a);
+			other.begin();
+			other.finish("OK");
+
+			recording.stop();
+			final Path dump = tmp.resolve("recording.jfr");
+			recording.dump(dump);
+			events = RecordingFile.readAllEvents(dump);
+		}
+
+		assertEquals(1, events.size());
+		final RecordedEvent recorded = events.getFirst();
+		assertEquals("org.unrealarchive.submitter.ContentScan", recorded.getEventType().getName());
+		assertEquals(List.of("Unreal Archive", "Submitter"), recorded.getEventType().getCategoryNames());
+		assertEquals("job1", recorded.getString("jobId"));
+		assertEquals(1024, recorded.getLong("bytes"));
+		assertEquals(2, recorded.getInt("files"));
+		assertEquals(1, recorded.getInt("found"));
+		assertEquals("SCANNED", recorded.getString("outcome"));
+	}
+}
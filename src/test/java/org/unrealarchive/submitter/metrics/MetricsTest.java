@@ -0,0 +1,63 @@
+package org.unrealarchive.submitter.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTest {
+
+	@Test
+	public void testWrite() {
+		final Metrics metrics = new Metrics();
+
+		final Metrics.Counter done = metrics.counter("jobs", "Jobs finished", "state", "COMPLETED");
+		final Metrics.Counter failed = metrics.counter("jobs", "Jobs finished", "state", "FAILED");
+		done.inc();
+		done.inc();
+		failed.add(3);
+		// registering again returns the same counter
+		assertSame(done, metrics.counter("jobs", "Jobs finished", "state", "COMPLETED"));
+
+		final Metrics.Histogram latency = metrics.histogram("stage_seconds", "Stage latency", "stage", "scan");
+		latency.observe(TimeUnit.MILLISECONDS.toNanos(3));
+		latency.observe(TimeUnit.MILLISECONDS.toNanos(700));
+		latency.observe(TimeUnit.HOURS.toNanos(1));
+		assertEquals(3, latency.count());
+
+		final AtomicLong depth = new AtomicLong(4);
+		metrics.gauge("queue_depth", "Queue depth", depth::get);
+
+		final StringBuilder out = new StringBuilder();
+		metrics.write(out);
+		final String text = out.toString();
+
+		assertTrue(text.contains("# TYPE jobs counter\n"));
+		assertTrue(text.contains("jobs_total{state=\"COMPLETED\"} 2\n"));
+		assertTrue(text.contains("jobs_total{state=\"FAILED\"} 3\n"));
+
+		assertTrue(text.contains("# TYPE stage_seconds histogram\n"));
+		assertTrue(text.contains("stage_seconds_bucket{stage=\"scan\",le=\"0.005\"} 1\n"));
+		assertTrue(text.contains("stage_seconds_bucket{stage=\"scan\",le=\"0.5\"} 1\n"));
+		assertTrue(text.contains("stage_seconds_bucket{stage=\"scan\",le=\"1.0\"} 2\n"));
+		assertTrue(text.contains("stage_seconds_bucket{stage=\"scan\",le=\"1800.0\"} 2\n"));
+		assertTrue(text.contains("stage_seconds_bucket{stage=\"scan\",le=\"+Inf\"} 3\n"));
+		assertTrue(text.contains("stage_seconds_count{stage=\"scan\"} 3\n"));
+		assertTrue(text.contains("stage_seconds_sum{stage=\"scan\"} 3600.703\n"));
+
+		assertTrue(text.contains("queue_depth 4\n"));
+		depth.set(1);
+		final StringBuilder again = new StringBuilder();
+		metrics.write(again);
+		assertTrue(again.toString().contains("queue_depth 1\n"));
+	}
+
+	@Test
+	public void testTypeMismatch() {
+		final Metrics metrics = new Metrics();
+		metrics.counter("things", "Things");
+		assertThrows(IllegalArgumentException.class, () -> metrics.histogram("things", "Things"));
+	}
+}
@@ -0,0 +1,77 @@
+package org.unrealarchive.submitter.submit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FairQueueTest {
+
+	private static final long MB = 1024 * 1024;
+
+	private record Item(String name, String client, long size) {}
+
+	@Test
+	public void testSmallerFirst() throws InterruptedException {
+		final FairQueue<Item> queue = new FairQueue<>(10, Item::client, Item::size);
+		assertTrue(queue.offer(new Item("big-1", "a", 300 * MB)));
+		assertTrue(queue.offer(new Item("big-2", "a", 300 * MB)));
+		assertTrue(queue.offer(new Item("small-a", "a", 2 * MB)));
+		assertTrue(queue.offer(new Item("small-b", "b", 2 * MB)));
+
+		assertEquals(List.of("small-a", "small-b", "big-1", "big-2"), drain(queue));
+	}
+
+	@Test
+	public void testSharedBetweenClients() throws InterruptedException {
+		final FairQueue<Item> queue = new FairQueue<>(10, Item::client, Item::size);
+		for (int i = 1; i <= 3; i++) queue.offer(new Item("a-" + i, "a", 2 * MB));
+		queue.offer(new Item("b-1", "b", 2 * MB));
+		queue.offer(new Item("b-2", "b", 2 * MB));
+
+		assertEquals(List.of("a-1", "b-1", "a-2", "b-2", "a-3"), drain(queue));
+	}
+
+	@Test
+	public void testLargeNotStarved() throws InterruptedException {
+		final AtomicLong clock = new AtomicLong();
+		final FairQueue<Item> queue = new FairQueue<>(10, Item::client, Item::size, null, clock::get);
+		queue.offer(new Item("big", "a", 300 * MB));
+
+		// a steady supply of small items from new clients, one taken every ten seconds
+		int taken = 0;
+		while (true) {
+			queue.offer(new Item("small", "client-" + taken, 2 * MB));
+			clock.addAndGet(TimeUnit.SECONDS.toMillis(10));
+			taken++;
+			if (queue.poll(0, TimeUnit.SECONDS).name().equals("big")) break;
+			assertTrue(taken < 20, "Large item was starved");
+		}
+		assertTrue(taken > 10, "Large item went ahead too soon");
+	}
+
+	@Test
+	public void testCapacity() throws InterruptedException {
+		final FairQueue<Item> queue = new FairQueue<>(2, Item::client, Item::size);
+		assertTrue(queue.offer(new Item("1", "a", MB)));
+		assertTrue(queue.offer(new Item("2", "b", MB)));
+		assertFalse(queue.offer(new Item("3", "c", MB)));
+		assertEquals(0, queue.remainingCapacity());
+		assertEquals(2, queue.snapshot().size());
+
+		assertNotNull(queue.poll(0, TimeUnit.SECONDS));
+		assertEquals(1, queue.size());
+		assertTrue(queue.offer(new Item("3", "c", MB)));
+	}
+
+	private static List<String> drain(FairQueue<Item> queue) throws InterruptedException {
+		final List<String> names = new ArrayList<>();
+		Item item;
+		while ((item = queue.poll(0, TimeUnit.SECONDS)) != null) names.add(item.name());
+		return names;
+	}
+}
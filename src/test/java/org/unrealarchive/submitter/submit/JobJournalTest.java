@@ -0,0 +1,110 @@
+package org.unrealarchive.submitter.submit;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JobJournalTest {
+
+	private static final Duration RETENTION = Duration.ofHours(1);
+
+	@TempDir
+	Path tmp;
+
+	@Test
+	public void testRecoverJobs() throws IOException {
+		final Submissions.Job job = new Submissions.Job(null, "192.0.2.1");
+		final Submissions.Job other = new Submissions.Job(null);
+
+		// a tiny segment size, to exercise compaction
+		try (JobJournal journal = new JobJournal(tmp, 256, RETENTION)) {
+			assertTrue(journal.recover().isEmpty());
+			journal.start(List.of());
+
+			for (Submissions.Job j : List.of(job, other)) {
+				journal.job(j);
+				for (Submissions.LogEntry entry : j.log) journal.logged(j, j.state, entry);
+			}
+
+			journal.queued(new SubmissionProcessor.PendingSubmission(
+				job, 1234L, "file.zip", new Path[] { tmp.resolve("upload/file.zip") }, new String[] { "abc123" }
+			));
+			job.log(Submissions.JobState.VIRUS_FREE, "No malware found");
+			journal.logged(job, job.state, job.logTail());
+		}
+
+		// full segments were compacted away as they filled
+		assertEquals(1, segments());
+
+		final List<JobJournal.Recovered> recovered;
+		try (JobJournal journal = new JobJournal(tmp, 256, RETENTION)) {
+			recovered = journal.recover();
+			// compact to just the first job
+			journal.start(List.of(recovered.getFirst()));
+		}
+
+		assertEquals(2, recovered.size());
+		final JobJournal.Recovered first = recovered.getFirst();
+		assertEquals(job.id, first.id);
+		assertEquals("192.0.2.1", first.client);
+		assertEquals(Submissions.JobState.VIRUS_FREE, first.state);
+		assertEquals(job.log.size(), first.log.size());
+		assertEquals("No malware found", first.log.getLast().message);
+		assertEquals(List.of(tmp.resolve("upload/file.zip").toString()), first.queued.files());
+		assertEquals(List.of("abc123"), first.queued.hashes());
+		assertNull(recovered.get(1).queued);
+
+		assertEquals(1, segments());
+		try (JobJournal journal = new JobJournal(tmp, 256, RETENTION)) {
+			final List<JobJournal.Recovered> compacted = journal.recover();
+			assertEquals(1, compacted.size());
+			assertEquals(job.id, compacted.getFirst().id);
+			assertEquals("192.0.2.1", compacted.getFirst().client);
+			assertEquals(Submissions.JobState.VIRUS_FREE, compacted.getFirst().state);
+		}
+	}
+
+	@Test
+	public void testCompactionRetiresOldJobs() throws IOException {
+		final long old = System.currentTimeMillis() - RETENTION.toMillis() * 2;
+		final Submissions.Job finished = new Submissions.Job(
+			"finished", List.of(new Submissions.LogEntry(old, "Complete!", null, Submissions.LogType.GOOD)),
+			Submissions.JobState.COMPLETED, null
+		);
+		final Submissions.Job current = new Submissions.Job(null);
+
+		try (JobJournal journal = new JobJournal(tmp, 1024, RETENTION)) {
+			journal.start(List.of());
+			journal.job(finished);
+			journal.logged(finished, finished.state, finished.logTail());
+
+			// enough activity on a current job to fill a few segments
+			journal.job(current);
+			for (int i = 0; i < 50; i++) {
+				current.log("Step " + i);
+				journal.logged(current, current.state, current.logTail());
+			}
+		}
+
+		assertEquals(1, segments());
+		try (JobJournal journal = new JobJournal(tmp, 1024, RETENTION)) {
+			final List<JobJournal.Recovered> recovered = journal.recover();
+			assertEquals(List.of(current.id), recovered.stream().map(r -> r.id).toList());
+			assertEquals(50, recovered.getFirst().log.size());
+		}
+	}
+
+	private long segments() throws IOException {
+		try (Stream<Path> files = Files.list(tmp)) {
+			return files.count();
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package org.unrealarchive.submitter.submit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JobLogTest {
+
+	@Test
+	public void testSequenceAndSince() {
+		final JobLog log = new JobLog();
+		for (int i = 0; i < 200; i++) {
+			assertEquals(i, log.append(new Submissions.LogEntry("entry " + i), false));
+		}
+
+		assertEquals(200, log.size());
+		assertEquals("entry 150", log.get(150).message);
+		assertEquals(50, log.since(150).size());
+		assertEquals("entry 150", log.since(150).getFirst().message);
+		assertTrue(log.since(500).isEmpty());
+		assertThrows(UnsupportedOperationException.class, () -> log.add(new Submissions.LogEntry("nope")));
+	}
+
+	@Test
+	public void testPolls() throws Exception {
+		final JobLog log = new JobLog();
+		log.append(new Submissions.LogEntry("one"), false);
+
+		// independent readers don't steal entries from one another
+		assertEquals(1, log.poll(0).get().size());
+		assertEquals(1, log.poll(0).get().size());
+
+		final CompletableFuture<List<Submissions.LogEntry>> waiting = log.poll(1);
+		final CompletableFuture<List<Submissions.LogEntry>> cancelled = log.poll(1);
+		assertFalse(waiting.isDone());
+		assertTrue(log.cancelPoll(cancelled));
+
+		log.append(new Submissions.LogEntry("two"), false);
+		assertEquals("two", waiting.get().getFirst().message);
+		assertFalse(cancelled.isDone());
+
+		// a reader starting from the beginning sees every entry, whoever else has read them
+		assertEquals(2, log.poll(0).get().size());
+		assertFalse(log.poll(2).isDone());
+
+		// finished jobs return straight away
+		log.append(new Submissions.LogEntry("three"), true);
+		assertTrue(log.poll(3).get().isEmpty());
+	}
+
+	@Test
+	public void testSubscribe() {
+		final JobLog log = new JobLog(List.of(new Submissions.LogEntry("one"), new Submissions.LogEntry("two")));
+		final List<Integer> seen = new ArrayList<>();
+		final List<Boolean> done = new ArrayList<>();
+
+		assertFalse(log.subscribe(1, (seq, entry, d) -> {
+			seen.add(seq);
+			done.add(d);
+		}));
+		log.append(new Submissions.LogEntry("three"), true);
+
+		assertEquals(List.of(1, 2), seen);
+		assertEquals(List.of(false, true), done);
+		assertTrue(log.subscribe(0, (seq, entry, d) -> {}));
+	}
+
+	@Test
+	public void testConcurrentReaders() throws Exception {
+		final JobLog log = new JobLog();
+		final Thread writer = Thread.ofPlatform().start(() -> {
+			for (int i = 0; i < 10_000; i++) log.append(new Submissions.LogEntry("entry " + i), false);
+		});
+
+		while (writer.isAlive()) {
+			final int size = log.size();
+			for (int i = Math.max(0, size - 100); i < size; i++) {
+				assertEquals("entry " + i, log.get(i).message);
+			}
+		}
+		writer.join();
+		assertEquals(10_000, log.size());
+	}
+}
@@ -0,0 +1,72 @@
+package org.unrealarchive.submitter.submit;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.unrealarchive.submitter.ContentRepository;
+import org.unrealarchive.submitter.clam.ClamScan;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class SubmissionProcessorTest {
+
+	@TempDir
+	Path tmp;
+
+	@Test
+	public void testSweepAbandonedUploads() throws Exception {
+		final Path uploads = Files.createDirectories(tmp.resolve("incoming"));
+		final Path queuedFile = Files.createDirectories(uploads.resolve("queued")).resolve("file.zip");
+		Files.writeString(queuedFile, "queued");
+		// received, but the job was never recorded
+		final Path abandonedFile = Files.createDirectories(uploads.resolve("abandoned")).resolve("file.zip");
+		Files.writeString(abandonedFile, "abandoned");
+
+		final Submissions.Job job = new Submissions.Job(null, "192.0.2.1");
+		try (JobJournal journal = new JobJournal(tmp.resolve("jobs/journal"), 1024 * 1024, Duration.ofHours(1))) {
+			journal.start(List.of());
+			journal.job(job);
+			for (Submissions.LogEntry entry : job.log) journal.logged(job, job.state, entry);
+			journal.queued(new SubmissionProcessor.PendingSubmission(
+				job, 1234L, "file.zip", new Path[] { queuedFile }, new String[] { "abc123" }, "192.0.2.1"
+			));
+		}
+
+		// hold the resumed submission in the virus scan, so its files stay put
+		final CountDownLatch scanned = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final ClamScan clamScan = mock(ClamScan.class);
+		when(clamScan.scan(any(), any(String[].class), any(Path[].class))).thenAnswer(i -> {
+			scanned.countDown();
+			release.await();
+			return ClamScan.ClamResult.VIRUS;
+		});
+
+		final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+		try (SubmissionProcessor processor = new SubmissionProcessor(mock(ContentRepository.class), clamScan, 5, executor,
+																	 tmp.resolve("jobs"))) {
+			assertEquals("192.0.2.1", processor.job(job.id).client);
+
+			processor.sweepUploads(uploads);
+			assertTrue(Files.exists(queuedFile));
+			assertFalse(Files.exists(abandonedFile.getParent()));
+
+			assertTrue(scanned.await(10, TimeUnit.SECONDS));
+			release.countDown();
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,33 @@
+package org.unrealarchive.submitter.upload;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LimitedInputStreamTest {
+
+	@Test
+	public void testWithinLimit() throws IOException {
+		// a stream ending exactly at the limit is fine
+		try (InputStream in = new LimitedInputStream(new ByteArrayInputStream(new byte[100]), 100)) {
+			assertEquals(100, in.readAllBytes().length);
+			assertEquals(-1, in.read());
+		}
+	}
+
+	@Test
+	public void testBeyondLimit() throws IOException {
+		try (InputStream in = new LimitedInputStream(new ByteArrayInputStream(new byte[101]), 100)) {
+			assertThrows(LimitedInputStream.LimitExceededException.class, in::readAllBytes);
+		}
+
+		try (InputStream in = new LimitedInputStream(new ByteArrayInputStream(new byte[2]), 1)) {
+			assertEquals(0, in.read());
+			assertThrows(LimitedInputStream.LimitExceededException.class, in::read);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+package org.unrealarchive.submitter.upload;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MultipartStreamTest {
+
+	private static final String BOUNDARY = "XyZ123";
+
+	@Test
+	public void testBoundary() {
+		assertEquals(BOUNDARY, MultipartStream.boundary("multipart/form-data; boundary=" + BOUNDARY));
+		assertEquals("a b;c", MultipartStream.boundary("multipart/form-data; boundary=\"a b;c\"; charset=utf-8"));
+		assertNull(MultipartStream.boundary("multipart/form-data"));
+		assertNull(MultipartStream.boundary(null));
+	}
+
+	@Test
+	public void testParts() throws IOException {
+		final String body = "--" + BOUNDARY + "\r\n"
+							+ "Content-Disposition: form-data; name=\"forceType\"\r\n"
+							+ "\r\n"
+							+ "map\r\n"
+							+ "--" + BOUNDARY + "\r\n"
+							+ "Content-Disposition: form-data; name=\"files\"; filename=\"test.txt\"\r\n"
+							+ "Content-Type: text/plain\r\n"
+							+ "\r\n"
+							+ "hello\r\n"
+							+ "--" + BOUNDARY + "--\r\n";
+
+		final List<Received> parts = parse(body, body.length());
+		assertEquals(2, parts.size());
+		assertEquals("forceType", parts.get(0).part.name());
+		assertFalse(parts.get(0).part.isFile());
+		assertEquals("map", parts.get(0).content());
+		assertEquals("files", parts.get(1).part.name());
+		assertEquals("test.txt", parts.get(1).part.fileName());
+		assertEquals("text/plain", parts.get(1).part.headers().get("content-type"));
+		assertEquals("hello", parts.get(1).content());
+		assertTrue(parts.get(1).ended);
+	}
+
+	@Test
+	public void testSplitAcrossFeeds() throws IOException {
+		// content which almost, but doesn't quite, look like a delimiter
+		final String tricky = "line\r\n--XyZ12\r\n-" + BOUNDARY + "\r\r\n--\r\n";
+		final String body = "preamble, ignored\r\n"
+							+ "--" + BOUNDARY + "  \r\n"
+							+ "Content-Disposition: form-data; name=\"files\"; filename=\"a.txt\"\r\n"
+							+ "\r\n"
+							+ tricky + "\r\n"
+							+ "--" + BOUNDARY + "\r\n"
+							+ "Content-Disposition: form-data; name=\"empty\"\r\n"
+							+ "\r\n"
+							+ "\r\n"
+							+ "--" + BOUNDARY + "--"
+							+ "\r\nepilogue, also ignored\r\n--" + BOUNDARY + "\r\n";
+
+		// every chunk size splits the delimiters, header terminators and closing "--" at some point
+		for (int size = 1; size <= body.length(); size++) {
+			final List<Received> parts = parse(body, size);
+			assertEquals(2, parts.size(), "chunk size " + size);
+			assertEquals("a.txt", parts.get(0).part.fileName());
+			assertEquals(tricky, parts.get(0).content(), "chunk size " + size);
+			assertEquals("empty", parts.get(1).part.name());
+			assertEquals("", parts.get(1).content());
+			assertTrue(parts.get(1).ended);
+		}
+	}
+
+	@Test
+	public void testTrailingLineBreaksInContent() throws IOException {
+		final String body = "--" + BOUNDARY + "\r\n"
+							+ "Content-Disposition: form-data; name=\"files\"; filename=\"crlf.txt\"\r\n"
+							+ "\r\n"
+							+ "\r\n\r\n\r\n"
+							+ "--" + BOUNDARY + "--";
+
+		for (int size = 1; size <= body.length(); size++) {
+			assertEquals("\r\n\r\n", parse(body, size).getFirst().content(), "chunk size " + size);
+		}
+	}
+
+	@Test
+	public void testIncomplete() throws IOException {
+		final String body = "--" + BOUNDARY + "\r\n"
+							+ "Content-Disposition: form-data; name=\"files\"; filename=\"a.txt\"\r\n"
+							+ "\r\n"
+							+ "partial content\r\n"
+							+ "--" + BOUNDARY.substring(0, 3);
+
+		final List<Received> parts = new ArrayList<>();
+		final MultipartStream stream = stream(parts);
+		stream.feed(ByteBuffer.wrap(body.getBytes(StandardCharsets.ISO_8859_1)));
+		assertFalse(stream.done());
+		assertFalse(parts.getFirst().ended);
+	}
+
+	@Test
+	public void testHeadersTooLarge() {
+		final String body = "--" + BOUNDARY + "\r\n"
+							+ "Content-Disposition: form-data; name=\"files\"; filename=\"a.txt\"\r\n"
+							+ "X-Padding: " + "x".repeat(20 * 1024);
+
+		final IOException e = assertThrows(IOException.class, () -> parse(body, 1024));
+		assertEquals("Multipart headers too large", e.getMessage());
+	}
+
+	private static List<Received> parse(String body, int chunkSize) throws IOException {
+		final byte[] bytes = body.getBytes(StandardCharsets.ISO_8859_1);
+		final List<Received> parts = new ArrayList<>();
+		final MultipartStream stream = stream(parts);
+		for (int i = 0; i < bytes.length; i += chunkSize) {
+			stream.feed(ByteBuffer.wrap(bytes, i, Math.min(chunkSize, bytes.length - i)));
+		}
+		assertTrue(stream.done());
+		return parts;
+	}
+
+	private static MultipartStream stream(List<Received> parts) {
+		return new MultipartStream(BOUNDARY, part -> {
+			final Received received = new Received(part);
+			parts.add(received);
+			return received;
+		});
+	}
+
+	private static class Received implements MultipartStream.PartSink {
+
+		private final MultipartStream.Part part;
+		private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+		private boolean ended;
+
+		private Received(MultipartStream.Part part) {
+			this.part = part;
+		}
+
+		@Override
+		public void data(ByteBuffer data) {
+			assertFalse(ended);
+			while (data.hasRemaining()) content.write(data.get());
+		}
+
+		@Override
+		public void end() {
+			ended = true;
+		}
+
+		private String content() {
+			return content.toString(StandardCharsets.ISO_8859_1);
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package org.unrealarchive.submitter.upload;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.unrealarchive.submitter.submit.SubmissionProcessor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UploadAdmissionTest {
+
+	@TempDir
+	Path tmp;
+
+	@Test
+	public void testQueueLimits() {
+		final AtomicReference<SubmissionProcessor.Load> load = new AtomicReference<>(
+			new SubmissionProcessor.Load(0, 5, Duration.ZERO)
+		);
+		final UploadAdmission admission = new UploadAdmission(load::get, tmp, 0, Duration.ofMinutes(10));
+
+		try (UploadAdmission.Decision decision = admission.admit(1024)) {
+			assertTrue(decision.accepted());
+		}
+
+		// full queue, with a minute's worth of work queued across four submissions
+		load.set(new SubmissionProcessor.Load(4, 0, Duration.ofMinutes(1)));
+		final UploadAdmission.Decision full = admission.admit(1024);
+		assertFalse(full.accepted());
+		assertEquals(429, full.status());
+		assertEquals(Duration.ofSeconds(15), full.retryAfter());
+
+		// room in the queue, but too slow
+		load.set(new SubmissionProcessor.Load(4, 1, Duration.ofMinutes(12)));
+		final UploadAdmission.Decision slow = admission.admit(1024);
+		assertEquals(429, slow.status());
+		assertEquals(Duration.ofMinutes(2), slow.retryAfter());
+	}
+
+	@Test
+	public void testDiskBudget() throws Exception {
+		final long free = Files.getFileStore(tmp).getUsableSpace();
+		final UploadAdmission admission = new UploadAdmission(
+			() -> new SubmissionProcessor.Load(0, 5, Duration.ZERO), tmp, free / 2, Duration.ofMinutes(10)
+		);
+
+		// an upload which would eat into the minimum free space
+		final UploadAdmission.Decision tooBig = admission.admit(free);
+		assertFalse(tooBig.accepted());
+		assertEquals(503, tooBig.status());
+		assertNotNull(tooBig.retryAfter());
+
+		// space reserved for uploads being received counts against what's free, until released
+		final UploadAdmission.Decision first = admission.admit(free / 3);
+		assertTrue(first.accepted());
+		assertEquals(503, admission.admit(free / 3).status());
+
+		first.close();
+		try (UploadAdmission.Decision second = admission.admit(free / 3)) {
+			assertTrue(second.accepted());
+		}
+	}
+
+	@Test
+	public void testUnknownLength() throws Exception {
+		final long free = Files.getFileStore(tmp).getUsableSpace();
+		final UploadAdmission admission = new UploadAdmission(
+			() -> new SubmissionProcessor.Load(0, 5, Duration.ZERO), tmp, free / 2, Duration.ofMinutes(10), free / 3
+		);
+
+		// an upload of unknown length reserves the configured amount, rather than nothing
+		try (UploadAdmission.Decision unknown = admission.admit(-1)) {
+			assertTrue(unknown.accepted());
+			assertEquals(free / 3, unknown.limit());
+			assertEquals(503, admission.admit(-1).status());
+			assertEquals(503, admission.admit(free / 3).status());
+		}
+		try (UploadAdmission.Decision unknown = admission.admit(-1)) {
+			assertTrue(unknown.accepted());
+		}
+	}
+
+	@Test
+	public void testQueuePlaceHeldUntilReleased() {
+		final UploadAdmission admission = new UploadAdmission(
+			() -> new SubmissionProcessor.Load(3, 2, Duration.ZERO), tmp, 0, Duration.ofMinutes(10)
+		);
+
+		// two places left in the queue, both taken by uploads still being received
+		final UploadAdmission.Decision first = admission.admit(1024);
+		final UploadAdmission.Decision second = admission.admit(1024);
+		assertTrue(first.accepted());
+		assertTrue(second.accepted());
+		final UploadAdmission.Decision third = admission.admit(1024);
+		assertEquals(429, third.status());
+		third.close();
+
+		first.close();
+		try (UploadAdmission.Decision fourth = admission.admit(1024)) {
+			assertTrue(fourth.accepted());
+		}
+		second.close();
+	}
+}
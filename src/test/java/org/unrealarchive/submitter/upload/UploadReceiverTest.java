@@ -0,0 +1,172 @@
+package org.unrealarchive.submitter.upload;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.List;
+
+import org.unrealarchive.submitter.clam.ClamDSocketScan;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class UploadReceiverTest {
+
+	private static final String BOUNDARY = "XyZ123";
+
+	@TempDir
+	Path tmp;
+
+	@Test
+	public void testReceive() throws Exception {
+		final byte[] body = body(field("forceType", "map"), file("files", "test.txt", "hello"),
+								 file("other", "ignored.txt", "not wanted"));
+
+		// read back in awkward sizes, so delimiters are split between reads
+		final UploadReceiver.Upload upload = new UploadReceiver(tmp, "files", null).receive(new TrickleStream(body, 7), BOUNDARY);
+
+		assertEquals("map", upload.fields().get("forceType"));
+		assertEquals(1, upload.files().size());
+		final UploadReceiver.ReceivedFile file = upload.files().getFirst();
+		assertEquals("test.txt", file.fileName());
+		assertEquals(upload.dir(), file.path().getParent());
+		assertEquals("hello", Files.readString(file.path()));
+		assertEquals(5, file.size());
+		assertEquals(sha1("hello"), file.hash());
+		assertNull(file.verdict());
+
+		upload.delete();
+		assertFalse(Files.exists(upload.dir()));
+	}
+
+	@Test
+	public void testDuplicateNames() throws Exception {
+		final byte[] body = body(file("files", "test.txt", "first"), file("files", "test.txt", "second"));
+
+		final UploadReceiver.Upload upload = new UploadReceiver(tmp, "files", null).receive(new ByteArrayInputStream(body), BOUNDARY);
+
+		assertEquals(2, upload.files().size());
+		final Path first = upload.files().get(0).path();
+		final Path second = upload.files().get(1).path();
+		assertNotEquals(first, second);
+		assertEquals(upload.dir(), second.getParent());
+		assertEquals("first", Files.readString(first));
+		assertEquals("second", Files.readString(second));
+		assertEquals(sha1("second"), upload.files().get(1).hash());
+	}
+
+	@Test
+	public void testPathTraversal() throws Exception {
+		final byte[] body = body(file("files", "../../evil.txt", "escape"), file("files", "..\\..\\evil.txt", "escape"));
+
+		final UploadReceiver.Upload upload = new UploadReceiver(tmp.resolve("incoming"), "files", null)
+			.receive(new ByteArrayInputStream(body), BOUNDARY);
+
+		assertEquals(2, upload.files().size());
+		for (UploadReceiver.ReceivedFile file : upload.files()) {
+			assertEquals(upload.dir(), file.path().getParent());
+		}
+		assertFalse(Files.exists(tmp.resolve("evil.txt")));
+		assertFalse(Files.exists(tmp.resolve("incoming/evil.txt")));
+	}
+
+	@Test
+	public void testTruncated() throws Exception {
+		final byte[] body = body(file("files", "test.txt", "hello ".repeat(1024)));
+		final byte[] truncated = new byte[body.length / 2];
+		System.arraycopy(body, 0, truncated, 0, truncated.length);
+
+		final IOException e = assertThrows(IOException.class, () -> new UploadReceiver(tmp, "files", null)
+			.receive(new ByteArrayInputStream(truncated), BOUNDARY));
+		assertEquals("Upload ended before it was complete", e.getMessage());
+		assertEmpty(tmp);
+	}
+
+	@Test
+	public void testOversizedField() throws Exception {
+		final byte[] body = body(file("files", "test.txt", "hello"), field("forceType", "x".repeat(5 * 1024)));
+
+		final IOException e = assertThrows(IOException.class, () -> new UploadReceiver(tmp, "files", null)
+			.receive(new ByteArrayInputStream(body), BOUNDARY));
+		assertEquals("Field forceType is too large", e.getMessage());
+		assertEmpty(tmp);
+	}
+
+	@Test
+	public void testAbortStopsDigest() throws Exception {
+		final ClamDSocketScan clamScan = mock(ClamDSocketScan.class);
+		final ClamDSocketScan.InStream stream = mock(ClamDSocketScan.InStream.class);
+		when(clamScan.stream()).thenReturn(stream);
+
+		final byte[] body = body(file("files", "test.txt", "hello ".repeat(1024)));
+		final byte[] truncated = new byte[body.length - 20];
+		System.arraycopy(body, 0, truncated, 0, truncated.length);
+
+		assertThrows(IOException.class, () -> new UploadReceiver(tmp, "files", clamScan)
+			.receive(new ByteArrayInputStream(truncated), BOUNDARY));
+
+		// the digest has finished with its clamd stream by the time receiving gives up, without asking for a verdict
+		verify(stream).close();
+		verify(stream, never()).finish();
+		assertEmpty(tmp);
+	}
+
+	private static void assertEmpty(Path dir) throws IOException {
+		try (var files = Files.list(dir)) {
+			assertEquals(List.of(), files.toList());
+		}
+	}
+
+	private static String sha1(String content) throws Exception {
+		final MessageDigest md = MessageDigest.getInstance(UploadReceiver.HASH_ALGORITHM);
+		return HexFormat.of().formatHex(md.digest(content.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static String field(String name, String value) {
+		return String.format("Content-Disposition: form-data; name=\"%s\"\r\n\r\n%s", name, value);
+	}
+
+	private static String file(String name, String fileName, String content) {
+		return String.format("Content-Disposition: form-data; name=\"%s\"; filename=\"%s\"\r\n"
+							 + "Content-Type: application/octet-stream\r\n\r\n%s", name, fileName, content);
+	}
+
+	private static byte[] body(String... parts) {
+		final StringBuilder sb = new StringBuilder();
+		for (String part : parts) sb.append("--").append(BOUNDARY).append("\r\n").append(part).append("\r\n");
+		sb.append("--").append(BOUNDARY).append("--\r\n");
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns at most a few bytes per read, as a slow client's request body would.
+	 */
+	private static class TrickleStream extends InputStream {
+
+		private final ByteArrayInputStream in;
+		private final int max;
+
+		private TrickleStream(byte[] content, int max) {
+			this.in = new ByteArrayInputStream(content);
+			this.max = max;
+		}
+
+		@Override
+		public int read() {
+			return in.read();
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			return in.read(b, off, Math.min(len, max));
+		}
+	}
+}